@@ -0,0 +1,111 @@
+package Tetris;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The board benchmarks measure the bitboard operations everything else is
+ * built on: checking whether a piece fits, dropping a piece to where it lands
+ * (from the column tops, and a row at a time to compare) and locking it, and
+ * clearing one or four lines, on boards filled to
+ * different heights. Clearing changes the board, so those benchmarks copy a
+ * prepared board first; copyOnly measures the copy by itself so it can be
+ * taken away.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BoardBenchmark {
+
+	@Param({ "0.2", "0.5", "0.8" })
+	public double fill;
+
+	private Board _filled;
+	private Board _singleWell;
+	private Board _tetrisWell;
+	private Board _scratch;
+	private int _probe;
+
+	@Setup
+	public void setup() {
+		_filled = Boards.filled(fill, 1);
+		_singleWell = Boards.wellOf(1, fill, 1);
+		_tetrisWell = Boards.wellOf(4, fill, 1);
+		_scratch = new Board();
+	}
+
+	/**
+	 * Checks a different kind, orientation and column every call.
+	 */
+	@Benchmark
+	public boolean fits() {
+		int probe = _probe++;
+		int kind = probe % PieceTable.KINDS;
+		int orientation = (probe >>> 3) & 3;
+		int col = Constants.FIRST_COL + 1 + (probe >>> 5) % 8;
+		return _filled.fits(kind, orientation, col, Constants.LAST_ROW / 2);
+	}
+
+	/**
+	 * Drops a T piece from the top of a column to where the column tops say
+	 * it lands and locks it, the way a hard drop does.
+	 */
+	@Benchmark
+	public Board hardDrop() {
+		_scratch.copyFrom(_filled);
+		int col = Constants.FIRST_COL + 1 + (_probe++ % 8);
+		int row = PieceTable.getSpawnRow(PieceTable.T);
+		row += _scratch.getDropDistance(PieceTable.T, 0, col, row);
+		_scratch.lockPiece(PieceTable.T, 0, col, row);
+		return _scratch;
+	}
+
+	/**
+	 * Drops a T piece the old way, checking every row on the way down, so
+	 * it can be compared with hardDrop.
+	 */
+	@Benchmark
+	public Board hardDropRowByRow() {
+		_scratch.copyFrom(_filled);
+		int col = Constants.FIRST_COL + 1 + (_probe++ % 8);
+		int row = PieceTable.getSpawnRow(PieceTable.T);
+		while (_scratch.fits(PieceTable.T, 0, col, row + 1)) {
+			row++;
+		}
+		_scratch.lockPiece(PieceTable.T, 0, col, row);
+		return _scratch;
+	}
+
+	@Benchmark
+	public int clearSingle() {
+		_scratch.copyFrom(_singleWell);
+		_scratch.lockPiece(PieceTable.I, 1, Constants.FIRST_COL + 1,
+				Constants.LAST_ROW - 2);
+		return _scratch.clearFullLines(Constants.LAST_ROW - 3,
+				Constants.LAST_ROW);
+	}
+
+	@Benchmark
+	public int clearTetris() {
+		_scratch.copyFrom(_tetrisWell);
+		_scratch.lockPiece(PieceTable.I, 1, Constants.FIRST_COL + 1,
+				Constants.LAST_ROW - 2);
+		return _scratch.clearFullLines(Constants.LAST_ROW - 3,
+				Constants.LAST_ROW);
+	}
+
+	@Benchmark
+	public Board copyOnly() {
+		_scratch.copyFrom(_tetrisWell);
+		return _scratch;
+	}
+
+}
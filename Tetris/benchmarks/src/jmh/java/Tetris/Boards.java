@@ -0,0 +1,53 @@
+package Tetris;
+
+import java.util.SplittableRandom;
+
+/**
+ * Boards makes the boards the benchmarks run on, so every benchmark measures
+ * against the same kinds of board. A board is filled from the bottom up to a
+ * fraction of its height, and every filled row has at least one hole so no
+ * line is full until a benchmark fills one.
+ */
+final class Boards {
+
+	private Boards() {
+	}
+
+	/**
+	 * Fills the bottom fill (0 to 1) of the playfield with random squares,
+	 * leaving a hole in every row.
+	 */
+	static Board filled(double fill, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		Board board = new Board();
+		int rows = (int) Math.round(fill
+				* (Constants.LAST_ROW - Constants.TOP_ROW));
+		for (int row = Constants.LAST_ROW; row > Constants.LAST_ROW - rows; row--) {
+			int hole = Constants.FIRST_COL
+					+ random.nextInt(Constants.LAST_COL - Constants.FIRST_COL + 1);
+			for (int col = Constants.FIRST_COL; col <= Constants.LAST_COL; col++) {
+				if (col != hole && random.nextInt(4) != 0) {
+					board.setSquare(col, row, random.nextInt(PieceTable.KINDS));
+				}
+			}
+		}
+		return board;
+	}
+
+	/**
+	 * Makes a board whose bottom lines rows are full except for the second
+	 * playable column, so dropping an upright I piece there clears them all.
+	 */
+	static Board wellOf(int lines, double fill, long seed) {
+		Board board = Boards.filled(fill, seed);
+		for (int row = Constants.LAST_ROW; row > Constants.LAST_ROW - lines; row--) {
+			for (int col = Constants.FIRST_COL; col <= Constants.LAST_COL; col++) {
+				if (col != Constants.FIRST_COL + 1) {
+					board.setSquare(col, row, PieceTable.T);
+				}
+			}
+		}
+		return board;
+	}
+
+}
@@ -0,0 +1,105 @@
+package Tetris;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The broadcast benchmarks measure what a game pays on every frame that
+ * changed to send it to its spectators: writing the delta from the last
+ * frame and publishing it, with more and more spectators subscribed. That
+ * should cost the same however many there are. The frames are made from a
+ * headless game beforehand and published over and over, a keyframe coming
+ * whenever the broadcast wants one, the way the game does it. Polling is
+ * measured for one spectator that keeps up, which is what each of them
+ * costs its own reader.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BroadcastBenchmark {
+
+	private static final int FRAMES = 1024;
+
+	@Param({ "0", "1", "10", "100", "1000", "10000" })
+	public int spectators;
+
+	private GameFrame[] _frames;
+	private int _frame;
+	private GameFrame _last;
+	private Broadcast _broadcast;
+	private Spectator[] _spectators;
+	private ByteBuffer _delta;
+	private ByteBuffer _polled;
+
+	/**
+	 * Plays a game a piece at a time and keeps a frame after every piece,
+	 * starting a new game whenever one ends.
+	 */
+	@Setup
+	public void setup() {
+		_frames = new GameFrame[FRAMES];
+		MovePolicy policy = new LowestPolicy();
+		Engine engine = new Engine(BatchSimulator.getGameSeed(0, 0));
+		GameLoop loop = new GameLoop(engine, false);
+		for (int i = 0; i < FRAMES; i++) {
+			if (engine.isGameOver()) {
+				engine = new Engine(BatchSimulator.getGameSeed(0, i));
+				loop = new GameLoop(engine, false);
+			}
+			policy.placePiece(engine);
+			_frames[i] = new GameFrame(engine, loop, false);
+		}
+		_broadcast = new Broadcast(256, 60);
+		_spectators = new Spectator[Math.max(1, spectators)];
+		for (int i = 0; i < _spectators.length; i++) {
+			_spectators[i] = _broadcast.subscribe();
+		}
+		if (spectators == 0) {
+			// publishAndPoll still has one to poll, which gets nothing
+			_spectators[0].close();
+		}
+		_delta = ByteBuffer.allocate(GameDelta.MAX_SIZE);
+		_polled = ByteBuffer.allocate(GameDelta.MAX_SIZE);
+	}
+
+	/**
+	 * Writes and publishes a delta of the next frame. With 0 spectators this
+	 * is only the check the game does before writing anything.
+	 */
+	@Benchmark
+	public long publish() {
+		GameFrame frame = _frames[_frame];
+		_frame = (_frame + 1) % FRAMES;
+		if (!_broadcast.isWatched()) {
+			_last = null;
+			return 0;
+		}
+		_delta.clear();
+		GameDelta.write(frame, _broadcast.needsKeyframe() ? null : _last, _delta);
+		_delta.flip();
+		_broadcast.publish(_delta);
+		_last = frame;
+		return _broadcast.getPublished();
+	}
+
+	/**
+	 * Publishes a delta and polls it with the first spectator.
+	 */
+	@Benchmark
+	public ByteBuffer publishAndPoll() {
+		this.publish();
+		_polled.clear();
+		_spectators[0].poll(_polled);
+		return _polled;
+	}
+
+}
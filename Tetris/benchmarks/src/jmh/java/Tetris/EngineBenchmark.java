@@ -0,0 +1,71 @@
+package Tetris;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The engine benchmarks measure what the game does on every key press and
+ * every piece: shifting, rotating, hard dropping and making the next piece
+ * with each of the piece generators. When a hard drop ends the game the
+ * engine is replaced, which happens rarely enough not to matter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EngineBenchmark {
+
+	@Param({ PieceGenerator.UNIFORM, PieceGenerator.BAG, PieceGenerator.HISTORY })
+	public String generator;
+
+	private Engine _engine;
+	private long _games;
+
+	@Setup
+	public void setup() {
+		_engine = this.newEngine();
+	}
+
+	private Engine newEngine() {
+		return new Engine(PieceGenerator.create(generator, _games++));
+	}
+
+	/**
+	 * Shifts left and then back right, so the piece stays where it was.
+	 */
+	@Benchmark
+	public boolean shift() {
+		return _engine.shiftLeft() & _engine.shiftRight();
+	}
+
+	/**
+	 * Rotates the piece; after four calls it is back where it started.
+	 */
+	@Benchmark
+	public boolean rotate() {
+		return _engine.rotate();
+	}
+
+	@Benchmark
+	public Engine hardDropAndSpawn() {
+		if (_engine.isGameOver()) {
+			_engine = this.newEngine();
+		}
+		_engine.dropAllTheWay();
+		return _engine;
+	}
+
+	@Benchmark
+	public int spawn() {
+		_engine.makeNewPiece();
+		return _engine.getKind();
+	}
+
+}
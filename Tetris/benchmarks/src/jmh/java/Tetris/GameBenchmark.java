@@ -0,0 +1,36 @@
+package Tetris;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The game benchmark measures how many whole games a second one thread can
+ * play without a window, with the lowest policy placing every piece the way
+ * the batch simulator does. Every call plays a new game with the next seed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GameBenchmark {
+
+	private static final long MAX_PIECES = 10000;
+
+	private MovePolicy _policy = new LowestPolicy();
+	private int _game;
+
+	@Benchmark
+	public long headlessGame() {
+		Engine engine = new Engine(BatchSimulator.getGameSeed(0, _game++));
+		while (!engine.isGameOver() && engine.getPieces() <= MAX_PIECES) {
+			_policy.placePiece(engine);
+		}
+		return engine.getPieces();
+	}
+
+}
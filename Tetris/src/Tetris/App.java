@@ -15,21 +15,50 @@ import javafx.stage.Stage;
  */
 public class App extends Application {
 
+	private PaneOrganizer _organizer;
+
 	/**
 	 * This start method is passed the stage as an argument and sets its title
 	 * to Tetris!. The PaneOrganizer is instantiated locally and the scene is
 	 * passed _borderpane (root) that the pane organizer instantiates. The scene
-	 * is set as the scene of the stage and the stage is displayed (show).
+	 * is set as the scene of the stage and the stage is displayed (show). The
+	 * settings are read from the named parameters on the command line: the
+	 * board is drawn with nodes unless --renderer=canvas is given,
+	 * --frametimes=true shows how long frames take and --catchup=true makes
+	 * the game loop run every step it missed when frames are late.
+	 * --record=file records the game and --replay=file plays it again.
+	 * --metrics=jmx keeps the game's metrics in JMX and --metrics=overlay
+	 * also shows them below the board.
+	 * --jfr=file records the game with Java Flight Recorder.
+	 * --width=200 and --height=1000 change the size of the playfield and
+	 * --size=10 the size of a square in pixels.
+	 * --simthread=true runs the game on a thread of its own and only draws
+	 * it on the javaFX thread.
+	 * --players=2 plays a versus game on two boards side by side (or more),
+	 * and --humans=2 lets two people play the first two with the arrow keys
+	 * and with WASD; the auto player plays the others.
 	 */
 	@Override
 	public void start(Stage stage) {
 		stage.setTitle("Tetris!");
-		PaneOrganizer organizer = new PaneOrganizer();
-		Scene scene = new Scene(organizer.getBorderPane());
+		Settings settings = new Settings(this.getParameters().getNamed());
+		_organizer = new PaneOrganizer(settings);
+		Scene scene = new Scene(_organizer.getBorderPane());
 		stage.setScene(scene);
 		stage.show();
 	}
 
+	/**
+	 * This stop method is called by javaFX when the app is closed, whether by
+	 * the quit button or the window, and tells the pane organizer.
+	 */
+	@Override
+	public void stop() {
+		if (_organizer != null) {
+			_organizer.stop();
+		}
+	}
+
 	/*
 	 * This is the main line.
 	 */
@@ -0,0 +1,88 @@
+package Tetris;
+
+/**
+ * The auto player plays the game by itself when the app is started with
+ * --bot=true. Whenever the engine makes a new piece it asks the search policy
+ * where the piece should go, and then it moves the piece there with the
+ * engine's own drop, rotate and shift methods, one move every STEPS_PER_MOVE
+ * steps so it can be watched, and drops it once it is there. Gravity keeps working
+ * while it moves; if the piece ends up somewhere a move can't be made, it is
+ * dropped where it is. It is the game loop's controller in place of the input
+ * handler, so it only ever changes the engine right before a step.
+ */
+public class AutoPlayer implements Controller {
+
+	private static final int STEPS_PER_MOVE = 3;
+	private static final int CACHE_ENTRIES = 1 << 16;
+
+	private Engine _engine;
+	private SearchPolicy _policy;
+	private long _plannedPiece; // the number of the piece the plan is for
+	private int _dropRow; // the row to move the piece down to before turning it
+	private int _orientation;
+	private int _col;
+	private int _wait;
+
+	/**
+	 * The constructor takes the engine to play and how many threads the
+	 * search may use.
+	 */
+	public AutoPlayer(Engine engine, int threads) {
+		_engine = engine;
+		_policy = new SearchPolicy(new Evaluator(), threads,
+				new EvaluationCache(CACHE_ENTRIES));
+		_plannedPiece = 0;
+	}
+
+	@Override
+	public void step() {
+		if (_engine.isGameOver()) {
+			return;
+		}
+		if (_engine.getPieces() != _plannedPiece) {
+			_policy.findMove(_engine);
+			_plannedPiece = _engine.getPieces();
+			_dropRow = _engine.getPivotRow() + _policy.getBestDrops();
+			_orientation = _policy.getBestOrientation();
+			_col = _policy.getBestCol();
+			_wait = STEPS_PER_MOVE;
+		}
+		_wait--;
+		if (_wait > 0) {
+			return;
+		}
+		_wait = STEPS_PER_MOVE;
+		boolean moved = false;
+		if (_engine.getPivotRow() < _dropRow) {
+			if (_engine.dropPieceDown()) {
+				return; // it landed on the way down
+			}
+			moved = true;
+		} else if (_engine.getOrientation() != _orientation) {
+			moved = _engine.rotate();
+		} else if (_engine.getPivotCol() < _col) {
+			moved = _engine.shiftRight();
+		} else if (_engine.getPivotCol() > _col) {
+			moved = _engine.shiftLeft();
+		}
+		if (!moved) {
+			_engine.dropAllTheWay();
+		}
+	}
+
+	/**
+	 * Returns the search policy, whose counters say how many placements it
+	 * has scored and how long that took.
+	 */
+	public SearchPolicy getPolicy() {
+		return _policy;
+	}
+
+	/**
+	 * Stops the search's threads once the game is over.
+	 */
+	public void shutdown() {
+		_policy.shutdown();
+	}
+
+}
@@ -0,0 +1,41 @@
+package Tetris;
+
+import java.util.SplittableRandom;
+
+/**
+ * The bag generator puts one of each of the seven pieces in a bag, shuffles
+ * it and deals the pieces out in that order, then does it again. Every seven
+ * pieces in a row from the start of a bag has one of each kind, so there are
+ * never more than twelve pieces between two of the same kind.
+ */
+public class BagGenerator implements PieceGenerator {
+
+	private SplittableRandom _random;
+	private int[] _bag;
+	private int _next; // where in the bag the next piece is
+
+	public BagGenerator(long seed) {
+		_random = new SplittableRandom(seed);
+		_bag = new int[PieceTable.KINDS];
+		for (int kind = 0; kind < PieceTable.KINDS; kind++) {
+			_bag[kind] = kind;
+		}
+		_next = PieceTable.KINDS;
+	}
+
+	@Override
+	public int next() {
+		if (_next == PieceTable.KINDS) {
+			// shuffle the bag in place
+			for (int i = PieceTable.KINDS - 1; i > 0; i--) {
+				int j = _random.nextInt(i + 1);
+				int kind = _bag[i];
+				_bag[i] = _bag[j];
+				_bag[j] = kind;
+			}
+			_next = 0;
+		}
+		return _bag[_next++];
+	}
+
+}
@@ -0,0 +1,224 @@
+package Tetris;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Paths;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * The batch simulator plays lots of games without a window, as many at once as
+ * there are threads, with a move policy deciding where every piece goes. It is
+ * the second main line of the app next to the one in App. Each game gets its
+ * own engine with its own seed worked out from the batch's seed and the game's
+ * number, so a batch run again with the same seed plays exactly the same games
+ * no matter which thread plays which game. The games never share anything:
+ * every thread makes its own move policy the first time it plays a game, and
+ * the results are added into counters that threads can add to at the same
+ * time without waiting for each other. The only thing the policies share is
+ * one evaluation cache, which every thread can use at once without locking.
+ * If the batch has a replay archive, every game is recorded in memory while
+ * it is played and added to the archive when it is over.
+ */
+public class BatchSimulator {
+
+	private static final int CACHE_ENTRIES = 1 << 20;
+
+	private int _games;
+	private long _seed;
+	private long _maxPieces;
+	private String _generator;
+	private String _policy;
+	private ThreadLocal<MovePolicy> _policies;
+	private Queue<MovePolicy> _allPolicies;
+	private EvaluationCache _cache;
+	private ReplayArchiveWriter _archive;
+	private ThreadLocal<ByteArrayOutputStream> _logs;
+	private LongAdder _pieces;
+	private LongAdder _lines;
+	private LongAccumulator _bestScore;
+
+	/**
+	 * The constructor takes how many games to play, the seed of the batch,
+	 * the most pieces any one game may use (good policies can play forever),
+	 * the name of the piece generator every game uses and the name of the
+	 * move policy.
+	 */
+	public BatchSimulator(int games, long seed, long maxPieces,
+			String generator, String policy) {
+		_games = games;
+		_seed = seed;
+		_maxPieces = maxPieces;
+		_generator = generator;
+		_policy = policy;
+		_allPolicies = new ConcurrentLinkedQueue<MovePolicy>();
+		_cache = new EvaluationCache(CACHE_ENTRIES);
+		_logs = ThreadLocal.withInitial(ByteArrayOutputStream::new);
+		_policies = ThreadLocal.withInitial(this::makePolicy);
+		_pieces = new LongAdder();
+		_lines = new LongAdder();
+		_bestScore = new LongAccumulator(Math::max, 0);
+	}
+
+	/**
+	 * Gives the batch an archive to add every game it plays to. The game's
+	 * number is its id in the archive.
+	 */
+	public void setArchive(ReplayArchiveWriter archive) {
+		_archive = archive;
+	}
+
+	/**
+	 * Plays every game of the batch on a fork join pool with the given number
+	 * of threads and returns how long it took in nanoseconds.
+	 */
+	public long run(int threads) {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		long start = System.nanoTime();
+		try {
+			pool.submit(() -> IntStream.range(0, _games).parallel()
+					.forEach(this::playGame)).join();
+		} finally {
+			pool.shutdown();
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Plays one game until it is over or out of pieces and adds its results
+	 * to the counters.
+	 */
+	private void playGame(int game) {
+		long seed = BatchSimulator.getGameSeed(_seed, game);
+		Engine engine = new Engine(_generator, seed);
+		ReplayRecorder recorder = null;
+		ByteArrayOutputStream log = null;
+		if (_archive != null) {
+			log = _logs.get();
+			log.reset();
+			recorder = new ReplayRecorder(Channels.newChannel(log), false,
+					_generator, seed);
+			engine.setRecorder(recorder);
+		}
+		MovePolicy policy = _policies.get();
+		while (!engine.isGameOver() && engine.getPieces() <= _maxPieces) {
+			policy.placePiece(engine);
+		}
+		if (recorder != null) {
+			try {
+				recorder.close(engine);
+				_archive.append(game, ByteBuffer.wrap(log.toByteArray()),
+						engine.getScore(), engine.getScore(), engine.getPieces());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		_pieces.add(engine.getPieces());
+		_lines.add(engine.getScore());
+		_bestScore.accumulate(engine.getScore());
+	}
+
+	/**
+	 * Makes the move policy for a thread and remembers it so its placements
+	 * can be counted at the end.
+	 */
+	private MovePolicy makePolicy() {
+		MovePolicy policy = MovePolicy.create(_policy, _cache);
+		_allPolicies.add(policy);
+		return policy;
+	}
+
+	/**
+	 * Mixes the batch's seed with the game's number so that games next to
+	 * each other don't get seeds next to each other.
+	 */
+	public static long getGameSeed(long seed, int game) {
+		long z = seed + (game + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	public long getPieces() {
+		return _pieces.sum();
+	}
+
+	public long getLines() {
+		return _lines.sum();
+	}
+
+	public long getBestScore() {
+		return _bestScore.get();
+	}
+
+	/**
+	 * Returns how many placements the policies of every thread have tried.
+	 * It is only right once run has returned.
+	 */
+	public long getPlacements() {
+		long placements = 0;
+		for (MovePolicy policy : _allPolicies) {
+			placements += policy.getPlacements();
+		}
+		return placements;
+	}
+
+	/**
+	 * Returns the evaluation cache the policies share.
+	 */
+	public EvaluationCache getCache() {
+		return _cache;
+	}
+
+	/**
+	 * This is the main line of the batch simulator. The arguments are the
+	 * number of games, the number of threads, the seed, the most pieces a game
+	 * may use, the piece generator, the move policy and a replay archive to
+	 * add every game to, and all of them can be left off from the end.
+	 */
+	public static void main(String[] argv) throws IOException {
+		int games = argv.length > 0 ? Integer.parseInt(argv[0]) : 10000;
+		int threads = argv.length > 1 ? Integer.parseInt(argv[1]) : Runtime
+				.getRuntime().availableProcessors();
+		long seed = argv.length > 2 ? Long.parseLong(argv[2]) : 0;
+		long maxPieces = argv.length > 3 ? Long.parseLong(argv[3]) : 10000;
+		String generator = argv.length > 4 ? argv[4] : PieceGenerator.UNIFORM;
+		String policy = argv.length > 5 ? argv[5] : MovePolicy.LOWEST;
+		BatchSimulator simulator = new BatchSimulator(games, seed, maxPieces,
+				generator, policy);
+		ReplayArchiveWriter archive = null;
+		if (argv.length > 6) {
+			archive = new ReplayArchiveWriter(Paths.get(argv[6]));
+			simulator.setArchive(archive);
+		}
+		long nanos;
+		try {
+			nanos = simulator.run(threads);
+		} finally {
+			if (archive != null) {
+				archive.close();
+			}
+		}
+		double seconds = nanos / 1e9;
+		System.out.printf("%d games on %d threads in %.2f s: %.0f games/s%n",
+				games, threads, seconds, games / seconds);
+		System.out.printf("pieces %d (%.0f/s), lines %d, best score %d%n",
+				simulator.getPieces(), simulator.getPieces() / seconds,
+				simulator.getLines(), simulator.getBestScore());
+		System.out.printf("placements %d (%.0f/s)%n", simulator.getPlacements(),
+				simulator.getPlacements() / seconds);
+		EvaluationCache cache = simulator.getCache();
+		if (cache.getHits() + cache.getMisses() > 0) {
+			System.out.printf("cache hits %.1f%%, evictions %d%n",
+					100 * cache.getHitRate(), cache.getEvictions());
+		}
+	}
+
+}
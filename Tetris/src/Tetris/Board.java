@@ -0,0 +1,571 @@
+package Tetris;
+
+import java.util.Arrays;
+
+/**
+ * The board class is the logical playfield of the game and does not know
+ * anything about javaFX. Every row of the board is stored as bits where bit
+ * number col is set when the square at that column is occupied, so checking
+ * for a collision, locking a square or finding a full line are all bitwise
+ * operations instead of looking at nodes. A row is one long on any board up to
+ * 64 squares wide and ROW_WORDS longs on a wider one; a piece is at most four
+ * squares wide, so its squares in a row are in one long or the end of one and
+ * the start of the next. The frame around the playfield is
+ * stored as occupied squares just like the old array of TetrisSquares did, so
+ * pieces can never move past it. Next to the masks the board remembers which
+ * kind of piece every square came from so that the game can draw it in the
+ * right color, and the top of every column: the row of the highest square in
+ * it. The column tops let the board work out how far a piece falls with one
+ * subtraction per column instead of moving it down a row at a time. The board
+ * also keeps its zobrist hash, which changes with every square that is filled
+ * and every row that moves, so boards that are the same have the same hash
+ * however they got that way.
+ *
+ * The board also remembers its top row, the highest row with anything in it.
+ * Every row above it is empty, so clearing lines, copying a board and finding
+ * the column tops again start there instead of at the top of the playfield,
+ * which on a very tall board is most of the work saved. A board that is only
+ * used to try placements (like the search policy's scratch boards) can be made
+ * without the kinds, which it would only copy and never look at.
+ *
+ * A board can take a snapshot of itself and be restored to one. The snapshot
+ * gets its own copy of the row masks, but it shares
+ * the arrays of kinds with the board: every row of kinds is marked as shared,
+ * and the board copies a shared row before it writes to it. Rows that move
+ * when lines are cleared move as whole arrays, so after a piece is locked
+ * only the rows it covered have been copied and every other row is still
+ * shared with the snapshot. Restoring shares the snapshot's rows the same way,
+ * so saving and restoring never copy the kinds, and a search can keep
+ * thousands of snapshots that differ in a few rows and share the rest. Every
+ * empty row starts out sharing one array of kinds, so a new board doesn't
+ * make an array for a row until something is put in it.
+ *
+ * In a versus game a board can be sent garbage: rows that are full except
+ * for one hole, pushed in at the bottom. Everything above moves up in one
+ * copy of the row masks and one of the rows of kinds, and the garbage rows
+ * all share one array of kinds, so it costs about the same however many
+ * rows come in.
+ */
+public class Board {
+
+	public static final int EMPTY = -1; // kind of a square with nothing in it
+	public static final int WALL = 7; // kind of a square in the frame
+	public static final int GARBAGE = 8; // kind of a square of a garbage row
+
+	private static final int WORDS = Constants.ROW_WORDS;
+	private static final int MAX_CLEARED = 32; // rows clearFullLines looks at
+	// the bits of every column, and of the playable ones, in each word of a row
+	private static final long[] FULL_ROW = new long[WORDS];
+	private static final long[] PLAYABLE_COLUMNS = new long[WORDS];
+	// the kinds of an empty playable row and of a row of the frame, always
+	// shared so they are never written
+	private static final byte[] EMPTY_KINDS = new byte[Constants.BOARD_WIDTH];
+	private static final byte[] WALL_KINDS = new byte[Constants.BOARD_WIDTH];
+
+	static {
+		for (int col = 0; col < Constants.BOARD_WIDTH; col++) {
+			FULL_ROW[col >>> 6] |= 1L << col;
+			if (col < Constants.FIRST_COL || col > Constants.LAST_COL) {
+				EMPTY_KINDS[col] = (byte) WALL;
+			} else {
+				PLAYABLE_COLUMNS[col >>> 6] |= 1L << col;
+				EMPTY_KINDS[col] = (byte) EMPTY;
+			}
+			WALL_KINDS[col] = (byte) WALL;
+		}
+	}
+
+	private long[] _rows; // WORDS longs for every row
+	private byte[][] _kinds; // null if the board doesn't keep kinds
+	private int[] _columnTops;
+	private int _top; // the highest row with a square in it
+	private long _hash;
+	private long[] _shared; // a bit for every row of kinds a snapshot may share
+	private byte[][] _spares; // the kinds of rows that were just cleared
+	private long[] _unfound; // columns whose tops haven't been found yet
+
+	/**
+	 * The constructor makes the frame: the first and last two rows are
+	 * completely full and every other row has its first and last two columns
+	 * filled in.
+	 */
+	public Board() {
+		this(true);
+	}
+
+	/**
+	 * This constructor makes a board that only keeps the kinds of its squares
+	 * if keepsKinds is true. getKind, snapshot and restore can't be used on
+	 * a board without them.
+	 */
+	public Board(boolean keepsKinds) {
+		_rows = new long[Constants.BOARD_HEIGHT * WORDS];
+		_columnTops = new int[Constants.BOARD_WIDTH];
+		_shared = new long[(Constants.BOARD_HEIGHT + 63) / 64];
+		_unfound = new long[WORDS];
+		for (int row = 0; row < Constants.BOARD_HEIGHT; row++) {
+			boolean frame = row < Constants.TOP_ROW || row > Constants.LAST_ROW;
+			for (int word = 0; word < WORDS; word++) {
+				_rows[row * WORDS + word] = frame ? FULL_ROW[word]
+						: FULL_ROW[word] & ~PLAYABLE_COLUMNS[word];
+			}
+		}
+		if (keepsKinds) {
+			_kinds = new byte[Constants.BOARD_HEIGHT][];
+			_spares = new byte[MAX_CLEARED][];
+			for (int row = 0; row < Constants.BOARD_HEIGHT; row++) {
+				_kinds[row] = row < Constants.TOP_ROW
+						|| row > Constants.LAST_ROW ? WALL_KINDS : EMPTY_KINDS;
+			}
+			Arrays.fill(_shared, -1L);
+		}
+		for (int col = 0; col < Constants.BOARD_WIDTH; col++) {
+			_columnTops[col] = col < Constants.FIRST_COL
+					|| col > Constants.LAST_COL ? 0 : Constants.LAST_ROW + 1;
+		}
+		_top = Constants.LAST_ROW + 1;
+	}
+
+	/**
+	 * Makes this board the same as the other one, without making any new
+	 * arrays. Only the rows from the higher of the two boards' top rows down
+	 * are copied, since every row above that is empty on both. The kinds are
+	 * only copied if both boards keep them.
+	 */
+	public void copyFrom(Board other) {
+		int from = Math.min(_top, other._top);
+		System.arraycopy(other._rows, from * WORDS, _rows, from * WORDS,
+				(Constants.LAST_ROW + 1 - from) * WORDS);
+		if (_kinds != null && other._kinds != null) {
+			for (int row = from; row <= Constants.LAST_ROW; row++) {
+				System.arraycopy(other._kinds[row], 0, this.getKinds(row), 0,
+						Constants.BOARD_WIDTH);
+			}
+		}
+		System.arraycopy(other._columnTops, 0, _columnTops, 0,
+				Constants.BOARD_WIDTH);
+		_top = other._top;
+		_hash = other._hash;
+	}
+
+	/**
+	 * Returns whether the square at col and row is occupied, either by the
+	 * frame or by a square of a piece that has already landed.
+	 */
+	public boolean isOccupied(int col, int row) {
+		return (_rows[row * WORDS + (col >>> 6)] & (1L << col)) != 0;
+	}
+
+	/**
+	 * Returns one word of the mask of a row, with bit number col - 64 * word
+	 * set for every occupied column, so that callers can test several squares
+	 * of it at once.
+	 */
+	public long getWord(int row, int word) {
+		return _rows[row * WORDS + word];
+	}
+
+	/**
+	 * Returns the bits of the playable columns in a word of a row.
+	 */
+	public static long getPlayableColumns(int word) {
+		return PLAYABLE_COLUMNS[word];
+	}
+
+	/**
+	 * Returns the kind of piece the square at col and row came from, EMPTY if
+	 * there is nothing there or WALL if it is part of the frame.
+	 */
+	public int getKind(int col, int row) {
+		return _kinds[row][col];
+	}
+
+	/**
+	 * Fills in the square at col and row. This is used to lock the squares of
+	 * a piece into the board once it can't fall any further.
+	 */
+	public void setSquare(int col, int row, int kind) {
+		int index = row * WORDS + (col >>> 6);
+		if (kind != WALL && (_rows[index] & (1L << col)) == 0) {
+			_hash ^= Zobrist.getSquareKey(col, row);
+		}
+		_rows[index] |= 1L << col;
+		if (_kinds != null) {
+			this.getKinds(row)[col] = (byte) kind;
+		}
+		if (row < _columnTops[col]) {
+			_columnTops[col] = row;
+		}
+		if (row < _top && col >= Constants.FIRST_COL
+				&& col <= Constants.LAST_COL) {
+			_top = row;
+		}
+	}
+
+	/**
+	 * Returns the kinds of a row to write to, copying them first if a
+	 * snapshot might share them.
+	 */
+	private byte[] getKinds(int row) {
+		if ((_shared[row >>> 6] & (1L << row)) != 0) {
+			_kinds[row] = _kinds[row].clone();
+			_shared[row >>> 6] &= ~(1L << row);
+		}
+		return _kinds[row];
+	}
+
+	private boolean isShared(int row) {
+		return (_shared[row >>> 6] & (1L << row)) != 0;
+	}
+
+	private void setShared(int row, boolean shared) {
+		if (shared) {
+			_shared[row >>> 6] |= 1L << row;
+		} else {
+			_shared[row >>> 6] &= ~(1L << row);
+		}
+	}
+
+	/**
+	 * Returns the row of the highest square in a column. A column with nothing
+	 * in the playfield has the bottom of the frame as its top.
+	 */
+	public int getColumnTop(int col) {
+		return _columnTops[col];
+	}
+
+	/**
+	 * Returns the highest row with a square in it, or the bottom of the frame
+	 * if the playfield is empty. Every row above it is empty.
+	 */
+	public int getTopRow() {
+		return _top;
+	}
+
+	/**
+	 * Returns whether the given orientation of a kind of piece fits with its
+	 * third square at col and row. Each row of the piece's mask is shifted
+	 * over to its column and tested against the board's row, so this is at
+	 * most four ANDs, or eight if the piece is across two words.
+	 */
+	public boolean fits(int kind, int orientation, int col, int row) {
+		int top = row + PieceTable.getTop(kind, orientation);
+		int left = col + PieceTable.getLeft(kind, orientation);
+		int height = PieceTable.getHeight(kind, orientation);
+		int width = PieceTable.getWidth(kind, orientation);
+		if (top < 0 || left < 0 || top + height > Constants.BOARD_HEIGHT
+				|| left + width > Constants.BOARD_WIDTH) {
+			return false;
+		}
+		int shift = left & 63;
+		boolean across = shift + width > 64;
+		for (int i = 0; i < height; i++) {
+			long mask = PieceTable.getMask(kind, orientation, i);
+			int index = (top + i) * WORDS + (left >>> 6);
+			if ((_rows[index] & (mask << shift)) != 0) {
+				return false;
+			}
+			if (across && (_rows[index + 1] & (mask >>> (64 - shift))) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Locks the squares of a piece into the board by ORing its masks into the
+	 * rows it covers.
+	 */
+	public void lockPiece(int kind, int orientation, int col, int row) {
+		int top = row + PieceTable.getTop(kind, orientation);
+		int left = col + PieceTable.getLeft(kind, orientation);
+		int shift = left & 63;
+		boolean across = shift + PieceTable.getWidth(kind, orientation) > 64;
+		for (int i = 0; i < PieceTable.getHeight(kind, orientation); i++) {
+			long mask = PieceTable.getMask(kind, orientation, i);
+			int index = (top + i) * WORDS + (left >>> 6);
+			_rows[index] |= mask << shift;
+			if (across) {
+				_rows[index + 1] |= mask >>> (64 - shift);
+			}
+		}
+		for (int square = 0; square < 4; square++) {
+			int squareCol = col + PieceTable.getColOffset(kind, orientation, square);
+			int squareRow = row + PieceTable.getRowOffset(kind, orientation, square);
+			if (_kinds != null) {
+				this.getKinds(squareRow)[squareCol] = (byte) kind;
+			}
+			_hash ^= Zobrist.getSquareKey(squareCol, squareRow);
+			if (squareRow < _columnTops[squareCol]) {
+				_columnTops[squareCol] = squareRow;
+			}
+		}
+		if (top < _top) {
+			_top = top;
+		}
+	}
+
+	/**
+	 * Returns how many rows the given orientation of a kind of piece can fall
+	 * from col and row before it lands. When every column of the piece is
+	 * above the top of the board's column under it, the piece lands as soon as
+	 * one of them reaches its column's top, so this is one subtraction per
+	 * column of the piece. A piece tucked under an overhang is below the top
+	 * of its column and is moved down a row at a time instead.
+	 */
+	public int getDropDistance(int kind, int orientation, int col, int row) {
+		int left = col + PieceTable.getLeft(kind, orientation);
+		int distance = Integer.MAX_VALUE;
+		for (int i = 0; i < PieceTable.getWidth(kind, orientation); i++) {
+			int bottom = row + PieceTable.getBottom(kind, orientation, i);
+			int top = _columnTops[left + i];
+			if (bottom >= top) {
+				distance = 0;
+				while (this.fits(kind, orientation, col, row + distance + 1)) {
+					distance++;
+				}
+				return distance;
+			}
+			distance = Math.min(distance, top - bottom - 1);
+		}
+		return distance;
+	}
+
+	/**
+	 * A line is full when every bit of its row is set, the frame included.
+	 */
+	public boolean isLineFull(int row) {
+		for (int word = 0; word < WORDS; word++) {
+			if (_rows[row * WORDS + word] != FULL_ROW[word]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Clears every full line between firstRow and lastRow, which are the only
+	 * rows a piece that was just locked could have filled (and at most
+	 * MAX_CLEARED rows are looked at). All the rows that stay are moved down
+	 * in one pass from the bottom up to the top row, however many lines were
+	 * full, and the rows left over at the top are emptied; the empty rows
+	 * above the top row don't move at all. The hash loses the keys of what was
+	 * in every row that changes and gets the keys of what is in it now.
+	 * Returns how many lines were cleared.
+	 */
+	public int clearFullLines(int firstRow, int lastRow) {
+		firstRow = Math.max(firstRow, Constants.TOP_ROW);
+		lastRow = Math.min(Math.min(lastRow, Constants.LAST_ROW),
+				firstRow + MAX_CLEARED - 1);
+		int cleared = 0; // bit number row - firstRow for every full row
+		for (int row = firstRow; row <= lastRow; row++) {
+			if (this.isLineFull(row)) {
+				cleared |= 1 << (row - firstRow);
+			}
+		}
+		if (cleared == 0) {
+			return 0;
+		}
+		// the kinds of the cleared rows are used again for the empty rows
+		// that come in at the top, unless a snapshot shares them
+		int spares = 0;
+		int sharedSpares = 0;
+		if (_kinds != null) {
+			for (int row = firstRow; row <= lastRow; row++) {
+				if ((cleared & (1 << (row - firstRow))) != 0) {
+					sharedSpares |= (this.isShared(row) ? 1 : 0) << spares;
+					_spares[spares++] = _kinds[row];
+				}
+			}
+		}
+		int top = _top;
+		int to = lastRow;
+		for (int from = lastRow; from >= top; from--) {
+			if (from >= firstRow && (cleared & (1 << (from - firstRow))) != 0) {
+				continue;
+			}
+			if (to != from) {
+				this.moveRow(from, to);
+			}
+			to--;
+		}
+		for (; to >= top; to--) {
+			this.emptyRow(to);
+			if (_kinds != null) {
+				spares--;
+				if ((sharedSpares & (1 << spares)) != 0) {
+					_kinds[to] = EMPTY_KINDS;
+					this.setShared(to, true);
+				} else {
+					_kinds[to] = _spares[spares];
+					System.arraycopy(EMPTY_KINDS, 0, _kinds[to], 0,
+							Constants.BOARD_WIDTH);
+					this.setShared(to, false);
+				}
+				_spares[spares] = null;
+			}
+		}
+		// the rows only moved down, so no column's top is above where it was
+		this.findColumnTops(top);
+		return Integer.bitCount(cleared);
+	}
+
+	/**
+	 * Pushes the given number of garbage rows in at the bottom of the
+	 * playfield, full except for the hole column, and moves every row above
+	 * them up to make room. Rows pushed past the top of the playfield are
+	 * lost, and then false is returned, which ends the game. The hash loses
+	 * the keys of every row that moves and gets them back where it moves to.
+	 * Every row that moved is marked as shared, since the rows of kinds move
+	 * as whole arrays and one might be a snapshot's.
+	 */
+	public boolean addGarbage(int lines, int hole) {
+		lines = Math.min(lines, Constants.PLAY_HEIGHT);
+		if (lines <= 0) {
+			return true;
+		}
+		boolean fits = _top - lines >= Constants.TOP_ROW;
+		int from = Math.max(_top, Constants.TOP_ROW + lines);
+		int garbageRow = Constants.LAST_ROW + 1 - lines;
+		for (int row = _top; row <= Constants.LAST_ROW; row++) {
+			this.hashRow(row);
+		}
+		System.arraycopy(_rows, from * WORDS, _rows, (from - lines) * WORDS,
+				(Constants.LAST_ROW + 1 - from) * WORDS);
+		for (int row = garbageRow; row <= Constants.LAST_ROW; row++) {
+			for (int word = 0; word < WORDS; word++) {
+				_rows[row * WORDS + word] = FULL_ROW[word];
+			}
+			_rows[row * WORDS + (hole >>> 6)] &= ~(1L << hole);
+		}
+		if (_kinds != null) {
+			System.arraycopy(_kinds, from, _kinds, from - lines,
+					Constants.LAST_ROW + 1 - from);
+			byte[] garbage = EMPTY_KINDS.clone();
+			for (int col = Constants.FIRST_COL; col <= Constants.LAST_COL; col++) {
+				garbage[col] = col == hole ? (byte) EMPTY : (byte) GARBAGE;
+			}
+			for (int row = from - lines; row <= Constants.LAST_ROW; row++) {
+				if (row >= garbageRow) {
+					_kinds[row] = garbage;
+				}
+				this.setShared(row, true);
+			}
+		}
+		int top = Math.max(Constants.TOP_ROW, _top - lines);
+		for (int row = top; row <= Constants.LAST_ROW; row++) {
+			this.hashRow(row);
+		}
+		this.findColumnTops(top);
+		return fits;
+	}
+
+	/**
+	 * XORs the keys of every square in a row into the hash, which takes them
+	 * out if they were in it.
+	 */
+	private void hashRow(int row) {
+		for (int word = 0; word < WORDS; word++) {
+			_hash ^= Zobrist.getRowKey(row, word, _rows[row * WORDS + word]);
+		}
+	}
+
+	/**
+	 * Moves a row down to another one, with its kinds and whether they are
+	 * shared, and changes the hash to match.
+	 */
+	private void moveRow(int from, int to) {
+		for (int word = 0; word < WORDS; word++) {
+			_hash ^= Zobrist.getRowKey(to, word, _rows[to * WORDS + word])
+					^ Zobrist.getRowKey(to, word, _rows[from * WORDS + word]);
+			_rows[to * WORDS + word] = _rows[from * WORDS + word];
+		}
+		if (_kinds != null) {
+			_kinds[to] = _kinds[from];
+			this.setShared(to, this.isShared(from));
+		}
+	}
+
+	/**
+	 * Takes everything but the frame out of a row's mask and its squares out
+	 * of the hash.
+	 */
+	private void emptyRow(int row) {
+		for (int word = 0; word < WORDS; word++) {
+			_hash ^= Zobrist.getRowKey(row, word, _rows[row * WORDS + word]);
+			_rows[row * WORDS + word] = FULL_ROW[word] & ~PLAYABLE_COLUMNS[word];
+		}
+	}
+
+	/**
+	 * Works out the top of every playable column again after rows have moved,
+	 * going down the rows from fromRow until every column has found its top,
+	 * and the board's top row with them.
+	 */
+	private void findColumnTops(int fromRow) {
+		boolean unfound = true;
+		for (int word = 0; word < WORDS; word++) {
+			_unfound[word] = PLAYABLE_COLUMNS[word];
+		}
+		_top = Constants.LAST_ROW + 1;
+		for (int row = fromRow; row <= Constants.LAST_ROW && unfound; row++) {
+			unfound = false;
+			for (int word = 0; word < WORDS; word++) {
+				long found = _rows[row * WORDS + word] & _unfound[word];
+				if (found != 0) {
+					_top = Math.min(_top, row);
+					_unfound[word] &= ~found;
+					while (found != 0) {
+						_columnTops[64 * word + Long.numberOfTrailingZeros(found)] = row;
+						found &= found - 1;
+					}
+				}
+				unfound |= _unfound[word] != 0;
+			}
+		}
+		for (int word = 0; word < WORDS; word++) {
+			long left = _unfound[word];
+			while (left != 0) {
+				_columnTops[64 * word + Long.numberOfTrailingZeros(left)] = Constants.LAST_ROW + 1;
+				left &= left - 1;
+			}
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the board that never changes, sharing every row
+	 * of kinds with the board.
+	 */
+	public BoardSnapshot snapshot() {
+		Arrays.fill(_shared, -1L);
+		return new BoardSnapshot(_rows.clone(), _kinds.clone(), _hash);
+	}
+
+	/**
+	 * Makes the board the same as a snapshot, sharing the snapshot's rows of
+	 * kinds instead of copying them.
+	 */
+	public void restore(BoardSnapshot snapshot) {
+		System.arraycopy(snapshot._rows, 0, _rows, 0, _rows.length);
+		System.arraycopy(snapshot._kinds, 0, _kinds, 0, Constants.BOARD_HEIGHT);
+		Arrays.fill(_shared, -1L);
+		_hash = snapshot._hash;
+		this.findColumnTops(Constants.TOP_ROW);
+	}
+
+	/**
+	 * Returns the zobrist hash of the squares inside the frame.
+	 */
+	public long getHash() {
+		return _hash;
+	}
+
+	/**
+	 * Returns whether any square of the top line of the playfield is
+	 * occupied, which ends the game.
+	 */
+	public boolean isTopLineEmpty() {
+		return _top > Constants.TOP_ROW;
+	}
+
+}
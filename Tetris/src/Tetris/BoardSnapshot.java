@@ -0,0 +1,56 @@
+package Tetris;
+
+/**
+ * A board snapshot is a board that can't change, made by a board's snapshot
+ * method. It has its own row masks and shares its rows of kinds with the board
+ * it came from and with any other snapshots that have the same rows, which is
+ * safe because a board copies a shared row before writing to it and a
+ * snapshot never writes at all. A board can be restored to a snapshot any
+ * number of times.
+ */
+public final class BoardSnapshot {
+
+	final long[] _rows;
+	final byte[][] _kinds;
+	final long _hash;
+
+	BoardSnapshot(long[] rows, byte[][] kinds, long hash) {
+		_rows = rows;
+		_kinds = kinds;
+		_hash = hash;
+	}
+
+	/**
+	 * Returns one word of the mask of a row, like the board's getWord.
+	 */
+	public long getWord(int row, int word) {
+		return _rows[row * Constants.ROW_WORDS + word];
+	}
+
+	/**
+	 * Returns the kind of piece the square at col and row came from, EMPTY if
+	 * there is nothing there or WALL if it is part of the frame.
+	 */
+	public int getKind(int col, int row) {
+		return _kinds[row][col];
+	}
+
+	/**
+	 * Returns whether a row is the same in the other snapshot, which it is
+	 * if the two share its array of kinds: a board never writes to a row of
+	 * kinds after a snapshot has shared it, so the array can only be the
+	 * same if the row hasn't changed. A row that changed and then changed
+	 * back counts as different. The other snapshot may be null.
+	 */
+	public boolean isSameRow(BoardSnapshot other, int row) {
+		return other != null && _kinds[row] == other._kinds[row];
+	}
+
+	/**
+	 * Returns the zobrist hash the board had when the snapshot was taken.
+	 */
+	public long getHash() {
+		return _hash;
+	}
+
+}
@@ -0,0 +1,165 @@
+package Tetris;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A broadcast sends the deltas of one game to any number of spectators. The
+ * game publishes each delta once, and it is copied once into a ring of the
+ * last few deltas that every spectator reads from, each at its own place. So
+ * publishing costs the same however many spectators there are, and a
+ * spectator that reads slowly only slows itself down.
+ *
+ * A spectator can fall at most the size of the ring behind. When the delta
+ * it wants next has been written over, it doesn't wait or get the ones it
+ * missed: it skips to the last keyframe and goes on from there, which is
+ * always enough to catch up because a keyframe has every row in it. A
+ * keyframe is published at least every so many deltas, at most half the
+ * ring apart, so the deltas after the last one are always still in the ring
+ * for a spectator that has just skipped to it. A new spectator starts at the
+ * last keyframe too.
+ *
+ * Only one thread publishes. Every ring entry is immutable and is handed over
+ * by the volatile count of deltas published, so spectators never take a lock
+ * and the publisher never waits for them.
+ */
+public class Broadcast {
+
+	private AtomicReferenceArray<Entry> _ring;
+	private int _mask;
+	private int _keyframeInterval;
+	private int _sinceKeyframe; // only used by the publisher
+	private volatile long _published;
+	private volatile Entry _latestKeyframe;
+	private AtomicInteger _spectators;
+
+	/**
+	 * The constructor takes how many deltas the ring holds, which must be a
+	 * power of two, and how many deltas there can be from one keyframe to
+	 * the next, which must be at most half of that.
+	 */
+	public Broadcast(int capacity, int keyframeInterval) {
+		if (Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("capacity must be a power of two");
+		}
+		if (keyframeInterval < 1 || keyframeInterval > capacity / 2) {
+			throw new IllegalArgumentException(
+					"keyframes must be at most half the capacity apart");
+		}
+		_ring = new AtomicReferenceArray<Entry>(capacity);
+		_mask = capacity - 1;
+		_keyframeInterval = keyframeInterval;
+		_sinceKeyframe = 0;
+		_published = 0;
+		_spectators = new AtomicInteger();
+	}
+
+	/**
+	 * Returns whether the next delta published has to be a keyframe: if
+	 * there hasn't been one yet or the last one was keyframeInterval deltas
+	 * ago. This is only called by the publisher.
+	 */
+	public boolean needsKeyframe() {
+		return _latestKeyframe == null || _sinceKeyframe >= _keyframeInterval;
+	}
+
+	/**
+	 * Publishes the game delta that is left in the buffer, which is read to
+	 * its end. The delta is copied, so the buffer can be used again straight
+	 * away.
+	 */
+	public void publish(ByteBuffer delta) {
+		boolean keyframe = GameDelta.isKeyframe(delta);
+		byte[] bytes = new byte[delta.remaining()];
+		delta.get(bytes);
+		long sequence = _published;
+		Entry entry = new Entry(sequence, bytes);
+		_ring.set((int) sequence & _mask, entry);
+		if (keyframe) {
+			_latestKeyframe = entry;
+			_sinceKeyframe = 0;
+		}
+		_sinceKeyframe++;
+		// spectators only read entries before this count
+		_published = sequence + 1;
+	}
+
+	/**
+	 * Returns whether anyone is watching, so the game doesn't have to make
+	 * deltas when there is nobody to send them to.
+	 */
+	public boolean isWatched() {
+		return _spectators.get() > 0;
+	}
+
+	public int getSpectators() {
+		return _spectators.get();
+	}
+
+	/**
+	 * Returns how many deltas have been published.
+	 */
+	public long getPublished() {
+		return _published;
+	}
+
+	/**
+	 * Adds a spectator, which starts at the last keyframe or, if there
+	 * hasn't been one, at the first delta published from now on, which will
+	 * be one. This can be called from any thread.
+	 */
+	public Spectator subscribe() {
+		_spectators.incrementAndGet();
+		// the count is read first, so if there's no keyframe nothing was
+		// published before it
+		long published = _published;
+		Entry keyframe = _latestKeyframe;
+		return new Spectator(this, keyframe == null ? published : keyframe
+				.getSequence());
+	}
+
+	/**
+	 * Takes a spectator away. This is called by Spectator.close.
+	 */
+	void unsubscribe() {
+		_spectators.decrementAndGet();
+	}
+
+	/**
+	 * Returns the entry in the ring where the delta with the given sequence
+	 * number goes, which is that delta if it hasn't been written over yet
+	 * and a later one if it has. The delta must have been published.
+	 */
+	Entry getEntry(long sequence) {
+		return _ring.get((int) sequence & _mask);
+	}
+
+	Entry getLatestKeyframe() {
+		return _latestKeyframe;
+	}
+
+	/**
+	 * An entry is one published delta and its sequence number, counting
+	 * from 0. It is never changed once it is in the ring.
+	 */
+	static final class Entry {
+
+		private final long _sequence;
+		private final byte[] _delta;
+
+		private Entry(long sequence, byte[] delta) {
+			_sequence = sequence;
+			_delta = delta;
+		}
+
+		long getSequence() {
+			return _sequence;
+		}
+
+		byte[] getDelta() {
+			return _delta;
+		}
+	}
+
+}
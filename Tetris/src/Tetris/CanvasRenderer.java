@@ -0,0 +1,213 @@
+package Tetris;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+
+/**
+ * The canvas renderer draws the game on two canvases instead of with a node
+ * for every square, so the gamePane only has two children to lay out no
+ * matter how full the board is. The frame never changes, so it is drawn on the
+ * background canvas once, and again only if the viewport moves. Everything
+ * inside the frame is drawn on the canvas in front of it, and each frame only
+ * the squares that changed are drawn again: the rows that changed since the
+ * last frame drawn, the squares the piece and its ghost were on in the last
+ * frame and the squares they are on now. Both canvases are the size of the viewport, and
+ * only the part of the board inside it is ever drawn, so a huge board costs
+ * no more to draw than a normal one.
+ */
+public class CanvasRenderer implements Renderer {
+
+	private static final double GHOST_OPACITY = 0.3;
+
+	private Viewport _viewport;
+	private Canvas _background;
+	private Canvas _foreground;
+	private GraphicsContext _gc;
+	private BoardSnapshot _lastBoard; // the board of the last frame drawn
+	private int[] _pieceCols; // where the piece was drawn in the last frame
+	private int[] _pieceRows;
+	private int _ghostDistance; // how far below the piece the ghost was drawn
+	private boolean _pieceIsDrawn;
+
+	/**
+	 * The constructor makes both canvases the size of the viewport and adds
+	 * them to the gamePane. The frame is drawn the first time the board is.
+	 */
+	public CanvasRenderer(Pane gamePane, Viewport viewport) {
+		_viewport = viewport;
+		_background = new Canvas(viewport.getWidth(), viewport.getHeight());
+		_foreground = new Canvas(viewport.getWidth(), viewport.getHeight());
+		_gc = _foreground.getGraphicsContext2D();
+		_pieceCols = new int[4];
+		_pieceRows = new int[4];
+		_pieceIsDrawn = false;
+		gamePane.getChildren().addAll(_background, _foreground);
+	}
+
+	/**
+	 * Moves the viewport to the piece and draws the frame, every square
+	 * inside it and the piece.
+	 */
+	@Override
+	public void renderAll(GameFrame frame) {
+		_viewport.follow(frame);
+		this.renderEverything(frame);
+	}
+
+	private void renderEverything(GameFrame frame) {
+		this.renderFrame();
+		_gc.clearRect(0, 0, _viewport.getWidth(), _viewport.getHeight());
+		_pieceIsDrawn = false;
+		_lastBoard = null;
+		this.renderRows(frame.getBoard());
+		this.renderPiece(frame, true);
+	}
+
+	/**
+	 * This is called once per frame. It draws the rows that changed since the
+	 * last frame it drew, then covers up the piece where it was and draws it
+	 * where it is. If the piece went near the edge of the viewport and the
+	 * viewport moved, everything is drawn again instead.
+	 */
+	@Override
+	public void render(GameFrame frame) {
+		if (_viewport.follow(frame)) {
+			this.renderEverything(frame);
+			return;
+		}
+		boolean rowsChanged = this.renderRows(frame.getBoard());
+		this.renderPiece(frame, rowsChanged);
+	}
+
+	/**
+	 * Draws the frame squares that are in the viewport on the background.
+	 */
+	private void renderFrame() {
+		GraphicsContext background = _background.getGraphicsContext2D();
+		background.clearRect(0, 0, _viewport.getWidth(), _viewport.getHeight());
+		int lastCol = _viewport.getFirstCol() + _viewport.getCols() - 1;
+		int lastRow = _viewport.getFirstRow() + _viewport.getRows() - 1;
+		for (int col = _viewport.getFirstCol(); col <= lastCol; col++) {
+			for (int row = _viewport.getFirstRow(); row <= lastRow; row++) {
+				if (row < Constants.TOP_ROW || row > Constants.LAST_ROW
+						|| col < Constants.FIRST_COL
+						|| col > Constants.LAST_COL) {
+					this.drawSquare(background, col, row,
+							Piece.getColor(Board.WALL));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Draws the playable squares of the rows in the viewport that aren't the
+	 * same as in the last board drawn, and returns whether there were any.
+	 */
+	private boolean renderRows(BoardSnapshot board) {
+		int firstCol = Math.max(Constants.FIRST_COL, _viewport.getFirstCol());
+		int lastCol = Math.min(Constants.LAST_COL, _viewport.getFirstCol()
+				+ _viewport.getCols() - 1);
+		int lastRow = Math.min(Constants.LAST_ROW, _viewport.getFirstRow()
+				+ _viewport.getRows() - 1);
+		boolean changed = false;
+		int firstRow = Math.max(Constants.TOP_ROW, _viewport.getFirstRow());
+		for (int row = firstRow; row <= lastRow; row++) {
+			if (board.isSameRow(_lastBoard, row)) {
+				continue;
+			}
+			for (int col = firstCol; col <= lastCol; col++) {
+				this.renderSquare(board, col, row);
+			}
+			changed = true;
+		}
+		_lastBoard = board;
+		return changed;
+	}
+
+	/**
+	 * Only the squares the piece and its ghost were on and are on now are
+	 * drawn again; if the piece hasn't moved, no rows were drawn under it and
+	 * it would land as far down as before nothing is drawn at all. The squares left behind are drawn from the
+	 * board, which already has the piece's squares in it if the piece was
+	 * just locked. The ghost is drawn see-through where the engine says the
+	 * piece would land and the piece is drawn over it.
+	 */
+	private void renderPiece(GameFrame frame, boolean rowsChanged) {
+		boolean show = !frame.isGameOver();
+		// the drop distance can change with rows outside the viewport, so
+		// the ghost is only up to date if it is still the same
+		if (_pieceIsDrawn && show && !rowsChanged
+				&& frame.getDropDistance() == _ghostDistance) {
+			boolean moved = false;
+			for (int square = 0; square < 4; square++) {
+				if (_pieceCols[square] != frame.getCol(square)
+						|| _pieceRows[square] != frame.getRow(square)) {
+					moved = true;
+				}
+			}
+			if (!moved) {
+				return;
+			}
+		}
+		if (_pieceIsDrawn) {
+			for (int square = 0; square < 4; square++) {
+				this.renderSquare(frame.getBoard(), _pieceCols[square],
+						_pieceRows[square] + _ghostDistance);
+				this.renderSquare(frame.getBoard(), _pieceCols[square],
+						_pieceRows[square]);
+			}
+			_pieceIsDrawn = false;
+		}
+		if (show) {
+			Color color = Piece.getColor(frame.getKind());
+			_ghostDistance = frame.getDropDistance();
+			_gc.setGlobalAlpha(GHOST_OPACITY);
+			for (int square = 0; square < 4; square++) {
+				this.drawSquare(_gc, frame.getCol(square),
+						frame.getRow(square) + _ghostDistance, color);
+			}
+			_gc.setGlobalAlpha(1);
+			for (int square = 0; square < 4; square++) {
+				_pieceCols[square] = frame.getCol(square);
+				_pieceRows[square] = frame.getRow(square);
+				_gc.clearRect(_viewport.getX(_pieceCols[square]),
+						_viewport.getY(_pieceRows[square]),
+						Constants.SQUARE_SIZE, Constants.SQUARE_SIZE);
+				this.drawSquare(_gc, _pieceCols[square],
+						_pieceRows[square], color);
+			}
+			_pieceIsDrawn = true;
+		}
+	}
+
+	/**
+	 * Clears one square of the foreground and fills it in again if the board
+	 * has something there.
+	 */
+	private void renderSquare(BoardSnapshot board, int col, int row) {
+		_gc.clearRect(_viewport.getX(col), _viewport.getY(row),
+				Constants.SQUARE_SIZE, Constants.SQUARE_SIZE);
+		int kind = board.getKind(col, row);
+		if (kind != Board.EMPTY) {
+			this.drawSquare(_gc, col, row, Piece.getColor(kind));
+		}
+	}
+
+	/**
+	 * Draws a square the way a TetrisSquare looks: filled with its color and
+	 * outlined in black. Squares outside the viewport are off the canvas, so
+	 * the canvas leaves them out.
+	 */
+	private void drawSquare(GraphicsContext gc, int col, int row, Color color) {
+		double x = _viewport.getX(col);
+		double y = _viewport.getY(row);
+		gc.setFill(color);
+		gc.fillRect(x, y, Constants.SQUARE_SIZE, Constants.SQUARE_SIZE);
+		gc.setStroke(Color.BLACK);
+		gc.strokeRect(x + 0.5, y + 0.5, Constants.SQUARE_SIZE - 1,
+				Constants.SQUARE_SIZE - 1);
+	}
+
+}
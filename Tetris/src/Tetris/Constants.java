@@ -3,10 +3,53 @@ package Tetris;
 /**
  * This constants class is an abstract class that stores the values of different
  * numbers used throughout the other classes in the app.
+ *
+ * The size of the playfield and of a square can be picked when the app is
+ * started (--width, --height and --size, which the settings turn into the
+ * system properties below) or given to the JVM with -Dtetris.width and so on
+ * for the batch simulator. They are read once, when this class is first used,
+ * and never change after that, so they are still final and the JIT treats
+ * them as constants. Anything that sets the properties has to do it before
+ * then.
  */
 public class Constants {
 
-	public static final int SQUARE_SIZE = 30; // sidelength of a square in
-												// pixels
+	public static final String WIDTH_PROPERTY = "tetris.width";
+	public static final String HEIGHT_PROPERTY = "tetris.height";
+	public static final String SIZE_PROPERTY = "tetris.squareSize";
+
+	public static final int SQUARE_SIZE = Constants.getSize(SIZE_PROPERTY, 30,
+			4, 100); // sidelength of a square in pixels
+
+	// the playfield is 10 by 20 squares unless it is picked at launch
+	public static final int PLAY_WIDTH = Constants.getSize(WIDTH_PROPERTY, 10,
+			4, 1000);
+	public static final int PLAY_HEIGHT = Constants.getSize(HEIGHT_PROPERTY, 20,
+			4, 10000);
+
+	// the board is the playfield with the two square wide frame around it
+	public static final int BOARD_WIDTH = PLAY_WIDTH + 4;
+	public static final int BOARD_HEIGHT = PLAY_HEIGHT + 4;
+	public static final int FIRST_COL = 2; // leftmost playable column
+	public static final int LAST_COL = FIRST_COL + PLAY_WIDTH - 1; // rightmost playable column
+	public static final int TOP_ROW = 2; // a square here ends the game
+	public static final int LAST_ROW = TOP_ROW + PLAY_HEIGHT - 1; // bottom playable row
+
+	// how many longs it takes to hold one row of the board, one bit a column
+	public static final int ROW_WORDS = (BOARD_WIDTH + 63) / 64;
+
+	/**
+	 * Reads one of the sizes from its system property, or returns the
+	 * default if it isn't set. A size outside the limits is an error.
+	 */
+	private static int getSize(String property, int defaultSize, int min,
+			int max) {
+		int size = Integer.getInteger(property, defaultSize);
+		if (size < min || size > max) {
+			throw new IllegalArgumentException(property + " must be from "
+					+ min + " to " + max + ", not " + size);
+		}
+		return size;
+	}
 
 }
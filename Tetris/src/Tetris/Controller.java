@@ -0,0 +1,16 @@
+package Tetris;
+
+/**
+ * A controller moves the engine's piece for someone: the input handler for the
+ * player at the keyboard and the auto player when the game plays itself. The
+ * game loop calls step right before every engine step, so the engine is only
+ * ever changed by the loop.
+ */
+public interface Controller {
+
+	/**
+	 * Makes whatever moves are due before the next engine step.
+	 */
+	public void step();
+
+}
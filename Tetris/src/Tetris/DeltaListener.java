@@ -0,0 +1,16 @@
+package Tetris;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A delta listener is how a client of the game server is told what happened
+ * in its game. The server calls delta on the thread that steps the game,
+ * right after a step that changed something, so it has to be quick and must
+ * not block; the buffer holds exactly one game delta and is only good until
+ * delta returns, so anything that wants to keep it has to copy it.
+ */
+public interface DeltaListener {
+
+	public void delta(int game, ByteBuffer delta);
+
+}
@@ -0,0 +1,533 @@
+package Tetris;
+
+import java.util.BitSet;
+
+/**
+ * The engine class has all the rules of Tetris without any javaFX in it, so a
+ * game can be played by a program with no window at all. It owns the board and
+ * the falling piece, which is just a kind, an orientation and the column and
+ * row of its third square; where the other squares are comes from the piece
+ * table. Moving, rotating and dropping the piece check the board's row masks
+ * before anything changes. When the piece can't fall any further its squares are locked into the board
+ * and the next piece from the engine's piece queue is made; if the new piece
+ * has no room the game is over. The game class only asks the engine what
+ * happened and draws it. If the engine has a replay recorder, every move that
+ * changes the piece and every new piece is recorded with the step it happened
+ * on, whoever made the move. An engine that knows the name and seed of its
+ * piece generator can save its state and go back to it later. New pieces,
+ * locks, cleared lines and gravity are told to Java Flight Recorder as game
+ * events when it is recording, and if the engine is given histograms it times
+ * clearing lines and making the next piece into them.
+ *
+ * In a versus game the engine also keeps the garbage it has been sent and the
+ * garbage it has to send. Clearing two, three or four lines at once attacks
+ * with one, two or four garbage rows (GARBAGE_SENT), which first cancel any
+ * garbage waiting to come in; whatever is left is sent. Garbage that is
+ * still waiting is pushed in when a piece locks without clearing anything,
+ * before the next piece is made.
+ */
+public class Engine {
+
+	public static final int PREVIEW = 5; // how many pieces ahead can be seen
+
+	// every step adds GRAVITY_PER_STEP plus the score to the gravity, and the
+	// piece drops a row each time it reaches GRAVITY_PER_ROW: one row a second
+	// at first and a tenth faster for every line cleared
+	private static final int GRAVITY_PER_STEP = 10;
+	private static final int GRAVITY_PER_ROW = GRAVITY_PER_STEP
+			* GameLoop.STEPS_PER_SECOND;
+	// the garbage rows sent for clearing as many lines as the index at once
+	private static final int[] GARBAGE_SENT = { 0, 0, 1, 2, 4 };
+
+	private Board _board;
+	private PieceQueue _nextPieces;
+	private long _pieces;
+	private int _kind;
+	private int _orientation;
+	private int _col;
+	private int _row;
+	private boolean _gameOver;
+	private int _score;
+	private int _clearedLines;
+	private BitSet _dirtyRows;
+	private long _steps;
+	private int _gravity;
+	private ReplayRecorder _recorder;
+	private Histogram _clearTimes; // null unless the game's metrics are on
+	private Histogram _spawnTimes;
+	private String _generator; // the generator's name and seed, if known
+	private long _seed;
+	private int _incomingGarbage; // rows sent to this engine and not in yet
+	private int _garbageHole;
+	private int _outgoingGarbage; // rows this engine has to send
+
+	/**
+	 * The constructor makes an empty board and the first piece, with the
+	 * pieces picked in a different order every game.
+	 */
+	public Engine() {
+		this(System.nanoTime());
+	}
+
+	/**
+	 * This constructor picks the pieces at random with a generator of the
+	 * engine's own started from the seed, so two engines with the same seed
+	 * get the same pieces and engines on different threads never share one.
+	 */
+	public Engine(long seed) {
+		this(new UniformGenerator(seed));
+	}
+
+	/**
+	 * This constructor makes the named piece generator started from the seed
+	 * and remembers both, so the engine's state can be saved.
+	 */
+	public Engine(String generator, long seed) {
+		this(PieceGenerator.create(generator, seed));
+		_generator = generator;
+		_seed = seed;
+	}
+
+	/**
+	 * This constructor gets its pieces from the given generator, which must
+	 * not be used by anything else. The next PREVIEW pieces can always be
+	 * seen.
+	 */
+	public Engine(PieceGenerator generator) {
+		_nextPieces = new PieceQueue(generator, PREVIEW);
+		_board = new Board();
+		_dirtyRows = new BitSet(Constants.BOARD_HEIGHT);
+		_gameOver = false;
+		_score = 0;
+		this.makeNewPiece();
+	}
+
+	/**
+	 * The next piece is taken from the queue and put where the piece table
+	 * says it starts. If any of its squares is already taken the game is over.
+	 */
+	public void makeNewPiece() {
+		_kind = _nextPieces.next();
+		_pieces++;
+		_orientation = 0;
+		_col = PieceTable.getSpawnCol(_kind);
+		_row = PieceTable.getSpawnRow(_kind);
+		if (_recorder != null) {
+			_recorder.recordPiece(_kind, _steps);
+		}
+		GameEvents.pieceSpawned(_kind, _pieces);
+		if (!this.fits(_orientation, _col, _row)) {
+			_gameOver = true;
+		}
+	}
+
+	/**
+	 * Returns whether the piece would fit in the given orientation with its
+	 * third square at col and row.
+	 */
+	public boolean fits(int orientation, int col, int row) {
+		return _board.fits(_kind, orientation, col, row);
+	}
+
+	/**
+	 * Shifts the piece one column to the left if there is room. Returns
+	 * whether it moved.
+	 */
+	public boolean shiftLeft() {
+		return this.shift(-1, 0) && this.record(InputQueue.LEFT);
+	}
+
+	/**
+	 * Shifts the piece one column to the right if there is room. Returns
+	 * whether it moved.
+	 */
+	public boolean shiftRight() {
+		return this.shift(1, 0) && this.record(InputQueue.RIGHT);
+	}
+
+	private boolean shift(int col, int row) {
+		if (_gameOver || !this.fits(_orientation, _col + col, _row + row)) {
+			return false;
+		}
+		_col += col;
+		_row += row;
+		return true;
+	}
+
+	/**
+	 * Rotates the piece about its third square by moving to the next
+	 * orientation in the piece table. The square piece never rotates and no
+	 * other piece rotates into an occupied square. Returns whether it rotated.
+	 */
+	public boolean rotate() {
+		if (_gameOver || _kind == PieceTable.O) {
+			return false;
+		}
+		int orientation = PieceTable.rotate(_orientation);
+		if (!this.fits(orientation, _col, _row)) {
+			return false;
+		}
+		_orientation = orientation;
+		return this.record(InputQueue.ROTATE);
+	}
+
+	/**
+	 * Rotates the piece until it is in the given orientation and then shifts
+	 * it until its third square is in the given column, the way a player
+	 * would with the keys. It stops if something is in the way. Returns
+	 * whether the piece got there.
+	 */
+	public boolean moveTo(int orientation, int col) {
+		while (_orientation != orientation) {
+			if (!this.rotate()) {
+				return false;
+			}
+		}
+		while (_col < col) {
+			if (!this.shiftRight()) {
+				return false;
+			}
+		}
+		while (_col > col) {
+			if (!this.shiftLeft()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Moves the piece down one row. If there is something below it, it is
+	 * locked instead. Returns true when the piece was locked.
+	 */
+	public boolean dropPieceDown() {
+		if (!_gameOver) {
+			this.record(InputQueue.DOWN);
+		}
+		return this.fall();
+	}
+
+	/**
+	 * This is dropPieceDown for gravity, which isn't recorded since the
+	 * replay's engine steps and falls by itself.
+	 */
+	private boolean fall() {
+		_clearedLines = 0;
+		if (_gameOver) {
+			return false;
+		}
+		if (this.shift(0, 1)) {
+			return false;
+		}
+		this.lockPiece();
+		return true;
+	}
+
+	/**
+	 * Drops the piece as far as it can go and locks it there. The board works
+	 * out how far that is from its column tops, so the piece is moved straight
+	 * there instead of one row at a time.
+	 */
+	public void dropAllTheWay() {
+		_clearedLines = 0;
+		if (_gameOver) {
+			return;
+		}
+		this.record(InputQueue.DROP);
+		_row += this.getDropDistance();
+		this.lockPiece();
+	}
+
+	/**
+	 * Returns how many rows the piece can fall before it lands.
+	 */
+	public int getDropDistance() {
+		return _board.getDropDistance(_kind, _orientation, _col, _row);
+	}
+
+	/**
+	 * Returns the row the piece's third square would be in if it was dropped
+	 * all the way, which is where the ghost piece is drawn.
+	 */
+	public int getGhostRow() {
+		return _row + this.getDropDistance();
+	}
+
+	/**
+	 * The piece's squares become part of the board, any lines they filled are
+	 * cleared and a new piece is made. Only the rows the piece covers can have
+	 * become full, so only those are checked.
+	 */
+	private void lockPiece() {
+		GameEvents.PieceLocked locked = GameEvents.beginPieceLocked();
+		_board.lockPiece(_kind, _orientation, _col, _row);
+		int top = _row + PieceTable.getTop(_kind, _orientation);
+		GameEvents.LinesCleared cleared = GameEvents.beginLinesCleared();
+		int bottom = top + PieceTable.getHeight(_kind, _orientation) - 1;
+		long start = _clearTimes == null ? 0 : System.nanoTime();
+		_clearedLines = _board.clearFullLines(top, bottom);
+		if (_clearTimes != null) {
+			_clearTimes.record(System.nanoTime() - start);
+		}
+		GameEvents.commit(cleared, _clearedLines);
+		_score += _clearedLines;
+		_dirtyRows.set(top, bottom + 1);
+		if (_clearedLines != 0) {
+			// every row from where the top row was down to the piece has moved
+			_dirtyRows.set(_board.getTopRow() - _clearedLines, bottom + 1);
+			int attack = GARBAGE_SENT[Math.min(_clearedLines,
+					GARBAGE_SENT.length - 1)];
+			int cancelled = Math.min(attack, _incomingGarbage);
+			_incomingGarbage -= cancelled;
+			_outgoingGarbage += attack - cancelled;
+		} else if (_incomingGarbage > 0) {
+			this.addGarbage();
+		}
+		// the event is filled in before the next piece replaces this one
+		int kind = _kind;
+		int orientation = _orientation;
+		int col = _col;
+		int row = _row;
+		if (_spawnTimes == null) {
+			this.makeNewPiece();
+		} else {
+			start = System.nanoTime();
+			this.makeNewPiece();
+			_spawnTimes.record(System.nanoTime() - start);
+		}
+		GameEvents.commit(locked, kind, orientation, col, row);
+	}
+
+	/**
+	 * Pushes the garbage that is waiting into the board. Every row from the
+	 * new top row down has moved. If the garbage pushed anything out of the
+	 * top of the playfield the game is over.
+	 */
+	private void addGarbage() {
+		if (!_board.addGarbage(_incomingGarbage, _garbageHole)) {
+			_gameOver = true;
+		}
+		_dirtyRows.set(_board.getTopRow(), Constants.LAST_ROW + 1);
+		_incomingGarbage = 0;
+	}
+
+	/**
+	 * Sends the engine the given number of garbage rows, with their hole in
+	 * the given column. They come in when the next piece that doesn't clear
+	 * a line locks, and if more is sent before then it all comes in together
+	 * with the last hole. This has to be called on the thread that steps the
+	 * engine.
+	 */
+	public void receiveGarbage(int lines, int hole) {
+		_incomingGarbage += lines;
+		_garbageHole = hole;
+	}
+
+	/**
+	 * Returns how many garbage rows the engine has to send since the last
+	 * time this was called, and forgets them.
+	 */
+	public int takeOutgoingGarbage() {
+		int lines = _outgoingGarbage;
+		_outgoingGarbage = 0;
+		return lines;
+	}
+
+	/**
+	 * Moves the game forward by one fixed step of the game loop. Like the old
+	 * timeline's keyframe it checks the top line and then lets gravity drop
+	 * the piece, but the piece only drops on the steps where enough gravity
+	 * has built up, which depends on the score.
+	 */
+	public void step() {
+		if (_gameOver) {
+			return;
+		}
+		_steps++;
+		this.checkTopLine();
+		if (_gameOver) {
+			return;
+		}
+		_gravity += GRAVITY_PER_STEP + _score;
+		if (_gravity >= GRAVITY_PER_ROW) {
+			_gravity -= GRAVITY_PER_ROW;
+			GameEvents.GravityTick tick = GameEvents.beginGravityTick();
+			boolean landed = this.fall();
+			GameEvents.commit(tick, _steps, landed);
+		}
+	}
+
+	/**
+	 * Records a move on the current step if there is a recorder. It always
+	 * returns true so it can be put at the end of a move that worked.
+	 */
+	private boolean record(int command) {
+		if (_recorder != null) {
+			_recorder.recordCommand(command, _steps);
+		}
+		return true;
+	}
+
+	/**
+	 * Starts recording everything that happens to the engine, beginning with
+	 * the piece that is falling now. Null stops recording.
+	 */
+	public void setRecorder(ReplayRecorder recorder) {
+		_recorder = recorder;
+		if (recorder != null) {
+			recorder.recordPiece(_kind, _steps);
+		}
+	}
+
+	/**
+	 * Gives the engine histograms to time clearing the lines a locked piece
+	 * filled and making the next piece into, when the game's metrics are on.
+	 * They are recorded on whichever thread steps the engine. Null stops
+	 * the timing.
+	 */
+	public void setLockTimers(Histogram clearTimes, Histogram spawnTimes) {
+		_clearTimes = clearTimes;
+		_spawnTimes = spawnTimes;
+	}
+
+	/**
+	 * Returns the state of the engine right now, which it can be restored to
+	 * later. The board's rows are shared with the state, not copied.
+	 */
+	public GameState saveState() {
+		if (_generator == null) {
+			throw new IllegalStateException(
+					"an engine needs its generator's name and seed to save");
+		}
+		return new GameState(_generator, _seed, _pieces, _kind, _orientation,
+				_col, _row, _score, _steps, _gravity, _gameOver,
+				_board.snapshot());
+	}
+
+	/**
+	 * Puts the engine back in a saved state. The piece generator is made
+	 * again from its name and seed and the pieces that had already been made
+	 * are taken out of the queue, so the same pieces come next. Every row is
+	 * marked as changed so the whole board is drawn again. Nothing is
+	 * recorded, so a recorded game that is restored can't be replayed.
+	 */
+	public void restoreState(GameState state) {
+		_generator = state._generator;
+		_seed = state._seed;
+		_nextPieces = new PieceQueue(PieceGenerator.create(_generator, _seed),
+				PREVIEW);
+		for (long piece = 0; piece < state._pieces; piece++) {
+			_nextPieces.next();
+		}
+		_board.restore(state._board);
+		_pieces = state._pieces;
+		_kind = state._kind;
+		_orientation = state._orientation;
+		_col = state._col;
+		_row = state._row;
+		_score = state._score;
+		_steps = state._steps;
+		_gravity = state._gravity;
+		_gameOver = state._gameOver;
+		_clearedLines = 0;
+		_dirtyRows.set(0, Constants.BOARD_HEIGHT);
+	}
+
+	/**
+	 * The game ends once there is a square in the top line of the board.
+	 */
+	public void checkTopLine() {
+		if (!_board.isTopLineEmpty()) {
+			_gameOver = true;
+		}
+	}
+
+	/**
+	 * These accessor methods let the game draw the board and the falling
+	 * piece.
+	 */
+	public Board getBoard() {
+		return _board;
+	}
+
+	/**
+	 * Returns the queue of pieces that come after the falling one.
+	 */
+	public PieceQueue getNextPieces() {
+		return _nextPieces;
+	}
+
+	public int getKind() {
+		return _kind;
+	}
+
+	public int getOrientation() {
+		return _orientation;
+	}
+
+	public int getPivotCol() {
+		return _col;
+	}
+
+	public int getPivotRow() {
+		return _row;
+	}
+
+	public int getCol(int square) {
+		return _col + PieceTable.getColOffset(_kind, _orientation, square);
+	}
+
+	public int getRow(int square) {
+		return _row + PieceTable.getRowOffset(_kind, _orientation, square);
+	}
+
+	/**
+	 * Returns how many lines the last locked piece cleared.
+	 */
+	public int getClearedLines() {
+		return _clearedLines;
+	}
+
+	/**
+	 * Adds every row of the board that has changed since the last time this
+	 * was called to the given set and forgets them, so whoever draws the
+	 * board only has to draw those rows again. Nothing new is made, however
+	 * tall the board is.
+	 */
+	public void takeDirtyRows(BitSet rows) {
+		rows.or(_dirtyRows);
+		_dirtyRows.clear();
+	}
+
+	/**
+	 * Returns how many pieces have been made, counting the falling one.
+	 */
+	public long getPieces() {
+		return _pieces;
+	}
+
+	/**
+	 * Returns how many steps the engine has been moved forward.
+	 */
+	public long getSteps() {
+		return _steps;
+	}
+
+	/**
+	 * Returns the zobrist hash of the board and the falling piece, which is
+	 * the same for two engines whose boards and pieces are the same.
+	 */
+	public long getHash() {
+		return _board.getHash()
+				^ Zobrist.getPieceKey(_kind, _orientation, _col, _row);
+	}
+
+	public int getScore() {
+		return _score;
+	}
+
+	public boolean isGameOver() {
+		return _gameOver;
+	}
+
+}
@@ -0,0 +1,142 @@
+package Tetris;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The evaluation cache remembers scores the search worked out by the zobrist
+ * hash of what they were worked out for, so a position that is reached again
+ * by a different sequence of moves doesn't have to be searched again. It has a fixed number of entries that
+ * are made once, and any number of threads can use it at the same time without
+ * locking.
+ *
+ * The entries are kept in buckets of WAYS entries and a hash can only go in
+ * the bucket its low bits pick. Every entry is two longs: the score's bits,
+ * and the hash XORed with the score's bits. A lookup only believes an entry if
+ * XORing the two gives back the hash it is looking for, so an entry that one
+ * thread is halfway through writing while another reads it, or that two
+ * threads wrote at once, looks like a miss instead of giving a wrong score.
+ * When a bucket is full the entry to replace is picked like a clock: every
+ * entry has a bit that is set when it is used, and the hand goes round the
+ * bucket clearing bits until it finds an entry that hasn't been used since
+ * the last time round. The used bits and hands are only hints, so they are
+ * plain arrays that threads may race on. The hits, misses and evictions are
+ * counted so the hit rate can be shown.
+ */
+public class EvaluationCache {
+
+	private static final int WAYS = 4;
+	// XORed into every check so an empty entry (two zeros) never matches
+	private static final long MARK = 0x5DEECE66DL;
+
+	private final int _bucketMask;
+	private final AtomicLongArray _checks;
+	private final AtomicLongArray _scores;
+	private final byte[] _used;
+	private final byte[] _hands;
+	private final LongAdder _hits;
+	private final LongAdder _misses;
+	private final LongAdder _evictions;
+
+	/**
+	 * The constructor makes room for at least the given number of entries,
+	 * rounded up to a power of two.
+	 */
+	public EvaluationCache(int capacity) {
+		int buckets = Integer.highestOneBit(Math.max(1, capacity / WAYS - 1)) << 1;
+		_bucketMask = buckets - 1;
+		_checks = new AtomicLongArray(buckets * WAYS);
+		_scores = new AtomicLongArray(buckets * WAYS);
+		_used = new byte[buckets * WAYS];
+		_hands = new byte[buckets];
+		_hits = new LongAdder();
+		_misses = new LongAdder();
+		_evictions = new LongAdder();
+	}
+
+	/**
+	 * Returns the score remembered for a hash, or NaN if there isn't one.
+	 */
+	public double get(long hash) {
+		int first = ((int) hash & _bucketMask) * WAYS;
+		for (int entry = first; entry < first + WAYS; entry++) {
+			long score = _scores.getOpaque(entry);
+			if ((_checks.getOpaque(entry) ^ score) == (hash ^ MARK)) {
+				_used[entry] = 1;
+				_hits.increment();
+				return Double.longBitsToDouble(score);
+			}
+		}
+		_misses.increment();
+		return Double.NaN;
+	}
+
+	/**
+	 * Remembers the score of a hash, replacing the entry the clock picks if
+	 * the hash isn't in its bucket already.
+	 */
+	public void put(long hash, double score) {
+		long bits = Double.doubleToRawLongBits(score);
+		int bucket = (int) hash & _bucketMask;
+		int first = bucket * WAYS;
+		int victim = -1;
+		for (int entry = first; entry < first + WAYS; entry++) {
+			long check = _checks.getOpaque(entry);
+			long oldScore = _scores.getOpaque(entry);
+			if ((check ^ oldScore) == (hash ^ MARK)) {
+				victim = entry;
+				break;
+			}
+			if (victim < 0 && check == 0 && oldScore == 0) {
+				victim = entry;
+			}
+		}
+		if (victim < 0) {
+			int hand = _hands[bucket];
+			// twice round at most, in case other threads keep using entries
+			for (int turn = 0; turn < 2 * WAYS && _used[first + hand] != 0; turn++) {
+				_used[first + hand] = 0;
+				hand = (hand + 1) % WAYS;
+			}
+			victim = first + hand;
+			_hands[bucket] = (byte) ((hand + 1) % WAYS);
+			_evictions.increment();
+		}
+		_scores.setOpaque(victim, bits);
+		_checks.setOpaque(victim, hash ^ MARK ^ bits);
+		_used[victim] = 1;
+	}
+
+	/**
+	 * Returns how many entries the cache has room for.
+	 */
+	public int getCapacity() {
+		return _used.length;
+	}
+
+	/**
+	 * These accessor methods return how many lookups found a score, how many
+	 * didn't and how many entries were replaced to make room.
+	 */
+	public long getHits() {
+		return _hits.sum();
+	}
+
+	public long getMisses() {
+		return _misses.sum();
+	}
+
+	public long getEvictions() {
+		return _evictions.sum();
+	}
+
+	/**
+	 * Returns the fraction of lookups that found a score, from 0 to 1.
+	 */
+	public double getHitRate() {
+		long hits = _hits.sum();
+		long lookups = hits + _misses.sum();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+}
@@ -0,0 +1,104 @@
+package Tetris;
+
+/**
+ * The evaluator scores a board for the search policy: the higher the score,
+ * the better the board is to keep playing on. The score adds up four things
+ * about the board, each times its own weight: the aggregate height (the
+ * heights of all the columns added up), the lines the placement cleared, the
+ * holes (empty squares with something above them) and the bumpiness (how much
+ * the heights of columns next to each other differ). Everything is worked out
+ * from the board's row masks and column tops, so scoring a board never makes
+ * a new object and one evaluator can be shared by any number of threads.
+ * Everything but the lines only depends on the board, so that part of the
+ * score can be remembered in an evaluation cache under the board's hash.
+ */
+public class Evaluator {
+
+	public static final int HEIGHT = 0;
+	public static final int LINES = 1;
+	public static final int HOLES = 2;
+	public static final int BUMPINESS = 3;
+	public static final int FEATURES = 4;
+
+	// weights that are known to play well, in the order of the features above
+	private static final double[] DEFAULT_WEIGHTS = { -0.510066, 0.760666,
+			-0.35663, -0.184483 };
+
+	private final double[] _weights;
+
+	/**
+	 * The constructor makes an evaluator with the default weights.
+	 */
+	public Evaluator() {
+		this(DEFAULT_WEIGHTS);
+	}
+
+	/**
+	 * This constructor takes a weight for every feature, indexed by HEIGHT,
+	 * LINES, HOLES and BUMPINESS. The weights are copied.
+	 */
+	public Evaluator(double[] weights) {
+		if (weights.length != FEATURES) {
+			throw new IllegalArgumentException("need " + FEATURES
+					+ " weights, not " + weights.length);
+		}
+		_weights = weights.clone();
+	}
+
+	/**
+	 * Returns the score of a board that the last placement cleared the given
+	 * number of lines on.
+	 */
+	public double evaluate(Board board, int lines) {
+		return this.evaluateBoard(board) + this.evaluateLines(lines);
+	}
+
+	/**
+	 * Returns the part of the score that comes from the lines a placement
+	 * cleared.
+	 */
+	public double evaluateLines(int lines) {
+		return _weights[LINES] * lines;
+	}
+
+	/**
+	 * Returns the part of the score that only depends on the board: its
+	 * height, holes and bumpiness.
+	 */
+	public double evaluateBoard(Board board) {
+		int height = 0;
+		int bumpiness = 0;
+		int lastHeight = -1;
+		for (int col = Constants.FIRST_COL; col <= Constants.LAST_COL; col++) {
+			int columnHeight = Constants.LAST_ROW + 1 - board.getColumnTop(col);
+			height += columnHeight;
+			if (lastHeight >= 0) {
+				bumpiness += Math.abs(columnHeight - lastHeight);
+			}
+			lastHeight = columnHeight;
+		}
+		// a square is a hole when it is empty and a row above it has that
+		// column filled, so the rows above are ORed together on the way down,
+		// one word of the rows at a time, starting at the board's top row
+		int holes = 0;
+		for (int word = 0; word < Constants.ROW_WORDS; word++) {
+			long playable = Board.getPlayableColumns(word);
+			long covered = 0;
+			for (int row = board.getTopRow(); row <= Constants.LAST_ROW; row++) {
+				long squares = board.getWord(row, word) & playable;
+				holes += Long.bitCount(covered & ~squares);
+				covered |= squares;
+			}
+		}
+		return _weights[HEIGHT] * height + _weights[HOLES] * holes
+				+ _weights[BUMPINESS] * bumpiness;
+	}
+
+	/**
+	 * Returns a copy of the weights.
+	 */
+	public double[] getWeights() {
+		return _weights.clone();
+	}
+
+}
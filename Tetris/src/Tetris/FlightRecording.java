@@ -0,0 +1,73 @@
+package Tetris;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ * A flight recording records the game with Java Flight Recorder from when it
+ * is made until it is stopped, when the app is started with --jfr=file. It
+ * uses the settings profile in tetris.jfc, which is kept next to this class:
+ * it turns on the game events and the JVM events that explain a stutter
+ * (garbage collection pauses, safepoints, threads waiting for locks, method
+ * samples and where memory is being allocated) and leaves everything else
+ * off, so the recording is small. The same profile can be given to the JVM
+ * with -XX:StartFlightRecording:settings=src/Tetris/tetris.jfc to record the
+ * batch simulator. The JfrAnalyzer sums a recording up.
+ */
+public class FlightRecording {
+
+	public static final String PROFILE = "tetris.jfc";
+
+	private Recording _recording;
+	private Path _file;
+
+	/**
+	 * The constructor starts recording, to be written to the file when the
+	 * recording is stopped.
+	 */
+	public FlightRecording(Path file) {
+		_file = file;
+		_recording = new Recording(FlightRecording.getProfile());
+		_recording.setName("Tetris");
+		_recording.setToDisk(true);
+		_recording.start();
+	}
+
+	/**
+	 * Returns the game's settings profile.
+	 */
+	public static Configuration getProfile() {
+		try (Reader reader = new InputStreamReader(
+				FlightRecording.class.getResourceAsStream(PROFILE),
+				StandardCharsets.UTF_8)) {
+			return Configuration.create(reader);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (ParseException e) {
+			throw new IllegalStateException("the profile " + PROFILE
+					+ " isn't valid", e);
+		}
+	}
+
+	/**
+	 * Stops recording and writes the recording to the file.
+	 */
+	public void stop() {
+		_recording.stop();
+		try {
+			_recording.dump(_file);
+		} catch (IOException e) {
+			System.err.println("couldn't write the flight recording: " + e);
+		}
+		_recording.close();
+	}
+
+}
@@ -0,0 +1,103 @@
+package Tetris;
+
+import javafx.scene.control.Label;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+
+/**
+ * The frame time overlay is a label in the corner of the gamePane that shows
+ * how long frames are taking, so the node renderer and the canvas renderer can
+ * be compared while playing. Every frame the game tells it when the frame
+ * started and how long the renderer took. The label only changes twice a
+ * second so that updating it doesn't cost much itself; it shows the average
+ * and the longest time between frames and the average time spent rendering,
+ * and if it has the input handler, the average and longest time between a key
+ * being pressed and the engine applying it. If the auto player is playing it
+ * shows how many placements its search scores per second and how many of
+ * the boards' scores were found in its cache. With a simulation thread those
+ * are counted on that thread, so the input handler and the search keep their
+ * counters in volatile fields and the cache in LongAdders for this to read.
+ */
+public class FrameTimeOverlay {
+
+	private static final long UPDATE_NANOS = 500000000L; // half a second
+
+	private Label _label;
+	private InputHandler _inputHandler;
+	private AutoPlayer _autoPlayer;
+	private long _lastFrame;
+	private long _windowStart;
+	private int _frames;
+	private long _maxFrameNanos;
+	private long _renderNanos;
+
+	/**
+	 * The constructor makes the label; the game adds it to the gamePane.
+	 */
+	public FrameTimeOverlay(String renderMode) {
+		_label = new Label(renderMode);
+		_label.setFont(new Font(12));
+		_label.setTextFill(Color.WHITE);
+		_label.setMouseTransparent(true);
+		_label.relocate(4, 4);
+		_lastFrame = 0;
+	}
+
+	/**
+	 * Gives the overlay the input handler whose latency it should show.
+	 */
+	public void setInputHandler(InputHandler inputHandler) {
+		_inputHandler = inputHandler;
+	}
+
+	/**
+	 * Gives the overlay the auto player whose search speed it should show.
+	 */
+	public void setAutoPlayer(AutoPlayer autoPlayer) {
+		_autoPlayer = autoPlayer;
+	}
+
+	public Label getLabel() {
+		return _label;
+	}
+
+	/**
+	 * Records one frame. now is the time javaFX gave the render timer and
+	 * renderNanos is how long the renderer took to draw it.
+	 */
+	public void recordFrame(long now, long renderNanos) {
+		if (_lastFrame == 0) {
+			_lastFrame = now;
+			_windowStart = now;
+			return;
+		}
+		long frameNanos = now - _lastFrame;
+		_lastFrame = now;
+		_frames++;
+		_maxFrameNanos = Math.max(_maxFrameNanos, frameNanos);
+		_renderNanos += renderNanos;
+		if (now - _windowStart >= UPDATE_NANOS) {
+			double average = (now - _windowStart) / 1e6 / _frames;
+			String text = String.format("%.1f ms avg  %.1f ms max  %.3f ms draw",
+					average, _maxFrameNanos / 1e6, _renderNanos / 1e6 / _frames);
+			if (_inputHandler != null) {
+				text += String.format("\ninput %.1f ms avg  %.1f ms max",
+						_inputHandler.getAverageLatency() / 1e6,
+						_inputHandler.getMaxLatency() / 1e6);
+			}
+			if (_autoPlayer != null) {
+				SearchPolicy policy = _autoPlayer.getPolicy();
+				text += String.format("\nsearch %.0f placements/s  %.0f%% cached",
+						policy.getPlacements() * 1e9
+								/ Math.max(1, policy.getSearchNanos()),
+						100 * policy.getCache().getHitRate());
+			}
+			_label.setText(text);
+			_windowStart = now;
+			_frames = 0;
+			_maxFrameNanos = 0;
+			_renderNanos = 0;
+		}
+	}
+
+}
@@ -1,12 +1,18 @@
 package Tetris;
 
-import javafx.animation.Animation;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Pos;
+import javafx.scene.Node;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.input.KeyCode;
@@ -14,70 +20,245 @@ import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
 import javafx.scene.text.Font;
-import javafx.util.Duration;
 
 /**
- * The game class contains the logic of Tetris. This class contains several
- * private classes: a timehandler, a keyhandler, and a clickhandler. The
- * timehandler is responsible for shifting the pieces down and checking whether
- * the top line is full - to end the game - or any other line is full - to clear
- * it and shift everything above it down 1 square. The keyhandler handles user
- * input: the arrow keys have various effects on the piece (shifting, rotating),
- * p pauses the game and space drops the piece. The clickHandler is for the
- * quitButton that is contained in the bottom pane. Methods in this class
- * include createBoard which makes the surrounding squares and instantiates the
- * array of squares that underlies the game's logic. MakeNewPiece, ShiftLeft,
- * ShiftRight, Rotate, etc are all called by the timehandler and keyhandler as
- * the game is played.
+ * The game class draws a game of Tetris and handles the player's input. The
+ * rules themselves are in the engine, which doesn't know about javaFX: this
+ * class asks the engine to move the piece and the renderer draws the board and
+ * the piece wherever the engine says they are, once per frame. This class
+ * contains several private classes. The timehandler
+ * asks the engine to shift the piece down and to check whether the top line is
+ * full - to end the game. Full lines are cleared by the engine as soon as a
+ * piece locks. The keyhandler handles user input: the arrow keys have various
+ * effects on the piece (shifting, rotating), p pauses the game and space drops
+ * the piece. The clickHandler is for the quitButton that is contained in the bottom pane.
+ * Methods in this class include createBoard which makes the renderer that
+ * draws the surrounding squares and everything inside them. In a versus game
+ * there is one game for every board, and they only share the versus that
+ * passes garbage between them. Anyone can watch a game as a spectator, which
+ * is sent a delta of every frame that changed.
  */
 public class Game {
 
-	private TetrisSquare[][] _board;
+	private static final int BROADCAST_CAPACITY = 256; // deltas
+	private static final int KEYFRAME_INTERVAL = 60; // about a second of frames
+
+	private Engine _engine;
+	private Versus _versus; // null unless this is one board of a versus game
+	private int _player;
+	private Node _keyTarget; // what the key handler listens to
+	private Renderer _renderer;
+	private Viewport _viewport;
+	private RenderTimer _renderTimer;
+	private FrameTimeOverlay _frameTimeOverlay;
+	private Metrics _metrics;
+	private MetricsOverlay _metricsOverlay;
+	private FlightRecording _flightRecording;
 	private Pane _gamePane;
 	private KeyHandler _keyHandler;
-	private Timeline _timeline;
-	private Piece _piece;
-	private Boolean _pieceIsSquare;
+	private GameLoop _loop;
+	private Simulation _simulation;
+	private GameFrame _frame; // the last frame that was drawn
+	private Broadcast _broadcast;
+	private GameFrame _broadcastFrame; // the last frame that was broadcast
+	private ByteBuffer _deltaBuffer;
+	private InputQueue _inputQueue;
+	private InputHandler _inputHandler;
+	private AutoPlayer _autoPlayer;
+	private ReplayPlayer _replayPlayer;
+	private ReplayRecorder _recorder;
+	private GameState _savedState;
+	private String _saveFile;
+	private int _shownScore;
 	private Boolean _gameIsPaused;
+	private Boolean _gameIsOver;
 	private Label _gameIsPausedLabel;
 	private VBox _bottomPane;
-	private int _score;
 	private Label _scoreLabel;
 
 	/**
 	 * The constructor of the game class calls several helper methods that set
-	 * the game up by creating the board, making the timeLine, and getting the
+	 * the game up by creating the board, making the game loop, and getting the
 	 * private classes like the keyHandler and click handler working properly.
+	 * The settings say which piece generator the engine uses, whether the
+	 * board is drawn with nodes or on a canvas, whether the frame time overlay
+	 * is shown, how the loop catches up, whether the game plays itself and
+	 * whether it is recorded or a recorded game is played again, whether the
+	 * game's metrics are kept, and whether Java Flight Recorder records it.
+	 */
+	public Game(Settings settings) {
+		this(settings, null, 0, null);
+	}
+
+	/**
+	 * This constructor makes one board of a versus game: the given player's,
+	 * listening for its keys on the keyTarget, which all the boards share
+	 * since only one of them can have the focus. A versus game isn't recorded
+	 * or replayed, since the garbage its boards are sent isn't in the
+	 * recording, and only the first board keeps metrics or makes a flight
+	 * recording, so they don't get in each other's way.
 	 */
-	public Game() {
+	public Game(Settings settings, Versus versus, int player, Node keyTarget) {
+		_versus = versus;
+		_player = player;
+		this.makeEngine(settings);
+		if (_player == 0) {
+			this.makeMetrics(settings.getMetrics());
+			if (settings.getJfr() != null) {
+				_flightRecording = new FlightRecording(
+						Paths.get(settings.getJfr()));
+			}
+		}
+		_saveFile = settings.getSaveFile();
+		_gameIsOver = false;
+		_broadcast = new Broadcast(BROADCAST_CAPACITY, KEYFRAME_INTERVAL);
+		_deltaBuffer = ByteBuffer.allocate(GameDelta.MAX_SIZE);
 		_keyHandler = new KeyHandler();
 		_gamePane = new Pane();
-		_gamePane.addEventHandler(KeyEvent.KEY_PRESSED, _keyHandler);
+		_keyTarget = keyTarget != null ? keyTarget : _gamePane;
+		_keyTarget.addEventHandler(KeyEvent.KEY_PRESSED, _keyHandler);
+		_keyTarget.addEventHandler(KeyEvent.KEY_RELEASED, _keyHandler);
 		_gamePane.setFocusTraversable(true);
-		this.createBoard();
-		this.makeNewPiece();
-		this.setupTimeline();
+		this.setupLoop(settings);
+		this.createBoard(settings.getRenderMode(), settings.getShowFrameTimes());
 		this.makeBottomPane();
+		this.makeNewPiece();
 	}
 
 	/**
-	 * This method contains a loop that runs through each part of the array of
-	 * squares and instantiates a square where the position is either in the
-	 * first or last two positions of the rows or the columns. This creates a
-	 * frame which the pieces cannot move past.
+	 * This method makes the engine. A replayed game gets its engine from the
+	 * replay so it has the same pieces, and a replay player instead of the
+	 * keys. Otherwise the engine gets the generator and seed from the
+	 * settings, and if the game is recorded the engine is given a recorder
+	 * that writes to the file on its own thread.
 	 */
-	private void createBoard() {
-		_board = new TetrisSquare[14][24];
-		for (int col = 0; col < 14; col++) {
-			for (int row = 0; row < 24; row++) {
-				if (row < 2 || row > 21 || col < 2 || col > 11) {
-					_board[col][row] = new TetrisSquare();
-					_board[col][row].setLocation(col * Constants.SQUARE_SIZE,
-							row * Constants.SQUARE_SIZE);
-					_gamePane.getChildren().add(_board[col][row]);
-				}
+	private void makeEngine(Settings settings) {
+		if (_versus != null) {
+			_engine = new Engine(settings.getGenerator(), settings.getSeed());
+			return;
+		}
+		try {
+			if (settings.getReplay() != null) {
+				Replay replay = Replay.read(Paths.get(settings.getReplay()));
+				_engine = replay.makeEngine();
+				_replayPlayer = new ReplayPlayer(_engine, replay);
+				return;
+			}
+			_engine = new Engine(settings.getGenerator(), settings.getSeed());
+			if (settings.getRecord() != null) {
+				_recorder = new ReplayRecorder(FileChannel.open(
+						Paths.get(settings.getRecord()),
+						StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING), true,
+						settings.getGenerator(), settings.getSeed());
+				_engine.setRecorder(_recorder);
 			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * This method makes the metrics and registers them with JMX unless they
+	 * are off, and makes the overlay that shows them in the bottomPane if it
+	 * was asked for. When they are off _metrics stays null and nothing is
+	 * timed at all.
+	 */
+	private void makeMetrics(String mode) {
+		if (Metrics.JMX.equals(mode) || Metrics.OVERLAY.equals(mode)) {
+			_metrics = new Metrics();
+			_metrics.start();
+		}
+		if (Metrics.OVERLAY.equals(mode)) {
+			_metricsOverlay = new MetricsOverlay(_metrics);
+		}
+	}
+
+	/**
+	 * This method makes the viewport and the renderer for the render mode,
+	 * which adds whatever it needs to the gamePane, draws the whole board once
+	 * and starts the render timer that draws whatever changed on every frame
+	 * after that. The gamePane is the size of the viewport and clipped to it,
+	 * so the piece can't be drawn over the bottomPane when it is outside it.
+	 */
+	private void createBoard(String renderMode, boolean showFrameTimes) {
+		_viewport = new Viewport();
+		_gamePane.setPrefSize(_viewport.getWidth(), _viewport.getHeight());
+		_gamePane.setClip(new Rectangle(_viewport.getWidth(),
+				_viewport.getHeight()));
+		if (Renderer.CANVAS.equals(renderMode)) {
+			_renderer = new CanvasRenderer(_gamePane, _viewport);
+		} else {
+			_renderer = new NodeRenderer(_gamePane, _viewport);
+		}
+		_frame = this.makeFrame();
+		_renderer.renderAll(_frame);
+		if (showFrameTimes == true) {
+			_frameTimeOverlay = new FrameTimeOverlay(renderMode);
+			_frameTimeOverlay.setInputHandler(_inputHandler);
+			_frameTimeOverlay.setAutoPlayer(_autoPlayer);
+			_gamePane.getChildren().add(_frameTimeOverlay.getLabel());
+		}
+		_renderTimer = new RenderTimer();
+		_renderTimer.start();
+		if (_simulation != null) {
+			_simulation.start();
+		}
+	}
+
+	/**
+	 * Makes a frame of the game as it is now. When there is a simulation
+	 * thread this is only called on it, once it has started.
+	 */
+	private GameFrame makeFrame() {
+		return new GameFrame(_engine, _loop, _replayPlayer != null
+				&& _replayPlayer.isFinished());
+	}
+
+	/**
+	 * Returns a new spectator of this game. It can be polled from any thread
+	 * for a delta of every frame that changed from now on, starting with a
+	 * keyframe, and should be closed when it isn't wanted anymore.
+	 */
+	public Spectator watch() {
+		return _broadcast.subscribe();
+	}
+
+	/**
+	 * Publishes a delta of the frame that was drawn last to the spectators,
+	 * if there are any and it changed since the last one. The delta is
+	 * written once on the javaFX thread however many spectators there are.
+	 * Nobody watching means nothing is written, and the next delta after
+	 * that is a keyframe, since the rows that changed in between are lost.
+	 */
+	private void broadcastFrame() {
+		if (!_broadcast.isWatched()) {
+			_broadcastFrame = null;
+			return;
+		}
+		if (_frame == _broadcastFrame) {
+			return;
+		}
+		_deltaBuffer.clear();
+		GameDelta.write(_frame, _broadcast.needsKeyframe() ? null
+				: _broadcastFrame, _deltaBuffer);
+		_deltaBuffer.flip();
+		_broadcast.publish(_deltaBuffer);
+		_broadcastFrame = _frame;
+	}
+
+	/**
+	 * Runs something that touches the engine or the loop: straight away if
+	 * the loop runs on the javaFX thread, or on the simulation thread before
+	 * its next step if there is one.
+	 */
+	private void runOnLoop(Runnable task) {
+		if (_simulation == null) {
+			task.run();
+		} else {
+			_simulation.runLater(task);
 		}
 	}
 
@@ -86,7 +267,7 @@ public class Game {
 	 * called by the paneOrganizer so it can be added to the borderPane below
 	 * the gamePane. This method also creates the different parts that go into
 	 * the bottomPane, like the quitButton, the paused label, and the score
-	 * counter.
+	 * counter, and the metrics overlay if it is shown.
 	 */
 	public VBox makeBottomPane() {
 		_bottomPane = new VBox();
@@ -94,8 +275,7 @@ public class Game {
 		_bottomPane.setStyle("-fx-background-color: grey;");
 		_bottomPane.setPrefSize(7 * Constants.SQUARE_SIZE,
 				4 * Constants.SQUARE_SIZE);
-		_score = 0;
-		_scoreLabel = new Label("Score: 0");
+		_scoreLabel = new Label("Score: " + _engine.getScore());
 		_scoreLabel.setFont(new Font(20));
 		_gameIsPausedLabel = new Label("PAUSED"); // put into _bottomPane when
 													// key P is pressed see
@@ -103,425 +283,405 @@ public class Game {
 		Button quitButton = new Button("Quit");
 		quitButton.setOnAction(new ClickHandler());
 		_bottomPane.getChildren().addAll(_scoreLabel, quitButton);
+		if (_metricsOverlay != null) {
+			_bottomPane.getChildren().add(_metricsOverlay.getLabel());
+		}
 		_bottomPane.setSpacing(10);
 		_bottomPane.setAlignment(Pos.CENTER);
 		return _bottomPane;
 	}
 
 	/**
-	 * The setup timeLine method instantiates a keyFrame by which the _timeline
-	 * operates. This timeLine initially has a keyFrame rate of 1 second, but
-	 * this keyFrame is gradually made smaller to make the speed of the game
-	 * faster (this is mediated by the updateGameScoreandSpeed method every time
-	 * a line is cleared.
+	 * The setupLoop method makes the game loop that moves the engine forward
+	 * STEPS_PER_SECOND times a second. The piece drops once a second at first
+	 * and faster as lines are cleared; the engine works out which steps that
+	 * happens on from the score. The render timer drives the loop. The key
+	 * handler puts commands in the input queue and the input handler applies
+	 * them at the start of each step. When the game plays itself the auto
+	 * player moves the piece at the start of each step instead, searching on
+	 * every core, and when a recorded game is played again the replay player
+	 * does. With --simthread=true the loop runs on a simulation thread of
+	 * its own and the render timer only draws the frames it publishes. Every
+	 * board of a versus game always has its own simulation thread, its auto
+	 * player searches on only one more, and the versus gets to send the
+	 * board's garbage before every step.
 	 */
-	private void setupTimeline() {
-		KeyFrame keyframe = new KeyFrame(Duration.seconds(1), new TimeHandler());
-		_timeline = new Timeline(keyframe);
-		_timeline.setCycleCount(Animation.INDEFINITE);
-		_timeline.play();
+	private void setupLoop(Settings settings) {
+		_loop = new GameLoop(_engine, settings.getCatchUp());
+		_inputQueue = new InputQueue();
+		Controller controller;
+		if (_replayPlayer != null) {
+			controller = _replayPlayer;
+		} else if (settings.getBot() == true || _player >= settings.getHumans()) {
+			_autoPlayer = new AutoPlayer(_engine, _versus != null ? 1 : Runtime
+					.getRuntime().availableProcessors());
+			controller = _autoPlayer;
+		} else {
+			_inputHandler = new InputHandler(_engine, _inputQueue,
+					settings.getDas(), settings.getArr());
+			if (_metrics != null) {
+				_inputHandler.setLatencyHistogram(_metrics.getInputLatency());
+			}
+			controller = _inputHandler;
+		}
+		if (_metrics != null) {
+			_engine.setLockTimers(_metrics.getClearLine(),
+					_metrics.getMakeNewPiece());
+		}
+		if (settings.getSimulationThread() == true || _versus != null) {
+			_simulation = new Simulation(_loop, this::makeFrame);
+		}
+		if (_versus != null) {
+			controller = _versus.join(_player, _engine, _simulation, controller);
+		}
+		_loop.setController(controller);
+		_shownScore = _engine.getScore();
 		_gameIsPaused = false; // game starts out running, this is set true when
-								// P is pressed and the timeLine is paused
+								// P is pressed and the loop is paused
 	}
 
 	/**
-	 * This is my fav method omg. Although it's kind of long, breaking into
-	 * helper method made it more complicated so I just put it back this way.
-	 * The integers at the start are the x and y values of the individual
-	 * squares that make up the pieces. The switch randomly selects which piece
-	 * will be made by setting these integers equal to whatever values they
-	 * would have to make the correct piece. The benefit of having these
-	 * integers not just directly passed into the _piece instantiation is that
-	 * before the piece is instantiated, the values can be used to check if a
-	 * square already exists at one of the locations specified. If one does, the
-	 * game is ended! It not, the piece can be generated and the game goes on.
+	 * The engine has already picked the next piece and the renderer will draw
+	 * it on the next frame. If the engine found something in the new piece's
+	 * way the game is ended instead.
 	 */
 	private void makeNewPiece() {
-		int x1 = 0;
-		int y1 = 0;
-		int x2 = 0;
-		int y2 = 0;
-		int x3 = 0;
-		int y3 = 0;
-		int x4 = 0;
-		int y4 = 0;
-		// in one line to save space
-		Color color = null;
-		int random = (int) (Math.random() * 7);
-		switch (random) {
-		case 0:
-			_pieceIsSquare = false;
-			x1 = 5;
-			y1 = 2;
-			x2 = 6;
-			y2 = 2;
-			x3 = 7;
-			y3 = 2;
-			x4 = 8;
-			y4 = 2;
-			color = Color.PURPLE;
-			break;
-		case 1:
-			_pieceIsSquare = true;
-			x1 = 6;
-			y1 = 2;
-			x2 = 7;
-			y2 = 2;
-			x3 = 6;
-			y3 = 3;
-			x4 = 7;
-			y4 = 3;
-			color = Color.PINK;
-			break;
-		case 2:
-			_pieceIsSquare = false;
-			x1 = 6;
-			y1 = 2;
-			x2 = 5;
-			y2 = 3;
-			x3 = 6;
-			y3 = 3;
-			x4 = 7;
-			y4 = 3;
-			color = Color.ORANGE;
-			break;
-		case 3:
-			_pieceIsSquare = false;
-			x1 = 5;
-			y1 = 3;
-			x2 = 6;
-			y2 = 3;
-			x3 = 7;
-			y3 = 3;
-			x4 = 7;
-			y4 = 2;
-			color = Color.YELLOW;
-			break;
-		case 4:
-			_pieceIsSquare = false;
-			x1 = 8;
-			y1 = 3;
-			x2 = 7;
-			y2 = 3;
-			x3 = 6;
-			y3 = 3;
-			x4 = 6;
-			y4 = 2;
-			color = Color.GREEN;
-			break;
-		case 5:
-			_pieceIsSquare = false;
-			x1 = 8;
-			y1 = 2;
-			x2 = 7;
-			y2 = 2;
-			x3 = 7;
-			y3 = 3;
-			x4 = 6;
-			y4 = 3;
-			color = Color.TEAL;
-			break;
-		case 6:
-			_pieceIsSquare = false;
-			x1 = 5;
-			y1 = 2;
-			x2 = 6;
-			y2 = 2;
-			x3 = 6;
-			y3 = 3;
-			x4 = 7;
-			y4 = 3;
-			color = Color.BLUE;
-			break;
-		}
-		// checks if there are any squares in the new pieces way
-		if (_board[x1][y1] != null || _board[x2][y2] != null
-				|| _board[x3][y3] != null || _board[x4][y4] != null) {
+		if (_frame.isGameOver()) {
 			this.endGame();
-		} else {
-			// makes the piece and passes the correct coordinates for the
-			// squares and the color!
-			_piece = new Piece(this, x1, y1, x2, y2, x3, y3, x4, y4, color);
 		}
 	}
 
 	/**
-	 * This just tells the piece to shift left but it checks that there isn't
-	 * anything there first by using the checkShift method.
+	 * The clearLine method is called after a piece may have been locked. The
+	 * engine has already cleared any lines the piece filled, checking only the
+	 * rows the piece covered, so this just updates the score if it changed.
+	 * The renderer draws the rows that moved on the next frame.
 	 */
-	private void shiftPieceLeft() {
-		if (this.checkShift(-1, 0) == true) {
-			_piece.shiftLeft();
+	private void clearLine() {
+		if (_frame.getScore() != _shownScore) {
+			this.updateScore();
 		}
 	}
 
 	/**
-	 * This just tells the piece to shift left but it checks that there isn't
-	 * anything there first by using the checkShift method.
+	 * This method is called by the clear line method every time lines are
+	 * cleared! This shows the player their score; the engine speeds the game
+	 * up by itself as the score increases to make it harder.
 	 */
-	public void shiftPieceRight() {
-		if (this.checkShift(1, 0) == true) {
-			_piece.shiftRight();
-		}
+	private void updateScore() {
+		_shownScore = _frame.getScore();
+		_scoreLabel.setText("Score: " + _shownScore);
 	}
 
 	/**
-	 * This method assumes the piece can shift but sets the canShift boolean to
-	 * false if any of the spaces that the piece is shifting to end up not being
-	 * equal null (are occupied by a square).
+	 * This accessor method is for the pane organizer to add the gamePane to
+	 * the borderPane.
 	 */
-	private boolean checkShift(int col, int row) {
-		boolean canShift = true;
-
-		// made these local variables because it looked crazy before
-		int x1 = (int) (_piece.getSquare1().getX() / Constants.SQUARE_SIZE);
-		int y1 = (int) (_piece.getSquare1().getY() / Constants.SQUARE_SIZE);
-		int x2 = (int) (_piece.getSquare2().getX() / Constants.SQUARE_SIZE);
-		int y2 = (int) (_piece.getSquare2().getY() / Constants.SQUARE_SIZE);
-		int x3 = (int) (_piece.getSquare3().getX() / Constants.SQUARE_SIZE);
-		int y3 = (int) (_piece.getSquare3().getY() / Constants.SQUARE_SIZE);
-		int x4 = (int) (_piece.getSquare4().getX() / Constants.SQUARE_SIZE);
-		int y4 = (int) (_piece.getSquare4().getY() / Constants.SQUARE_SIZE);
-
-		if ((_board[x1 + col][y1 + row] != null)
-				|| (_board[x2 + col][y2 + row] != null)
-				|| (_board[x3 + col][y3 + row] != null)
-				|| (_board[x4 + col][y4 + row] != null)) {
-			canShift = false;
-		}
-		return canShift;
+	public Pane getGamePane() {
+		return _gamePane;
 	}
 
 	/**
-	 * If all of the conditions listed are satisfied, the piece is told to
-	 * rotate. The conditions are that the positions the piece would rotate too
-	 * must be free and the piece must not be a square.
+	 * This accessor method is for the pane organizer to size the window to
+	 * the part of the board that is drawn.
 	 */
-	private void rotatePiece() {
-		// same local variables to make code less crazy
-		int x1 = (int) (_piece.getSquare1().getX() / Constants.SQUARE_SIZE);
-		int y1 = (int) (_piece.getSquare1().getY() / Constants.SQUARE_SIZE);
-		int x2 = (int) (_piece.getSquare2().getX() / Constants.SQUARE_SIZE);
-		int y2 = (int) (_piece.getSquare2().getY() / Constants.SQUARE_SIZE);
-		int x3 = (int) (_piece.getSquare3().getX() / Constants.SQUARE_SIZE);
-		int y3 = (int) (_piece.getSquare3().getY() / Constants.SQUARE_SIZE);
-		int x4 = (int) (_piece.getSquare4().getX() / Constants.SQUARE_SIZE);
-		int y4 = (int) (_piece.getSquare4().getY() / Constants.SQUARE_SIZE);
-		// pieceIsSquare is in there too! Automatically can't rotate if piece is
-		// square
-		if (_pieceIsSquare == false
-				&& _board[x3 - y3 + y1][y3 + x3 - x1] == null
-				&& _board[x3 - y3 + y2][y3 + x3 - x2] == null
-				&& _board[x3 - y3 + y4][y3 + x3 - x4] == null) {
-			_piece.rotate();
-		}
+	public Viewport getViewport() {
+		return _viewport;
 	}
 
 	/**
-	 * This method is similar to the methods for the shiftLeft and shiftRight:
-	 * it first checks if the positions the squares would shift too are free,
-	 * then it tells the piece to shift down if they are. This is different in
-	 * that having the piece be unable to shift down will result in the
-	 * individual squares becoming part of the array and a new piece getting
-	 * made.
+	 * This method is called when either of the two end game conditions are
+	 * satisfied: when there is a square or squares in the way of the next piece
+	 * or when there is a square in the top line of the game board.
 	 */
-	private void dropPieceDown() {
-		// local variables not really needed here
-		if (this.checkShift(0, 1) == false) {
-			_board[(int) (_piece.getSquare1().getX() / Constants.SQUARE_SIZE)][(int) (_piece
-					.getSquare1().getY() / Constants.SQUARE_SIZE)] = _piece
-					.getSquare1();
-			_board[(int) (_piece.getSquare2().getX() / Constants.SQUARE_SIZE)][(int) (_piece
-					.getSquare2().getY() / Constants.SQUARE_SIZE)] = _piece
-					.getSquare2();
-			_board[(int) (_piece.getSquare3().getX() / Constants.SQUARE_SIZE)][(int) (_piece
-					.getSquare3().getY() / Constants.SQUARE_SIZE)] = _piece
-					.getSquare3();
-			_board[(int) (_piece.getSquare4().getX() / Constants.SQUARE_SIZE)][(int) (_piece
-					.getSquare4().getY() / Constants.SQUARE_SIZE)] = _piece
-					.getSquare4();
-			this.makeNewPiece();
-		} else {
-			_piece.dropDown();
+	private void endGame() {
+		if (_gameIsOver == true) {
+			return;
 		}
-	}
-
-	/**
-	 * This is called by the keyhandler when space bar is pressed - it is a
-	 * simple while loop that calls the piece to drop as long as it can.
-	 */
-	private void dropAllTheWay() {
-		while (this.checkShift(0, -1) == true) {
-			this.dropPieceDown();
+		_gameIsOver = true;
+		// important logical stuff
+		if (_versus != null) {
+			_versus.lose(_player);
 		}
+		if (_simulation != null) {
+			// the engine is the javaFX thread's again once this returns
+			_simulation.stop();
+			_simulation = null;
+		}
+		_loop.setPaused(true);
+		_renderTimer.stop();
+		_frame = this.makeFrame();
+		_renderer.render(_frame);
+		this.broadcastFrame();
+		_keyTarget.removeEventHandler(KeyEvent.KEY_PRESSED, _keyHandler);
+		_keyTarget.removeEventHandler(KeyEvent.KEY_RELEASED, _keyHandler);
+		this.stop();
+		// this stuff just adds the gameover label
+		Label gameOver = new Label("GAMEOVER");
+		gameOver.setFont(new Font("Arial", 71));
+		gameOver.setTextFill(Color.MAROON);
+		gameOver.setPrefHeight(700);
+		_gamePane.getChildren().add(gameOver);
 	}
 
 	/**
-	 * The clearLine method is complicated but I found that breaking into helper
-	 * methods made it more complicated so here it is. The first part of this
-	 * method loops through the array (bottom to top) checking to see if any
-	 * line is full. The second part only happens when a line is full: it first
-	 * graphically removes all the squares in this line, then it shifts
-	 * everything down (top to bottom) logically and then graphically.
+	 * The saveGame method is called when S is pressed. It keeps the engine's
+	 * state so L can go back to it straight away, and writes it to the save
+	 * file so it can be loaded after the app is closed. Like loading, this
+	 * is done on whichever thread runs the loop.
 	 */
-	private void clearLine() {
-		// checking if line is full
-		for (int row = 3; row <= 21; row++) {
-			Boolean lineIsFull = true;
-			for (int col = 2; col <= 11; col++) {
-				if (_board[col][row] == null) {
-					lineIsFull = false;
-				}
-			}
-			// clear that line graphically (logically it will be replaced
-			// anyway)
-			if (lineIsFull == true) {
-				this.updateScoreAndSpeed();
-				for (int col = 2; col <= 11; col++) {
-					_gamePane.getChildren().remove(_board[col][row]);
-				}
-				// updating board graphically and logically
-				for (int row2 = row; row2 >= 3; row2--) {
-					for (int col2 = 2; col2 <= 11; col2++) {
-						_board[col2][row2] = _board[col2][row2 - 1];
-						if (_board[col2][row2 - 1] != null) {
-							_board[col2][row2 - 1].setLocation(
-									_board[col2][row2 - 1].getX(),
-									_board[col2][row2 - 1].getY()
-											+ Constants.SQUARE_SIZE);
-						}
-					}
-				}
-			}
-		}
+	private void saveGame() {
+		this.runOnLoop(this::writeSavedState);
 	}
 
-	/**
-	 * This method is called by the clear line method every time a line is
-	 * cleared! This gives the player a score and also speeds the game up as the
-	 * score increases to make it harder.
-	 */
-	private void updateScoreAndSpeed() {
-		_scoreLabel.setText("Score: " + ++_score);
-		_timeline.setRate(1 + (.1 * _score));
+	private void writeSavedState() {
+		_savedState = _engine.saveState();
+		try {
+			_savedState.write(Paths.get(_saveFile));
+		} catch (IOException e) {
+			System.err.println("couldn't write the save file: " + e);
+		}
 	}
 
 	/**
-	 * This accessor method is for the piece class to add its individual squares
-	 * to the gamePane so they can be displayed.
+	 * The loadGame method is called when L is pressed. It puts the engine back
+	 * in the state S last saved, or the one in the save file if S hasn't been
+	 * pressed yet. The next frame has the score it had, and the renderer
+	 * draws every row of it that isn't the same as before.
 	 */
-	public Pane getGamePane() {
-		return _gamePane;
+	private void loadGame() {
+		this.runOnLoop(this::restoreSavedState);
 	}
 
-	/**
-	 * This method is called by the timeHandler at each key frame. It loops
-	 * through only the first row of the game board checking for squares. If one
-	 * is present, the game will end.
-	 */
-	private void checkTopLine() {
-		for (int col = 2; col <= 11; col++) {
-			if (_board[col][2] != null) {
-				this.endGame();
+	private void restoreSavedState() {
+		try {
+			if (_savedState == null) {
+				_savedState = GameState.read(Paths.get(_saveFile));
 			}
+		} catch (IOException e) {
+			System.err.println("couldn't read the save file: " + e);
+			return;
 		}
+		_engine.restoreState(_savedState);
 	}
 
 	/**
-	 * This method is called when either of the two end game conditions are
-	 * satisfied: when there is a square or squares in the way of the next piece
-	 * or when there is a square in the top line of the game board.
+	 * This method is called when the game ends or the app is closed. It stops
+	 * the simulation thread and the auto player's threads and finishes the
+	 * recording, if there are any.
+	 * The metrics stop listening for garbage collections and are taken out
+	 * of JMX, and the flight recording is written to its file.
 	 */
-	private void endGame() {
-		// important logical stuff
-		_timeline.stop();
-		_gamePane.removeEventHandler(KeyEvent.KEY_PRESSED, _keyHandler);
-		// this stuff just adds the gameover label
-		Label gameOver = new Label("GAMEOVER");
-		gameOver.setFont(new Font("Arial", 71));
-		gameOver.setTextFill(Color.MAROON);
-		gameOver.setPrefHeight(700);
-		_gamePane.getChildren().add(gameOver);
+	public void stop() {
+		if (_simulation != null) {
+			_simulation.stop();
+			_simulation = null;
+		}
+		if (_autoPlayer != null) {
+			_autoPlayer.shutdown();
+		}
+		if (_recorder != null) {
+			try {
+				_recorder.close(_engine);
+			} catch (IOException e) {
+				System.err.println("couldn't record the game: " + e);
+			}
+			_recorder = null;
+		}
+		if (_metrics != null) {
+			_metrics.stop();
+		}
+		if (_flightRecording != null) {
+			_flightRecording.stop();
+			_flightRecording = null;
+		}
 	}
 
 	/**
-	 * This keyHandler private class carries out all the user input for the
-	 * game. Pressing P pauses and un-pauses the game. When paused, the other
-	 * keys will not respond and the timeLine is paused. Also, pausing adds the
-	 * pause label to the bottom pane. The left key calls the shift left method,
-	 * the right key calls the shift right method, the down key calls dropDown,
-	 * and space calls the piece to Fall. The UP key rotates the piece by
-	 * calling the rotate method.
+	 * This keyHandler private class takes all the user input for the game.
+	 * Pressing P pauses and un-pauses the game. When paused, the other keys
+	 * will not respond and the game loop is paused. Also, pausing adds the
+	 * pause label to the bottom pane. The other keys don't move the piece
+	 * themselves: pressing or letting go of them just puts a command and the
+	 * time in the input queue, and the input handler applies it at the start
+	 * of the next step. The left and right keys shift the piece, the down key
+	 * drops it a row, space drops it all the way and the UP key rotates it.
+	 * S saves the game and L loads the last saved game. When the auto player
+	 * is playing or a game is replayed only P works. In a versus game the
+	 * second player uses A and D to shift, S to drop a row, W to rotate and
+	 * SHIFT to drop all the way, P pauses every board and nothing can be saved
+	 * or loaded. If the metrics are on, the time each key takes to handle is
+	 * recorded.
 	 */
 	private class KeyHandler implements EventHandler<KeyEvent> {
 
 		@Override
 		public void handle(KeyEvent keyEvent) {
-			KeyCode keyPressed = keyEvent.getCode();
-			switch (keyPressed) {
-			case LEFT:
-				if (_gameIsPaused == false) {
-					shiftPieceLeft();
-				}
-				break;
-			case RIGHT:
-				if (_gameIsPaused == false) {
-					shiftPieceRight();
-				}
-				break;
-			case DOWN:
-				if (_gameIsPaused == false) {
-					dropPieceDown();
-				}
-				break;
-			case UP:
-				if (_gameIsPaused == false) {
-					rotatePiece();
-				}
-				break;
-			case SPACE:
-				if (_gameIsPaused == false) {
-					dropAllTheWay();
+			if (_metrics == null) {
+				this.handleKey(keyEvent);
+			} else {
+				long start = System.nanoTime();
+				this.handleKey(keyEvent);
+				_metrics.getKey().record(System.nanoTime() - start);
+			}
+		}
+
+		private void handleKey(KeyEvent keyEvent) {
+			int command = this.getCommand(keyEvent.getCode());
+			if (keyEvent.getEventType() == KeyEvent.KEY_RELEASED) {
+				// let go of keys even when paused so none are stuck held
+				if (command >= 0) {
+					_inputQueue.offer(command + InputQueue.RELEASED,
+							System.nanoTime());
 				}
-				break;
-			case P:
+			} else if (keyEvent.getCode() == KeyCode.P) {
 				if (_gameIsPaused == false) {
-					_timeline.pause();
+					runOnLoop(() -> _loop.setPaused(true));
 					_bottomPane.getChildren().add(_gameIsPausedLabel);
 					_gameIsPaused = true;
 					// Makes it so that the next time the key is pressed, the
 					// else part is carried out (switches)
 				} else {
-					_timeline.play();
+					runOnLoop(() -> _loop.setPaused(false));
 					_gameIsPaused = false;
 					_bottomPane.getChildren().remove(_gameIsPausedLabel);
 				}
-				break;
-			default:
-				break;
+			} else if (_gameIsPaused == true || _autoPlayer != null
+					|| _replayPlayer != null) {
+				// nothing else works while paused or not playing
+			} else if (command >= 0) {
+				_inputQueue.offer(command, System.nanoTime());
+			} else if (_versus != null) {
+				// the boards of a versus game can't be saved one at a time
+			} else if (keyEvent.getCode() == KeyCode.S) {
+				saveGame();
+			} else if (keyEvent.getCode() == KeyCode.L && _recorder == null) {
+				// a recorded game can't go back, or it couldn't be replayed
+				loadGame();
 			}
 			keyEvent.consume();
 		}
+
+		/**
+		 * Returns the input queue's command for a key, or -1 if the key
+		 * isn't one of the game's.
+		 */
+		private int getCommand(KeyCode keyCode) {
+			if (_versus != null && _player == 1) {
+				return this.getSecondCommand(keyCode);
+			}
+			switch (keyCode) {
+			case LEFT:
+				return InputQueue.LEFT;
+			case RIGHT:
+				return InputQueue.RIGHT;
+			case DOWN:
+				return InputQueue.DOWN;
+			case UP:
+				return InputQueue.ROTATE;
+			case SPACE:
+				return InputQueue.DROP;
+			default:
+				return -1;
+			}
+		}
+
+		private int getSecondCommand(KeyCode keyCode) {
+			switch (keyCode) {
+			case A:
+				return InputQueue.LEFT;
+			case D:
+				return InputQueue.RIGHT;
+			case S:
+				return InputQueue.DOWN;
+			case W:
+				return InputQueue.ROTATE;
+			case SHIFT:
+				return InputQueue.DROP;
+			default:
+				return -1;
+			}
+		}
 	}
 
 	/**
-	 * The timeHandler private class is called every second but speeds up as the
-	 * player clears lines and updateGameSpeedAndScore is called. It checks the
-	 * top line and clears any full lines with each keyFrame.
+	 * The renderTimer private class is called by javaFX once for every frame
+	 * it draws. It first gives the game loop the time so the engine runs every
+	 * step that is due and makes a game frame if any did, or takes the latest
+	 * frame the simulation thread published, then checks whether those steps
+	 * cleared lines or ended the game. Then it tells the renderer to draw the
+	 * frame, so any number of steps, key presses and drops in between are
+	 * drawn in one pass. If the frame time overlay is shown it is
+	 * told how long the frame took. If the metrics are on, the whole tick and
+	 * the renderer are each timed, and the metrics are given a chance to take
+	 * a sample. The engine times its own line clears and new pieces, on
+	 * whichever thread steps it. Every frame is also a game
+	 * event for Java Flight Recorder, with how many steps it ran and how long
+	 * it took to draw.
 	 */
-	private class TimeHandler implements EventHandler<ActionEvent> {
+	private class RenderTimer extends AnimationTimer {
+
+		private int _steps; // what the last tick did, for the frame event
+		private long _renderNanos;
 
-		/**
-		 * The handle method is called every second at first but speeds up with
-		 * each line cleared by the player as the clearLine method calls
-		 * updateScoreandSpeed when a line is actually cleared.
-		 */
 		@Override
-		public void handle(ActionEvent event) {
-			checkTopLine();
-			dropPieceDown();
-			clearLine();
-			event.consume();
+		public void handle(long now) {
+			GameEvents.Frame frame = GameEvents.beginFrame();
+			if (_metrics == null) {
+				this.tick(now, frame != null);
+			} else {
+				long start = System.nanoTime();
+				this.tick(now, true);
+				_metrics.getTick().record(System.nanoTime() - start);
+				if (_metrics.sample(now, _frame,
+						_gamePane.getChildren().size())
+						&& _metricsOverlay != null) {
+					_metricsOverlay.update();
+				}
+			}
+			GameEvents.commit(frame, _steps, _renderNanos);
+		}
+
+		private void tick(long now, boolean timeRender) {
+			boolean changed;
+			if (_simulation == null) {
+				_steps = _loop.advance(now);
+				changed = _steps > 0;
+				if (changed) {
+					_frame = makeFrame();
+				}
+			} else {
+				// loading a game can take the steps back, so they can go down
+				GameFrame latest = _simulation.getLatestFrame();
+				_steps = (int) Math.max(0, latest.getSteps() - _frame.getSteps());
+				changed = latest != _frame;
+				_frame = latest;
+			}
+			_renderNanos = 0;
+			if (changed) {
+				broadcastFrame();
+				clearLine();
+				makeNewPiece();
+				if (_frame.isReplayFinished()) {
+					endGame();
+				}
+				if (_gameIsOver == true) {
+					return;
+				}
+			}
+			if (_frameTimeOverlay == null && !timeRender) {
+				_renderer.render(_frame);
+			} else {
+				long start = System.nanoTime();
+				_renderer.render(_frame);
+				_renderNanos = System.nanoTime() - start;
+				if (_frameTimeOverlay != null) {
+					_frameTimeOverlay.recordFrame(now, _renderNanos);
+				}
+				if (_metrics != null) {
+					_metrics.getRender().record(_renderNanos);
+				}
+			}
 		}
 	}
 
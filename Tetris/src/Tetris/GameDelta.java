@@ -0,0 +1,151 @@
+package Tetris;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * A game delta is what a client is sent about a game it is playing or
+ * watching: everything that changed since the last delta, packed into a few
+ * bytes. Every delta has the same header: the step it was made on, some
+ * flags, the score, the falling piece (kind, orientation and the column and
+ * row of its third square), the next piece and how many rows follow. Then
+ * comes every row that changed, as its number and the kinds of its playable
+ * squares two to a byte, the way a save file keeps them. A keyframe is a delta
+ * with every playable row in it, which is enough to draw the game without
+ * any delta before it; a client that joins a game late has to start from
+ * one. A game view reads deltas back.
+ *
+ * A delta can be written from the engine and the rows it says changed, on
+ * the thread that steps it, or from two game frames, with the rows whose
+ * kinds aren't the same array in both. A delta is never bigger than MAX_SIZE
+ * bytes, so whoever writes them can make one buffer that big and use it for
+ * every delta.
+ */
+public final class GameDelta {
+
+	public static final int KEYFRAME = 1; // the flags
+	public static final int GAME_OVER = 2;
+
+	// step, flags, score, kind, orientation, col, row, next, rows
+	public static final int HEADER_SIZE = 8 + 1 + 4 + 1 + 1 + 2 + 2 + 1 + 2;
+	public static final int ROW_SIZE = 2 + (Constants.PLAY_WIDTH + 1) / 2;
+	public static final int MAX_SIZE = HEADER_SIZE + Constants.PLAY_HEIGHT
+			* ROW_SIZE;
+
+	private GameDelta() {
+		// only static methods
+	}
+
+	/**
+	 * Writes a delta of the engine to the buffer with the given rows in it,
+	 * or every playable row if it is a keyframe. Rows outside the playfield
+	 * are left out, since they never change. The rows aren't cleared.
+	 */
+	public static void write(Engine engine, BitSet rows, boolean keyframe,
+			ByteBuffer buffer) {
+		int countAt = GameDelta.writeHeader(engine.getSteps(), keyframe,
+				engine.isGameOver(), engine.getScore(), engine.getKind(),
+				engine.getOrientation(), engine.getPivotCol(),
+				engine.getPivotRow(), engine.getNextPieces().peek(0), buffer);
+		Board board = engine.getBoard();
+		int count = 0;
+		int row = keyframe ? Constants.TOP_ROW : rows
+				.nextSetBit(Constants.TOP_ROW);
+		while (row >= 0 && row <= Constants.LAST_ROW) {
+			buffer.putShort((short) row);
+			for (int col = Constants.FIRST_COL; col <= Constants.LAST_COL; col += 2) {
+				buffer.put(GameDelta.pack(board.getKind(col, row),
+						col < Constants.LAST_COL ? board.getKind(col + 1, row)
+								: Board.EMPTY));
+			}
+			count++;
+			row = keyframe ? row + 1 : rows.nextSetBit(row + 1);
+		}
+		buffer.putShort(countAt, (short) count);
+	}
+
+	/**
+	 * Writes a delta of the frame to the buffer with every playable row that
+	 * isn't the same as in the last frame, or a keyframe if last is null.
+	 */
+	public static void write(GameFrame frame, GameFrame last, ByteBuffer buffer) {
+		int countAt = GameDelta.writeHeader(frame.getSteps(), last == null,
+				frame.isGameOver(), frame.getScore(), frame.getKind(),
+				frame.getOrientation(), frame.getPivotCol(),
+				frame.getPivotRow(), frame.getNextKind(), buffer);
+		BoardSnapshot board = frame.getBoard();
+		BoardSnapshot lastBoard = last == null ? null : last.getBoard();
+		int count = 0;
+		for (int row = Constants.TOP_ROW; row <= Constants.LAST_ROW; row++) {
+			if (board.isSameRow(lastBoard, row)) {
+				continue;
+			}
+			buffer.putShort((short) row);
+			for (int col = Constants.FIRST_COL; col <= Constants.LAST_COL; col += 2) {
+				buffer.put(GameDelta.pack(board.getKind(col, row),
+						col < Constants.LAST_COL ? board.getKind(col + 1, row)
+								: Board.EMPTY));
+			}
+			count++;
+		}
+		buffer.putShort(countAt, (short) count);
+	}
+
+	/**
+	 * Writes everything in the header but the number of rows, which is
+	 * left as 0, and returns where it is so it can be filled in.
+	 */
+	private static int writeHeader(long steps, boolean keyframe,
+			boolean gameOver, int score, int kind, int orientation, int col,
+			int row, int next, ByteBuffer buffer) {
+		buffer.putLong(steps);
+		buffer.put((byte) ((keyframe ? KEYFRAME : 0) | (gameOver ? GAME_OVER
+				: 0)));
+		buffer.putInt(score);
+		buffer.put((byte) kind);
+		buffer.put((byte) orientation);
+		buffer.putShort((short) col);
+		buffer.putShort((short) row);
+		buffer.put((byte) next);
+		int countAt = buffer.position();
+		buffer.putShort((short) 0);
+		return countAt;
+	}
+
+	/**
+	 * Packs the kinds of two squares into a byte. EMPTY is stored as 15, and
+	 * so is the square past an odd width.
+	 */
+	private static byte pack(int low, int high) {
+		return (byte) ((low & 0x0F) | ((high & 0x0F) << 4));
+	}
+
+	/**
+	 * Returns whether the delta starting at the buffer's position is a
+	 * keyframe, without reading it.
+	 */
+	public static boolean isKeyframe(ByteBuffer buffer) {
+		return (buffer.get(buffer.position() + 8) & KEYFRAME) != 0;
+	}
+
+	/**
+	 * Returns how many bytes the delta starting at the buffer's position
+	 * takes, without reading it.
+	 */
+	public static int getSize(ByteBuffer buffer) {
+		return HEADER_SIZE + ROW_SIZE
+				* buffer.getShort(buffer.position() + HEADER_SIZE - 2);
+	}
+
+	/**
+	 * Returns the nibble of a packed row that has the kind of the square in
+	 * the given playable column, turning 15 back into EMPTY.
+	 */
+	static int readKind(ByteBuffer buffer, int rowStart, int col) {
+		int both = buffer.get(rowStart + col / 2) & 0xFF;
+		int kind = (col & 1) == 0 ? both & 0x0F : both >>> 4;
+		return kind < PieceTable.KINDS || kind == Board.GARBAGE ? kind
+				: Board.EMPTY;
+	}
+
+}
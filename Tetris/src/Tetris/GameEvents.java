@@ -0,0 +1,281 @@
+package Tetris;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The game events are what the game tells Java Flight Recorder about, so a
+ * recording shows what the game was doing next to what the JVM was doing
+ * (garbage collections, safepoints, threads waiting) at the same moment. The
+ * engine makes the piece, lock, lines and gravity events, so they are in
+ * recordings of the batch simulator as well as the app; the input handler
+ * makes the input event and the game's render timer makes the frame event.
+ *
+ * The places that make events don't make them themselves: they call one of
+ * the begin methods here before the thing they time and the matching commit
+ * method after, which fills the event in and commits it if shouldCommit says
+ * the recording wants it. When no recording is running the begin methods
+ * return null without making anything and the commit methods do nothing, so
+ * the engine costs the same as without events. (Making the events and
+ * leaving it to the JIT to take them away didn't work: the engine's lock
+ * is too big to inline, so every event was really made, and the batch
+ * simulator placed pieces almost half as fast.) A listener keeps track of
+ * whether any recording is running. None of the events take stack traces,
+ * which would cost far more than the events themselves.
+ */
+public final class GameEvents {
+
+	public static final String CATEGORY = "Tetris";
+
+	private static volatile boolean _recording;
+
+	static {
+		FlightRecorder.addListener(new RecordingListener());
+		if (FlightRecorder.isInitialized()) {
+			GameEvents.update();
+		}
+	}
+
+	private GameEvents() {
+	}
+
+	/**
+	 * Returns whether a flight recording is running, so events should be
+	 * made.
+	 */
+	public static boolean isRecording() {
+		return _recording;
+	}
+
+	private static void update() {
+		boolean running = false;
+		for (Recording recording : FlightRecorder.getFlightRecorder()
+				.getRecordings()) {
+			if (recording.getState() == RecordingState.RUNNING) {
+				running = true;
+			}
+		}
+		_recording = running;
+	}
+
+	/**
+	 * These methods make the events that don't take any time and commit
+	 * them straight away.
+	 */
+	public static void pieceSpawned(int kind, long piece) {
+		if (_recording) {
+			PieceSpawned event = new PieceSpawned();
+			if (event.shouldCommit()) {
+				event.kind = kind;
+				event.piece = piece;
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * These methods begin the events that are timed, or return null when
+	 * nothing is recording.
+	 */
+	public static PieceLocked beginPieceLocked() {
+		return _recording ? GameEvents.begin(new PieceLocked()) : null;
+	}
+
+	public static LinesCleared beginLinesCleared() {
+		return _recording ? GameEvents.begin(new LinesCleared()) : null;
+	}
+
+	public static GravityTick beginGravityTick() {
+		return _recording ? GameEvents.begin(new GravityTick()) : null;
+	}
+
+	public static InputApplied beginInputApplied() {
+		return _recording ? GameEvents.begin(new InputApplied()) : null;
+	}
+
+	public static Frame beginFrame() {
+		return _recording ? GameEvents.begin(new Frame()) : null;
+	}
+
+	private static <E extends Event> E begin(E event) {
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * These methods fill in and commit an event the matching begin method
+	 * returned, if the recording wants it.
+	 */
+	public static void commit(PieceLocked event, int kind, int orientation,
+			int col, int row) {
+		if (event != null && event.shouldCommit()) {
+			event.kind = kind;
+			event.orientation = orientation;
+			event.col = col;
+			event.row = row;
+			event.commit();
+		}
+	}
+
+	public static void commit(LinesCleared event, int lines) {
+		// an event for no lines isn't interesting
+		if (event != null && lines != 0 && event.shouldCommit()) {
+			event.count = lines;
+			event.commit();
+		}
+	}
+
+	public static void commit(GravityTick event, long step, boolean landed) {
+		if (event != null && event.shouldCommit()) {
+			event.step = step;
+			event.landed = landed;
+			event.commit();
+		}
+	}
+
+	public static void commit(InputApplied event, int command, long latency) {
+		if (event != null && event.shouldCommit()) {
+			event.command = command;
+			event.latency = latency;
+			event.commit();
+		}
+	}
+
+	public static void commit(Frame event, int steps, long render) {
+		if (event != null && event.shouldCommit()) {
+			event.steps = steps;
+			event.render = render;
+			event.commit();
+		}
+	}
+
+	/**
+	 * A new piece was taken from the queue. It takes no time.
+	 */
+	@Name("Tetris.PieceSpawned")
+	@Label("Piece Spawned")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	public static class PieceSpawned extends Event {
+
+		@Label("Kind")
+		public int kind;
+
+		@Label("Piece")
+		@Description("How many pieces the engine has made, counting this one")
+		public long piece;
+	}
+
+	/**
+	 * A piece was locked into the board, timed from locking its squares to
+	 * having cleared its lines and made the next piece.
+	 */
+	@Name("Tetris.PieceLocked")
+	@Label("Piece Locked")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	public static class PieceLocked extends Event {
+
+		@Label("Kind")
+		public int kind;
+
+		@Label("Orientation")
+		public int orientation;
+
+		@Label("Column")
+		public int col;
+
+		@Label("Row")
+		public int row;
+	}
+
+	/**
+	 * Full lines were cleared, timed from looking for them to having moved
+	 * the rows above them down.
+	 */
+	@Name("Tetris.LinesCleared")
+	@Label("Lines Cleared")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	public static class LinesCleared extends Event {
+
+		@Label("Count")
+		public int count;
+	}
+
+	/**
+	 * Gravity dropped the piece a row on a step of the game loop, or locked
+	 * it if it couldn't fall. It is timed with the lock, if there was one.
+	 */
+	@Name("Tetris.GravityTick")
+	@Label("Gravity Tick")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	public static class GravityTick extends Event {
+
+		@Label("Step")
+		public long step;
+
+		@Label("Landed")
+		public boolean landed;
+	}
+
+	/**
+	 * The input handler applied one of the input queue's commands, timed
+	 * from taking it out of the queue to having moved the piece.
+	 */
+	@Name("Tetris.InputApplied")
+	@Label("Input Applied")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	public static class InputApplied extends Event {
+
+		@Label("Command")
+		public int command;
+
+		@Label("Latency")
+		@Description("From the key being pressed to the command being applied")
+		@Timespan(Timespan.NANOSECONDS)
+		public long latency;
+	}
+
+	/**
+	 * The render timer handled one frame: it ran the game loop's steps and
+	 * drew what changed.
+	 */
+	@Name("Tetris.Frame")
+	@Label("Frame")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	public static class Frame extends Event {
+
+		@Label("Steps")
+		public int steps;
+
+		@Label("Render Time")
+		@Timespan(Timespan.NANOSECONDS)
+		public long render;
+	}
+
+	/**
+	 * The recording listener is told by Java Flight Recorder whenever a
+	 * recording starts or stops.
+	 */
+	private static class RecordingListener implements FlightRecorderListener {
+
+		@Override
+		public void recordingStateChanged(Recording recording) {
+			GameEvents.update();
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+package Tetris;
+
+/**
+ * A game frame is everything the renderer needs to draw one frame of a game,
+ * taken from the engine and the game loop at one moment: a snapshot of the
+ * board, the falling piece and where its ghost would land, the score and the
+ * counters the metrics show, and whether the game is paused or over. A frame
+ * never changes once it is made, so it can be handed to another thread
+ * without a lock and whoever draws it can never see half of a line clear.
+ *
+ * Making a frame is cheap: the board snapshot copies the row masks and shares
+ * every row of kinds with the board. Because the board copies a row of kinds
+ * before writing to it once a snapshot shares it, a row of one frame has the
+ * same array of kinds as the same row of an earlier frame only if nothing in
+ * it changed in between, so the renderer finds the rows it has to draw again
+ * by comparing arrays instead of being told.
+ */
+public final class GameFrame {
+
+	private final BoardSnapshot _board;
+	private final int _kind;
+	private final int _orientation;
+	private final int _col;
+	private final int _row;
+	private final int _dropDistance;
+	private final int _next;
+	private final int _score;
+	private final long _pieces;
+	private final long _steps;
+	private final long _droppedSteps;
+	private final boolean _paused;
+	private final boolean _gameOver;
+	private final boolean _replayFinished;
+
+	/**
+	 * The constructor takes the frame from the engine and the loop that steps
+	 * it. It has to be made on the thread that steps the engine. A replayed
+	 * game also says whether the replay has finished.
+	 */
+	public GameFrame(Engine engine, GameLoop loop, boolean replayFinished) {
+		_board = engine.getBoard().snapshot();
+		_kind = engine.getKind();
+		_orientation = engine.getOrientation();
+		_col = engine.getPivotCol();
+		_row = engine.getPivotRow();
+		_dropDistance = engine.getDropDistance();
+		_next = engine.getNextPieces().peek(0);
+		_score = engine.getScore();
+		_pieces = engine.getPieces();
+		_steps = engine.getSteps();
+		_droppedSteps = loop.getDroppedSteps();
+		_paused = loop.isPaused();
+		_gameOver = engine.isGameOver();
+		_replayFinished = replayFinished;
+	}
+
+	public BoardSnapshot getBoard() {
+		return _board;
+	}
+
+	/**
+	 * These accessor methods return the falling piece: its kind, orientation,
+	 * the column and row of its third square, the column and row of each of
+	 * its squares like the engine's getCol and getRow, how far it would drop
+	 * and the kind of the piece after it.
+	 */
+	public int getKind() {
+		return _kind;
+	}
+
+	public int getOrientation() {
+		return _orientation;
+	}
+
+	public int getPivotCol() {
+		return _col;
+	}
+
+	public int getPivotRow() {
+		return _row;
+	}
+
+	public int getCol(int square) {
+		return _col + PieceTable.getColOffset(_kind, _orientation, square);
+	}
+
+	public int getRow(int square) {
+		return _row + PieceTable.getRowOffset(_kind, _orientation, square);
+	}
+
+	public int getDropDistance() {
+		return _dropDistance;
+	}
+
+	public int getNextKind() {
+		return _next;
+	}
+
+	/**
+	 * These accessor methods return the score, how many pieces have been
+	 * made, how many steps the engine has taken, how many steps the loop has
+	 * let go, and whether the loop was paused, the game was over or the
+	 * replay had finished when the frame was made.
+	 */
+	public int getScore() {
+		return _score;
+	}
+
+	public long getPieces() {
+		return _pieces;
+	}
+
+	public long getSteps() {
+		return _steps;
+	}
+
+	public long getDroppedSteps() {
+		return _droppedSteps;
+	}
+
+	public boolean isPaused() {
+		return _paused;
+	}
+
+	public boolean isGameOver() {
+		return _gameOver;
+	}
+
+	public boolean isReplayFinished() {
+		return _replayFinished;
+	}
+
+}
@@ -0,0 +1,120 @@
+package Tetris;
+
+/**
+ * The game loop runs the engine in fixed steps, STEPS_PER_SECOND of them every
+ * second, no matter how often it is called. Whoever calls advance passes in
+ * the time now in nanoseconds and the loop adds the time since the last call
+ * to an accumulator, then runs one engine step for every whole step that has
+ * built up. Because the engine only ever moves forward a whole step at a time,
+ * gravity happens at exactly the same steps whether frames come on time, late
+ * or all at once.
+ *
+ * When frames are very late the loop normally only catches up a few steps and
+ * lets the rest of the time go, so the game slows down instead of jumping. In
+ * catch up mode it runs every step it owes. Games with no window don't use
+ * the clock here: the game server calls step on its own ticks, the replay
+ * player steps a recorded game as fast as it can and the batch simulator
+ * places pieces without stepping at all. If the loop has a controller (the
+ * input handler or the auto player), it moves the piece right before every
+ * engine step.
+ */
+public class GameLoop {
+
+	public static final int STEPS_PER_SECOND = 60;
+	public static final long STEP_NANOS = 1000000000L / STEPS_PER_SECOND;
+	private static final int MAX_CATCH_UP_STEPS = 10;
+
+	private Engine _engine;
+	private Controller _controller;
+	private boolean _catchUp;
+	private boolean _paused;
+	private long _lastTime;
+	private long _accumulator;
+	private long _droppedSteps;
+
+	/**
+	 * The constructor takes the engine to step and whether every missed step
+	 * should be run.
+	 */
+	public GameLoop(Engine engine, boolean catchUp) {
+		_engine = engine;
+		_catchUp = catchUp;
+		_paused = false;
+		_lastTime = -1;
+	}
+
+	/**
+	 * Gives the loop a controller to run before every engine step.
+	 */
+	public void setController(Controller controller) {
+		_controller = controller;
+	}
+
+	/**
+	 * Runs every step that is due at the time now (in nanoseconds, from
+	 * System.nanoTime or javaFX's pulse) and returns how many were run. The
+	 * first call only starts the clock.
+	 */
+	public int advance(long now) {
+		if (_paused || _lastTime < 0) {
+			_lastTime = now;
+			return 0;
+		}
+		_accumulator += now - _lastTime;
+		_lastTime = now;
+		int steps = 0;
+		while (_accumulator >= STEP_NANOS && !_engine.isGameOver()) {
+			if (!_catchUp && steps == MAX_CATCH_UP_STEPS) {
+				// too far behind, let the rest of the time go
+				_droppedSteps += _accumulator / STEP_NANOS;
+				_accumulator %= STEP_NANOS;
+				break;
+			}
+			this.step();
+			_accumulator -= STEP_NANOS;
+			steps++;
+		}
+		return steps;
+	}
+
+	/**
+	 * Runs one step right now, without looking at the clock. This is for
+	 * the game server, which keeps the time for all of its games itself.
+	 */
+	public void step() {
+		if (_controller != null) {
+			_controller.step();
+		}
+		_engine.step();
+	}
+
+	/**
+	 * Returns how far the loop is between the last step and the next one, from
+	 * 0 to 1, for drawing things in between steps.
+	 */
+	public double getAlpha() {
+		return (double) _accumulator / STEP_NANOS;
+	}
+
+	/**
+	 * Pausing stops steps from running. The time spent paused is not owed
+	 * when the loop is unpaused.
+	 */
+	public void setPaused(boolean paused) {
+		_paused = paused;
+		_lastTime = -1;
+	}
+
+	public boolean isPaused() {
+		return _paused;
+	}
+
+	/**
+	 * Returns how many steps were skipped because the loop fell too far
+	 * behind and wasn't in catch up mode.
+	 */
+	public long getDroppedSteps() {
+		return _droppedSteps;
+	}
+
+}
@@ -0,0 +1,368 @@
+package Tetris;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The game server hosts many games at once in one JVM with no window, for as
+ * many players as it has sessions. It is the third main line of the app next
+ * to App and the batch simulator. The games are split between a few shards,
+ * each with one thread of its own that steps every one of its games
+ * STEPS_PER_SECOND times a second, the way the game loop steps the one game in
+ * the app. A game belongs to the shard its id picks and only that shard's
+ * thread ever touches its engine, so the games need no locks at all: a client
+ * only talks to its session through the session's input queue, which has one
+ * writer and one reader, and hears back through its delta listener on the
+ * shard's thread. A new session is handed to its shard through a queue the
+ * shard empties at the start of every tick.
+ *
+ * A shard keeps track of how late every tick started (its jitter) and how
+ * long it took in histograms. If a tick takes so long that the shard falls
+ * more than MAX_LATE_STEPS behind, the ticks it missed are counted and let go,
+ * the way the game loop lets go of steps when it isn't catching up.
+ *
+ * Between ticks a shard parks, unless it has been given a tick waiter, which
+ * is called instead and can use the time; the network server waits on its
+ * sockets that way, so the sessions it reads and writes are stepped on the
+ * same thread.
+ */
+public class GameServer {
+
+	private static final int MAX_LATE_STEPS = 10;
+	// how often the main line's clients look at their games, and how many
+	// keys each of them presses a second
+	private static final int LOOKS_PER_SECOND = 10;
+	private static final int PRESSES_PER_SECOND = 3;
+
+	private Shard[] _shards;
+	private AtomicInteger _nextId;
+	private int _das;
+	private int _arr;
+	private volatile boolean _running;
+
+	/**
+	 * The constructor makes the given number of shards, and the DAS and ARR
+	 * every session's input handler uses.
+	 */
+	public GameServer(int shards, int das, int arr) {
+		_shards = new Shard[shards];
+		for (int shard = 0; shard < shards; shard++) {
+			_shards[shard] = new Shard(shard);
+		}
+		_nextId = new AtomicInteger();
+		_das = das;
+		_arr = arr;
+	}
+
+	/**
+	 * Starts every shard's thread.
+	 */
+	public void start() {
+		_running = true;
+		for (Shard shard : _shards) {
+			shard._thread.start();
+		}
+	}
+
+	/**
+	 * Stops every shard's thread and waits for them to finish their tick.
+	 * After this the sessions' engines can be looked at from any thread.
+	 */
+	public void stop() throws InterruptedException {
+		_running = false;
+		for (Shard shard : _shards) {
+			LockSupport.unpark(shard._thread);
+			if (shard._waiter != null) {
+				shard._waiter.wake();
+			}
+			shard._thread.join();
+		}
+	}
+
+	/**
+	 * Starts a new game with the given piece generator and seed and returns
+	 * its session. It is stepped from the next tick of its shard on, and the
+	 * listener is sent a keyframe after its first step. This can be called
+	 * from any thread.
+	 */
+	public Session open(String generator, long seed, DeltaListener listener) {
+		int id = _nextId.getAndIncrement();
+		return this.open(id % _shards.length, id, generator, seed, listener);
+	}
+
+	/**
+	 * Starts a new game like open, but on the given shard.
+	 */
+	public Session open(int shard, String generator, long seed,
+			DeltaListener listener) {
+		return this.open(shard, _nextId.getAndIncrement(), generator, seed,
+				listener);
+	}
+
+	private Session open(int shard, int id, String generator, long seed,
+			DeltaListener listener) {
+		Session session = new Session(id, new Engine(generator, seed), _das,
+				_arr, listener);
+		_shards[shard]._joining.add(session);
+		return session;
+	}
+
+	/**
+	 * Gives a shard a tick waiter to call between ticks instead of parking.
+	 * This has to be done before the server starts.
+	 */
+	public void setWaiter(int shard, TickWaiter waiter) {
+		_shards[shard]._waiter = waiter;
+	}
+
+	/**
+	 * These accessor methods return how many shards there are and, for each
+	 * one, how many games it is stepping, how many ticks it has run and
+	 * missed, and its histograms of how late each tick started and how long
+	 * it took. They are only exact once the server has stopped.
+	 */
+	public int getShards() {
+		return _shards.length;
+	}
+
+	public int getGames(int shard) {
+		return _shards[shard]._count;
+	}
+
+	public long getTicks(int shard) {
+		return _shards[shard]._ticks;
+	}
+
+	public long getMissedTicks(int shard) {
+		return _shards[shard]._missedTicks;
+	}
+
+	public Histogram getLateness(int shard) {
+		return _shards[shard]._lateness;
+	}
+
+	public Histogram getTickTimes(int shard) {
+		return _shards[shard]._tickTimes;
+	}
+
+	/**
+	 * A shard is one thread and the games it steps. The games are kept in an
+	 * array that grows as needed; a finished game is taken out by moving the
+	 * last game into its place. The shard has one set of rows and one buffer
+	 * that every one of its games uses to make its deltas.
+	 */
+	private class Shard implements Runnable {
+
+		private Thread _thread;
+		private TickWaiter _waiter;
+		private Queue<Session> _joining;
+		private Session[] _sessions;
+		private int _count;
+		private BitSet _rows;
+		private ByteBuffer _buffer;
+		private Histogram _lateness;
+		private Histogram _tickTimes;
+		private long _ticks;
+		private long _missedTicks;
+
+		private Shard(int number) {
+			_thread = new Thread(this, "game server shard " + number);
+			_thread.setDaemon(true);
+			_joining = new ConcurrentLinkedQueue<Session>();
+			_sessions = new Session[64];
+			_rows = new BitSet(Constants.BOARD_HEIGHT);
+			_buffer = ByteBuffer.allocate(GameDelta.MAX_SIZE);
+			_lateness = new Histogram("lateness");
+			_tickTimes = new Histogram("tick");
+		}
+
+		/**
+		 * Waits for every tick's start time and then steps every game. The
+		 * start times are always STEP_NANOS apart, so a tick that starts
+		 * late doesn't push the ones after it back. The waiter is called at
+		 * least once between ticks, even when the shard is late.
+		 */
+		@Override
+		public void run() {
+			long next = System.nanoTime();
+			while (_running) {
+				long now = System.nanoTime();
+				do {
+					if (_waiter == null) {
+						LockSupport.parkNanos(next - now);
+					} else {
+						_waiter.waitUntil(next);
+					}
+					now = System.nanoTime();
+				} while (now < next && _running);
+				_lateness.record(now - next);
+				this.tick();
+				long end = System.nanoTime();
+				_tickTimes.record(end - now);
+				_ticks++;
+				next += GameLoop.STEP_NANOS;
+				if (end - next > MAX_LATE_STEPS * GameLoop.STEP_NANOS) {
+					long missed = (end - next) / GameLoop.STEP_NANOS;
+					_missedTicks += missed;
+					next += missed * GameLoop.STEP_NANOS;
+				}
+			}
+		}
+
+		private void tick() {
+			Session joining = _joining.poll();
+			while (joining != null) {
+				if (_count == _sessions.length) {
+					_sessions = Arrays.copyOf(_sessions, 2 * _count);
+				}
+				_sessions[_count++] = joining;
+				joining = _joining.poll();
+			}
+			int i = 0;
+			while (i < _count) {
+				if (_sessions[i].step(_rows, _buffer)) {
+					i++;
+				} else {
+					_sessions[i] = _sessions[--_count];
+					_sessions[_count] = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A client is what the main line plays every game with: it presses a
+	 * random key now and then, about as often as a quick player does, and
+	 * keeps a game view of its game up to date from the deltas it is sent.
+	 */
+	private static class Client implements DeltaListener {
+
+		private static final LongAdder DELTAS = new LongAdder();
+		private static final LongAdder BYTES = new LongAdder();
+
+		private Session _session;
+		private GameView _view;
+
+		private Client() {
+			_view = new GameView();
+		}
+
+		@Override
+		public void delta(int game, ByteBuffer delta) {
+			DELTAS.increment();
+			BYTES.add(delta.remaining());
+			_view.apply(delta);
+		}
+
+		private void press(SplittableRandom random) {
+			int command = random.nextInt(10);
+			if (command < 4) {
+				// a shift, let go of straight away
+				int shift = command < 2 ? InputQueue.LEFT : InputQueue.RIGHT;
+				_session.submit(shift);
+				_session.submit(shift + InputQueue.RELEASED);
+			} else if (command < 9) {
+				_session.submit(InputQueue.ROTATE);
+			} else {
+				_session.submit(InputQueue.DROP);
+			}
+		}
+
+		/**
+		 * Returns whether the view is a copy of the game. The server has to
+		 * be stopped.
+		 */
+		private boolean isInSync() {
+			return _view.isCopyOf(_session.getEngine());
+		}
+	}
+
+	/**
+	 * This is the main line of the game server. It hosts the given number of
+	 * games on the given number of shards for the given number of seconds,
+	 * with a client for every game pressing a key a few times a second
+	 * (PRESSES_PER_SECOND), and starts a new game whenever one ends so the
+	 * load stays the same. Then it prints every shard's jitter and tick
+	 * times, the deltas that were sent, roughly how much memory a game takes
+	 * and whether every client's view ended up the same as its game. The
+	 * arguments are the number of games, shards and seconds and the seed,
+	 * and all of them can be left off from the end.
+	 */
+	public static void main(String[] argv) throws InterruptedException {
+		int games = argv.length > 0 ? Integer.parseInt(argv[0]) : 10000;
+		int shards = argv.length > 1 ? Integer.parseInt(argv[1]) : Runtime
+				.getRuntime().availableProcessors();
+		int seconds = argv.length > 2 ? Integer.parseInt(argv[2]) : 10;
+		long seed = argv.length > 3 ? Long.parseLong(argv[3]) : 0;
+		GameServer server = new GameServer(shards, 10, 2);
+		Client[] clients = new Client[games];
+		long before = GameServer.getUsedMemory();
+		int opened = 0;
+		for (int game = 0; game < games; game++) {
+			clients[game] = new Client();
+			clients[game]._session = server.open(PieceGenerator.UNIFORM,
+					BatchSimulator.getGameSeed(seed, opened++), clients[game]);
+		}
+		long bytesPerGame = (GameServer.getUsedMemory() - before) / games;
+		server.start();
+
+		SplittableRandom random = new SplittableRandom(seed);
+		long end = System.nanoTime() + seconds * 1000000000L;
+		long finished = 0;
+		while (System.nanoTime() < end) {
+			for (int game = 0; game < games; game++) {
+				Client client = clients[game];
+				if (client._session.isFinished()) {
+					finished++;
+					clients[game] = new Client();
+					clients[game]._session = server.open(PieceGenerator.UNIFORM,
+							BatchSimulator.getGameSeed(seed, opened++),
+							clients[game]);
+				} else if (random.nextInt(LOOKS_PER_SECOND) < PRESSES_PER_SECOND) {
+					client.press(random);
+				}
+			}
+			LockSupport.parkNanos(1000000000L / LOOKS_PER_SECOND);
+		}
+		server.stop();
+
+		System.out.printf("%d games on %d shards for %d s, %d finished, about %d bytes a game%n",
+				games, shards, seconds, finished, bytesPerGame);
+		System.out.println("shard  games    ticks  missed   late p50   late p99  late p999   late max   tick p99   tick max");
+		for (int shard = 0; shard < shards; shard++) {
+			Histogram late = server.getLateness(shard);
+			Histogram tick = server.getTickTimes(shard);
+			System.out.printf("%5d %6d %8d %7d %7.3f ms %7.3f ms %7.3f ms %7.3f ms %7.3f ms %7.3f ms%n",
+					shard, server.getGames(shard), server.getTicks(shard),
+					server.getMissedTicks(shard), late.getMedianMillis(),
+					late.getP99Millis(), late.getP999Millis(),
+					late.getMaxMillis(), tick.getP99Millis(),
+					tick.getMaxMillis());
+		}
+		System.out.printf("deltas %d (%.0f/s), %.1f bytes a delta%n",
+				Client.DELTAS.sum(), Client.DELTAS.sum() / (double) seconds,
+				Client.BYTES.sum() / (double) Math.max(1, Client.DELTAS.sum()));
+		int inSync = 0;
+		for (Client client : clients) {
+			if (client.isInSync()) {
+				inSync++;
+			}
+		}
+		System.out.printf("views in sync with their games: %d of %d%n", inSync,
+				games);
+	}
+
+	private static long getUsedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
@@ -0,0 +1,169 @@
+package Tetris;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A game state is everything an engine needs to carry on from a moment of a
+ * game: a snapshot of the board, the falling piece, the score, the step and
+ * gravity counters, and where the pieces come from. The piece generator's
+ * random number generator can't be copied, so the state has the generator's
+ * name and seed and how many pieces had been made, and the engine makes the
+ * generator again and takes that many pieces from it to get back to the same
+ * place. A game state never changes, so taking one and going back to it are
+ * both instant, and it can be written to a small binary save file: the
+ * header and counters, then the kinds of the playable squares two to a
+ * byte, since a kind fits in four bits. The row masks and hash aren't saved
+ * because the kinds say everything they do. The board's width and height are
+ * in the header, since the board can be any size, and a save file from a
+ * board of a different size can't be loaded.
+ */
+public final class GameState {
+
+	public static final int MAGIC = 0x54534156; // "TSAV"
+	public static final int VERSION = 2;
+
+	private static final int PLAYABLE_SQUARES = (Constants.LAST_ROW
+			- Constants.TOP_ROW + 1) * (Constants.LAST_COL - Constants.FIRST_COL + 1);
+
+	final String _generator;
+	final long _seed;
+	final long _pieces;
+	final int _kind;
+	final int _orientation;
+	final int _col;
+	final int _row;
+	final int _score;
+	final long _steps;
+	final int _gravity;
+	final boolean _gameOver;
+	final BoardSnapshot _board;
+
+	GameState(String generator, long seed, long pieces, int kind,
+			int orientation, int col, int row, int score, long steps,
+			int gravity, boolean gameOver, BoardSnapshot board) {
+		_generator = generator;
+		_seed = seed;
+		_pieces = pieces;
+		_kind = kind;
+		_orientation = orientation;
+		_col = col;
+		_row = row;
+		_score = score;
+		_steps = steps;
+		_gravity = gravity;
+		_gameOver = gameOver;
+		_board = board;
+	}
+
+	public BoardSnapshot getBoard() {
+		return _board;
+	}
+
+	public int getScore() {
+		return _score;
+	}
+
+	public long getPieces() {
+		return _pieces;
+	}
+
+	/**
+	 * Writes the state to a save file at the path.
+	 */
+	public void write(Path path) throws IOException {
+		byte[] name = _generator.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocate(64 + name.length
+				+ (PLAYABLE_SQUARES + 1) / 2);
+		buffer.putInt(MAGIC);
+		buffer.put((byte) VERSION);
+		buffer.putShort((short) Constants.PLAY_WIDTH);
+		buffer.putShort((short) Constants.PLAY_HEIGHT);
+		buffer.put((byte) name.length);
+		buffer.put(name);
+		buffer.putLong(_seed);
+		buffer.putLong(_pieces);
+		buffer.put((byte) _kind);
+		buffer.put((byte) _orientation);
+		buffer.putShort((short) _col);
+		buffer.putShort((short) _row);
+		buffer.putInt(_score);
+		buffer.putLong(_steps);
+		buffer.putInt(_gravity);
+		buffer.put((byte) (_gameOver ? 1 : 0));
+		int half = -1;
+		for (int row = Constants.TOP_ROW; row <= Constants.LAST_ROW; row++) {
+			for (int col = Constants.FIRST_COL; col <= Constants.LAST_COL; col++) {
+				// EMPTY is stored as 15
+				int kind = _board.getKind(col, row) & 0x0F;
+				if (half < 0) {
+					half = kind;
+				} else {
+					buffer.put((byte) (half | (kind << 4)));
+					half = -1;
+				}
+			}
+		}
+		if (half >= 0) {
+			buffer.put((byte) (half | (Board.EMPTY & 0x0F) << 4));
+		}
+		buffer.flip();
+		Files.write(path, Arrays.copyOf(buffer.array(), buffer.limit()));
+	}
+
+	/**
+	 * Reads a state from the save file at the path.
+	 */
+	public static GameState read(Path path) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+		if (buffer.remaining() < 5 || buffer.getInt() != MAGIC) {
+			throw new IOException("not a save file");
+		}
+		int version = buffer.get();
+		if (version != VERSION) {
+			throw new IOException("can't read save file version " + version);
+		}
+		int width = buffer.getShort();
+		int height = buffer.getShort();
+		if (width != Constants.PLAY_WIDTH || height != Constants.PLAY_HEIGHT) {
+			throw new IOException("the save file is for a " + width + " by "
+					+ height + " board");
+		}
+		byte[] name = new byte[buffer.get()];
+		buffer.get(name);
+		String generator = new String(name, StandardCharsets.UTF_8);
+		long seed = buffer.getLong();
+		long pieces = buffer.getLong();
+		int kind = buffer.get();
+		int orientation = buffer.get();
+		int col = buffer.getShort();
+		int row = buffer.getShort();
+		int score = buffer.getInt();
+		long steps = buffer.getLong();
+		int gravity = buffer.getInt();
+		boolean gameOver = buffer.get() != 0;
+		Board board = new Board();
+		for (int square = 0; square < PLAYABLE_SQUARES; square += 2) {
+			int both = buffer.get() & 0xFF;
+			GameState.readSquare(board, square, both & 0x0F);
+			if (square + 1 < PLAYABLE_SQUARES) {
+				GameState.readSquare(board, square + 1, both >>> 4);
+			}
+		}
+		return new GameState(generator, seed, pieces, kind, orientation, col,
+				row, score, steps, gravity, gameOver, board.snapshot());
+	}
+
+	private static void readSquare(Board board, int square, int kind) {
+		int width = Constants.LAST_COL - Constants.FIRST_COL + 1;
+		if (kind < PieceTable.KINDS || kind == Board.GARBAGE) {
+			board.setSquare(Constants.FIRST_COL + square % width,
+					Constants.TOP_ROW + square / width, kind);
+		}
+	}
+
+}
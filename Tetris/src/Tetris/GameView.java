@@ -0,0 +1,145 @@
+package Tetris;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A game view is a client's copy of a game it is only sent deltas of. It
+ * keeps the kinds of the playable squares, the falling piece, the next piece
+ * and the score, which is everything needed to draw the game, and applying a
+ * delta brings it up to date. A view starts out knowing nothing and ignores
+ * deltas until it has been given a keyframe, since a delta only makes sense
+ * on top of the ones before it.
+ */
+public class GameView {
+
+	private byte[] _kinds; // the playable squares, row by row
+	private boolean _synced;
+	private long _step;
+	private int _score;
+	private int _kind;
+	private int _orientation;
+	private int _col;
+	private int _row;
+	private int _next;
+	private boolean _gameOver;
+
+	public GameView() {
+		_kinds = new byte[Constants.PLAY_WIDTH * Constants.PLAY_HEIGHT];
+		_synced = false;
+	}
+
+	/**
+	 * Reads one delta from the buffer and applies it, and returns whether
+	 * it was applied. A delta that isn't a keyframe is skipped if no
+	 * keyframe has been applied yet. Either way the buffer is left after the
+	 * delta.
+	 */
+	public boolean apply(ByteBuffer buffer) {
+		if (!_synced && !GameDelta.isKeyframe(buffer)) {
+			buffer.position(buffer.position() + GameDelta.getSize(buffer));
+			return false;
+		}
+		_synced = true;
+		_step = buffer.getLong();
+		int flags = buffer.get();
+		_score = buffer.getInt();
+		_kind = buffer.get();
+		_orientation = buffer.get();
+		_col = buffer.getShort();
+		_row = buffer.getShort();
+		_next = buffer.get();
+		_gameOver = (flags & GameDelta.GAME_OVER) != 0;
+		int rows = buffer.getShort();
+		for (int i = 0; i < rows; i++) {
+			int row = buffer.getShort() - Constants.TOP_ROW;
+			int start = buffer.position();
+			for (int col = 0; col < Constants.PLAY_WIDTH; col++) {
+				_kinds[row * Constants.PLAY_WIDTH + col] = (byte) GameDelta
+						.readKind(buffer, start, col);
+			}
+			buffer.position(start + GameDelta.ROW_SIZE - 2);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the kind of the square at col and row, numbered the way the
+	 * board numbers them, or EMPTY if there is nothing there. The frame
+	 * isn't kept, so it has to be inside the playfield.
+	 */
+	public int getKind(int col, int row) {
+		return _kinds[(row - Constants.TOP_ROW) * Constants.PLAY_WIDTH + col
+				- Constants.FIRST_COL];
+	}
+
+	/**
+	 * Returns whether the view has the same squares, piece, next piece,
+	 * score and game over as the engine, or hasn't been sent anything yet
+	 * and the engine hasn't taken a step. The engine must not be stepped
+	 * while this looks at it.
+	 */
+	public boolean isCopyOf(Engine engine) {
+		if (!_synced) {
+			return engine.getSteps() == 0;
+		}
+		for (int row = Constants.TOP_ROW; row <= Constants.LAST_ROW; row++) {
+			for (int col = Constants.FIRST_COL; col <= Constants.LAST_COL; col++) {
+				if (this.getKind(col, row) != engine.getBoard().getKind(col, row)) {
+					return false;
+				}
+			}
+		}
+		return _score == engine.getScore() && _kind == engine.getKind()
+				&& _orientation == engine.getOrientation()
+				&& _col == engine.getPivotCol() && _row == engine.getPivotRow()
+				&& _next == engine.getNextPieces().peek(0)
+				&& _gameOver == engine.isGameOver();
+	}
+
+	/**
+	 * Returns whether the view has been given a keyframe, so it is a copy of
+	 * the game.
+	 */
+	public boolean isSynced() {
+		return _synced;
+	}
+
+	/**
+	 * These accessor methods return what the last delta said about the
+	 * game: the step it was made on, the score, the falling piece (with the
+	 * column and row of its third square), the next piece and whether the
+	 * game is over.
+	 */
+	public long getStep() {
+		return _step;
+	}
+
+	public int getScore() {
+		return _score;
+	}
+
+	public int getKind() {
+		return _kind;
+	}
+
+	public int getOrientation() {
+		return _orientation;
+	}
+
+	public int getPivotCol() {
+		return _col;
+	}
+
+	public int getPivotRow() {
+		return _row;
+	}
+
+	public int getNext() {
+		return _next;
+	}
+
+	public boolean isGameOver() {
+		return _gameOver;
+	}
+
+}
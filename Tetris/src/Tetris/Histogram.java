@@ -0,0 +1,152 @@
+package Tetris;
+
+import java.util.Arrays;
+
+/**
+ * A histogram counts how many times each duration was recorded, so the
+ * slowest one in a hundred or a thousand can be read off instead of just the
+ * average. Like an HdrHistogram it keeps the counts in buckets that are exact
+ * up to SUB_BUCKETS nanoseconds and then double in width every time the value
+ * doubles, so every value is kept to within about one and a half percent and
+ * the whole range up to MAX_VALUE fits in a couple of thousand counts. The
+ * counts are made when the histogram is, so recording a value never makes
+ * anything; it only finds the bucket from the value's highest bit and adds
+ * one to it.
+ *
+ * Only one thread should record values. Other threads (like the ones JMX
+ * answers on) may read it at any time and get numbers that are a value or two
+ * behind.
+ */
+public class Histogram implements HistogramMXBean {
+
+	private static final int SUB_BITS = 7;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS; // 128
+	private static final int HALF = SUB_BUCKETS / 2;
+	public static final long MAX_VALUE = (1L << 40) - 1; // about 18 minutes
+
+	private String _name;
+	private long[] _counts;
+	private long _count;
+	private long _total;
+	private long _max;
+
+	/**
+	 * The constructor takes the name the histogram is shown and registered
+	 * with.
+	 */
+	public Histogram(String name) {
+		_name = name;
+		_counts = new long[Histogram.getIndex(MAX_VALUE) + 1];
+	}
+
+	/**
+	 * Values below SUB_BUCKETS each get their own bucket. Above that, the
+	 * value is shifted right until it is between HALF and SUB_BUCKETS, and
+	 * every shift moves it HALF buckets along.
+	 */
+	private static int getIndex(long value) {
+		int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+		return (shift << (SUB_BITS - 1)) + (int) (value >>> shift);
+	}
+
+	/**
+	 * Returns the largest value that goes in the same bucket as the index.
+	 */
+	private static long getHighestValue(int index) {
+		int shift = Math.max(0, index / HALF - 1);
+		long sub = index - (shift << (SUB_BITS - 1));
+		return ((sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * Records one value in nanoseconds. Values below zero count as zero and
+	 * values over MAX_VALUE count as MAX_VALUE.
+	 */
+	public void record(long nanos) {
+		long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+		_counts[Histogram.getIndex(value)]++;
+		_count++;
+		_total += value;
+		if (value > _max) {
+			_max = value;
+		}
+	}
+
+	/**
+	 * Returns the value in nanoseconds that the given percent of the recorded
+	 * values are at or below, or 0 if nothing has been recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = _count;
+		if (count == 0) {
+			return 0;
+		}
+		long wanted = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int index = 0; index < _counts.length; index++) {
+			seen += _counts[index];
+			if (seen >= wanted) {
+				return Math.min(Histogram.getHighestValue(index), _max);
+			}
+		}
+		return _max;
+	}
+
+	/**
+	 * Forgets every value. Values recorded at the same time on another
+	 * thread may be half forgotten.
+	 */
+	@Override
+	public void reset() {
+		Arrays.fill(_counts, 0);
+		_count = 0;
+		_total = 0;
+		_max = 0;
+	}
+
+	public String getName() {
+		return _name;
+	}
+
+	/**
+	 * These accessor methods are the histogram's JMX attributes: how many
+	 * values were recorded, and their average, middle, 90th, 99th and 99.9th
+	 * percentile and largest values in milliseconds.
+	 */
+	@Override
+	public long getCount() {
+		return _count;
+	}
+
+	@Override
+	public double getMeanMillis() {
+		long count = _count;
+		return count == 0 ? 0 : _total / 1e6 / count;
+	}
+
+	@Override
+	public double getMedianMillis() {
+		return this.getValueAtPercentile(50) / 1e6;
+	}
+
+	@Override
+	public double getP90Millis() {
+		return this.getValueAtPercentile(90) / 1e6;
+	}
+
+	@Override
+	public double getP99Millis() {
+		return this.getValueAtPercentile(99) / 1e6;
+	}
+
+	@Override
+	public double getP999Millis() {
+		return this.getValueAtPercentile(99.9) / 1e6;
+	}
+
+	@Override
+	public double getMaxMillis() {
+		return _max / 1e6;
+	}
+
+}
@@ -0,0 +1,25 @@
+package Tetris;
+
+/**
+ * This is what JMX tools like jconsole can see of a histogram: how many times
+ * were recorded and what they came to in milliseconds. reset forgets them.
+ */
+public interface HistogramMXBean {
+
+	public long getCount();
+
+	public double getMeanMillis();
+
+	public double getMedianMillis();
+
+	public double getP90Millis();
+
+	public double getP99Millis();
+
+	public double getP999Millis();
+
+	public double getMaxMillis();
+
+	public void reset();
+
+}
@@ -0,0 +1,50 @@
+package Tetris;
+
+import java.util.SplittableRandom;
+
+/**
+ * The history generator remembers the last four pieces it picked. It picks a
+ * piece at random and, if that piece is one of those four, picks again, up to
+ * ROLLS times; the last pick is kept either way. This makes long runs of the
+ * same piece rare without making the order as easy to predict as a bag.
+ */
+public class HistoryGenerator implements PieceGenerator {
+
+	private static final int HISTORY = 4;
+	private static final int ROLLS = 4;
+
+	private SplittableRandom _random;
+	private int[] _history;
+	private int _oldest; // where in the history the next piece is written
+
+	public HistoryGenerator(long seed) {
+		_random = new SplittableRandom(seed);
+		_history = new int[HISTORY];
+		// start as if the last pieces were all S and Z so neither comes first
+		for (int i = 0; i < HISTORY; i++) {
+			_history[i] = i % 2 == 0 ? PieceTable.S : PieceTable.Z;
+		}
+		_oldest = 0;
+	}
+
+	@Override
+	public int next() {
+		int kind = _random.nextInt(PieceTable.KINDS);
+		for (int roll = 1; roll < ROLLS && this.isInHistory(kind); roll++) {
+			kind = _random.nextInt(PieceTable.KINDS);
+		}
+		_history[_oldest] = kind;
+		_oldest = (_oldest + 1) % HISTORY;
+		return kind;
+	}
+
+	private boolean isInHistory(int kind) {
+		for (int i = 0; i < HISTORY; i++) {
+			if (_history[i] == kind) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,168 @@
+package Tetris;
+
+/**
+ * The input handler applies the player's commands to the engine. The game
+ * loop calls step right before every engine step, and it takes everything that
+ * is waiting in the input queue and applies it, so the engine is only ever
+ * changed by the loop and never in the middle of a javaFX event.
+ *
+ * Holding left, right or down moves the piece once when the key is pressed,
+ * then again after the delayed auto shift (DAS) and then every auto repeat
+ * rate (ARR) steps for as long as the key is held. An ARR of zero moves the
+ * piece as far as it can go as soon as the DAS is up. Because the delays are
+ * counted in steps they are the same however fast frames are drawn. The time
+ * from when a key was pressed to when its command was applied is recorded so
+ * the input latency can be measured, and put in a histogram if it has one.
+ * Every command applied is also a game event for Java Flight Recorder.
+ */
+public class InputHandler implements Controller {
+
+	private Engine _engine;
+	private InputQueue _queue;
+	private int _das;
+	private int _arr;
+	private int _shiftHeld; // LEFT, RIGHT or -1 if neither is held
+	private int _shiftSteps; // steps the shift key has been held
+	private boolean _downHeld;
+	private int _downSteps;
+	// only the thread that steps the loop writes these, and they are volatile
+	// so the frame time overlay sees them on the javaFX thread
+	private volatile long _applied;
+	private volatile long _totalLatency;
+	private volatile long _maxLatency;
+	private Histogram _latencies;
+
+	/**
+	 * The constructor takes the engine to apply commands to, the queue to
+	 * take them from and the DAS and ARR in steps.
+	 */
+	public InputHandler(Engine engine, InputQueue queue, int das, int arr) {
+		_engine = engine;
+		_queue = queue;
+		_das = das;
+		_arr = arr;
+		_shiftHeld = -1;
+		_downHeld = false;
+	}
+
+	/**
+	 * Applies every command waiting in the queue and then repeats the held
+	 * keys whose DAS or ARR is up.
+	 */
+	@Override
+	public void step() {
+		int command = _queue.poll();
+		while (command >= 0) {
+			GameEvents.InputApplied event = GameEvents.beginInputApplied();
+			this.apply(command);
+			long latency = System.nanoTime() - _queue.getLastTime();
+			GameEvents.commit(event, command, latency);
+			_applied++;
+			_totalLatency += latency;
+			_maxLatency = Math.max(_maxLatency, latency);
+			if (_latencies != null) {
+				_latencies.record(latency);
+			}
+			command = _queue.poll();
+		}
+		if (_shiftHeld >= 0) {
+			_shiftSteps++;
+			if (this.isRepeatDue(_shiftSteps)) {
+				this.shift(_shiftHeld);
+			}
+		}
+		if (_downHeld) {
+			_downSteps++;
+			if (this.isRepeatDue(_downSteps)) {
+				_engine.dropPieceDown();
+			}
+		}
+	}
+
+	private void apply(int command) {
+		switch (command) {
+		case InputQueue.LEFT:
+		case InputQueue.RIGHT:
+			// the key repeating on its own doesn't start the DAS over
+			if (_shiftHeld != command) {
+				_shiftHeld = command;
+				_shiftSteps = 0;
+				this.shift(command);
+			}
+			break;
+		case InputQueue.DOWN:
+			if (!_downHeld) {
+				_downHeld = true;
+				_downSteps = 0;
+				_engine.dropPieceDown();
+			}
+			break;
+		case InputQueue.ROTATE:
+			_engine.rotate();
+			break;
+		case InputQueue.DROP:
+			_engine.dropAllTheWay();
+			break;
+		case InputQueue.LEFT + InputQueue.RELEASED:
+		case InputQueue.RIGHT + InputQueue.RELEASED:
+			if (_shiftHeld == command - InputQueue.RELEASED) {
+				_shiftHeld = -1;
+			}
+			break;
+		case InputQueue.DOWN + InputQueue.RELEASED:
+			_downHeld = false;
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * A held key repeats on the step its DAS runs out and then every ARR
+	 * steps after that.
+	 */
+	private boolean isRepeatDue(int steps) {
+		if (steps < _das) {
+			return false;
+		}
+		return _arr == 0 || (steps - _das) % _arr == 0;
+	}
+
+	private void shift(int direction) {
+		boolean moved = direction == InputQueue.LEFT ? _engine.shiftLeft()
+				: _engine.shiftRight();
+		if (_arr == 0 && _shiftSteps >= _das) {
+			while (moved) {
+				moved = direction == InputQueue.LEFT ? _engine.shiftLeft()
+						: _engine.shiftRight();
+			}
+		}
+	}
+
+	/**
+	 * Gives the input handler a histogram to record every command's latency
+	 * in as well, when the game's metrics are on.
+	 */
+	public void setLatencyHistogram(Histogram latencies) {
+		_latencies = latencies;
+	}
+
+	/**
+	 * These accessor methods return how many commands have been applied and
+	 * the average and longest time in nanoseconds between a key being pressed
+	 * and its command being applied. They can be called from any thread, and
+	 * the average may be a command behind.
+	 */
+	public long getApplied() {
+		return _applied;
+	}
+
+	public long getAverageLatency() {
+		return _applied == 0 ? 0 : _totalLatency / _applied;
+	}
+
+	public long getMaxLatency() {
+		return _maxLatency;
+	}
+
+}
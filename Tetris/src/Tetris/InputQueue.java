@@ -0,0 +1,103 @@
+package Tetris;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The input queue carries the player's key presses from the javaFX event
+ * handler to the game loop. Each entry is a command and the time it was made.
+ * It is a ring buffer with one writer (the key handler) and one reader (the
+ * input handler, once per step), so it doesn't need a lock: the writer only
+ * ever moves the tail and the reader only ever moves the head, and each of
+ * them publishes its own counter after it is done with the slot. If the game
+ * falls so far behind that the queue is full, new commands are dropped and
+ * counted instead of blocking the event handler.
+ */
+public class InputQueue {
+
+	public static final int LEFT = 0;
+	public static final int RIGHT = 1;
+	public static final int DOWN = 2;
+	public static final int ROTATE = 3;
+	public static final int DROP = 4;
+	public static final int RELEASED = 8; // added to a command when a key is let go
+
+	private static final int CAPACITY = 256;
+
+	private final int _capacity; // must be a power of two
+	private final int[] _commands;
+	private final long[] _times;
+	private final AtomicLong _head; // the next entry to read
+	private final AtomicLong _tail; // the next entry to write
+	private long _dropped;
+	private long _lastTime;
+
+	public InputQueue() {
+		this(CAPACITY);
+	}
+
+	/**
+	 * This constructor makes a queue that holds the given number of commands,
+	 * which must be a power of two. The game server gives every game a small
+	 * one, since a player can't press many keys between two steps.
+	 */
+	public InputQueue(int capacity) {
+		if (Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("capacity must be a power of two");
+		}
+		_capacity = capacity;
+		_commands = new int[capacity];
+		_times = new long[capacity];
+		_head = new AtomicLong();
+		_tail = new AtomicLong();
+	}
+
+	/**
+	 * Adds a command made at the given time (from System.nanoTime). Returns
+	 * false and drops the command if the queue is full. Only the key handler's
+	 * thread may call this.
+	 */
+	public boolean offer(int command, long time) {
+		long tail = _tail.get();
+		if (tail - _head.get() == _capacity) {
+			_dropped++;
+			return false;
+		}
+		int index = (int) tail & (_capacity - 1);
+		_commands[index] = command;
+		_times[index] = time;
+		_tail.lazySet(tail + 1);
+		return true;
+	}
+
+	/**
+	 * Takes the oldest command out of the queue and returns it, or returns -1
+	 * if there isn't one. The time it was made is then available from
+	 * getLastTime. Only the game loop's thread may call this.
+	 */
+	public int poll() {
+		long head = _head.get();
+		if (head == _tail.get()) {
+			return -1;
+		}
+		int index = (int) head & (_capacity - 1);
+		int command = _commands[index];
+		_lastTime = _times[index];
+		_head.lazySet(head + 1);
+		return command;
+	}
+
+	/**
+	 * Returns the time the last command poll returned was made.
+	 */
+	public long getLastTime() {
+		return _lastTime;
+	}
+
+	/**
+	 * Returns how many commands were dropped because the queue was full.
+	 */
+	public long getDropped() {
+		return _dropped;
+	}
+
+}
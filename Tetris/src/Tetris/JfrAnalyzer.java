@@ -0,0 +1,214 @@
+package Tetris;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * The JFR analyzer sums up a flight recording of the game: java
+ * Tetris.JfrAnalyzer game.jfr. It prints how many of each game event there
+ * were and how long they took (middle, 99th percentile and longest), then
+ * breaks the frames down into the time spent running the game loop's steps
+ * and the time spent rendering, and the garbage collection pauses and
+ * safepoints next to them.
+ *
+ * Then it looks for stalls: frames that came more than LATE_NANOS after the
+ * one before. Each stall is put down to the first thing that explains it: a
+ * garbage collection pause or a safepoint between the two frames, lines
+ * cleared in the frame before, or the frame before taking longer than a step.
+ * A stall with none of those happened outside the render timer, which is
+ * usually javaFX laying out and drawing the scene.
+ */
+public class JfrAnalyzer {
+
+	private static final long LATE_NANOS = 2 * GameLoop.STEP_NANOS;
+	private static final String[] CAUSES = { "gc pause", "safepoint",
+			"lines cleared", "slow frame", "outside the render timer" };
+
+	private Map<String, Histogram> _durations;
+	private Histogram _advance;
+	private Histogram _render;
+	private Intervals _frames;
+	private Intervals _gcPauses;
+	private Intervals _safepoints;
+	private Intervals _clears;
+
+	public JfrAnalyzer() {
+		_durations = new LinkedHashMap<String, Histogram>();
+		_advance = new Histogram("advance");
+		_render = new Histogram("render");
+		_frames = new Intervals();
+		_gcPauses = new Intervals();
+		_safepoints = new Intervals();
+		_clears = new Intervals();
+	}
+
+	/**
+	 * Reads every event in the recording.
+	 */
+	public void read(Path file) throws IOException {
+		try (RecordingFile recording = new RecordingFile(file)) {
+			while (recording.hasMoreEvents()) {
+				this.add(recording.readEvent());
+			}
+		}
+	}
+
+	private void add(RecordedEvent event) {
+		String name = event.getEventType().getName();
+		long start = JfrAnalyzer.toNanos(event.getStartTime());
+		long duration = event.getDuration().toNanos();
+		switch (name) {
+		case "Tetris.Frame":
+			long render = event.getLong("render");
+			_render.record(render);
+			_advance.record(duration - render);
+			_frames.add(start, duration);
+			break;
+		case "Tetris.LinesCleared":
+			_clears.add(start, duration);
+			break;
+		case "jdk.GCPhasePause":
+			_gcPauses.add(start, duration);
+			break;
+		case "jdk.SafepointBegin":
+			_safepoints.add(start, duration);
+			break;
+		default:
+			break;
+		}
+		if (name.startsWith("Tetris.") || name.equals("jdk.GCPhasePause")
+				|| name.equals("jdk.SafepointBegin")) {
+			_durations.computeIfAbsent(name, Histogram::new).record(duration);
+		}
+	}
+
+	private static long toNanos(Instant instant) {
+		return instant.getEpochSecond() * 1000000000L + instant.getNano();
+	}
+
+	/**
+	 * Prints the summary.
+	 */
+	public void print() {
+		System.out.println("event                     count    median       p99       max");
+		for (Histogram histogram : _durations.values()) {
+			JfrAnalyzer.print(histogram.getName(), histogram);
+		}
+		System.out.println();
+		System.out.println("frame phases");
+		JfrAnalyzer.print("  game loop steps", _advance);
+		JfrAnalyzer.print("  render", _render);
+		System.out.println();
+		_frames.sort();
+		_gcPauses.sort();
+		_safepoints.sort();
+		_clears.sort();
+		long[] stalls = new long[CAUSES.length];
+		long stallNanos = 0;
+		for (int i = 1; i < _frames._count; i++) {
+			long gap = _frames._starts[i] - _frames._starts[i - 1];
+			if (gap <= LATE_NANOS) {
+				continue;
+			}
+			// from the start of the frame before to the start of this one,
+			// which is the frame before and the wait after it
+			long from = _frames._starts[i - 1];
+			long to = _frames._starts[i];
+			stallNanos += gap;
+			if (_gcPauses.overlaps(from, to)) {
+				stalls[0]++;
+			} else if (_safepoints.overlaps(from, to)) {
+				stalls[1]++;
+			} else if (_clears.overlaps(from, _frames._ends[i - 1])) {
+				stalls[2]++;
+			} else if (_frames._ends[i - 1] - from > GameLoop.STEP_NANOS) {
+				stalls[3]++;
+			} else {
+				stalls[4]++;
+			}
+		}
+		long total = Arrays.stream(stalls).sum();
+		System.out.printf("%d frames, %d stalls over %.1f ms, %.1f ms lost%n",
+				_frames._count, total, LATE_NANOS / 1e6, stallNanos / 1e6);
+		for (int cause = 0; cause < CAUSES.length; cause++) {
+			System.out.printf("  %-26s %6d%n", CAUSES[cause], stalls[cause]);
+		}
+	}
+
+	private static void print(String name, Histogram histogram) {
+		System.out.printf("%-22s %9d %7.3f ms %7.3f ms %7.3f ms%n", name,
+				histogram.getCount(), histogram.getMedianMillis(),
+				histogram.getP99Millis(), histogram.getMaxMillis());
+	}
+
+	/**
+	 * Intervals are the start and end times of the events of one type, kept
+	 * in two arrays that grow as needed. Once sorted by start time, overlaps
+	 * finds whether any of them overlaps a stall by searching for the first
+	 * one that could.
+	 */
+	private static class Intervals {
+
+		private long[] _starts = new long[1024];
+		private long[] _ends = new long[1024];
+		private int _count;
+		private long _longest;
+
+		private void add(long start, long duration) {
+			if (_count == _starts.length) {
+				_starts = Arrays.copyOf(_starts, 2 * _count);
+				_ends = Arrays.copyOf(_ends, 2 * _count);
+			}
+			_starts[_count] = start;
+			_ends[_count] = start + duration;
+			_count++;
+			_longest = Math.max(_longest, duration);
+		}
+
+		private void sort() {
+			Integer[] order = new Integer[_count];
+			for (int i = 0; i < _count; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) -> Long.compare(_starts[a], _starts[b]));
+			long[] starts = new long[_count];
+			long[] ends = new long[_count];
+			for (int i = 0; i < _count; i++) {
+				starts[i] = _starts[order[i]];
+				ends[i] = _ends[order[i]];
+			}
+			_starts = starts;
+			_ends = ends;
+		}
+
+		private boolean overlaps(long from, long to) {
+			// nothing that started before this can have lasted until from
+			int i = Arrays.binarySearch(_starts, 0, _count, from - _longest);
+			for (i = i < 0 ? -i - 1 : i; i < _count && _starts[i] < to; i++) {
+				if (_ends[i] > from) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("usage: java Tetris.JfrAnalyzer recording.jfr");
+			System.exit(1);
+		}
+		JfrAnalyzer analyzer = new JfrAnalyzer();
+		analyzer.read(Paths.get(args[0]));
+		analyzer.print();
+	}
+
+}
@@ -0,0 +1,49 @@
+package Tetris;
+
+/**
+ * The lowest policy is the simplest move policy that still clears lines: it
+ * tries every orientation of the piece in every column it can reach and drops
+ * the piece wherever it would land lowest on the board, preferring columns
+ * further left when two places are as low. It doesn't remember anything
+ * between pieces except how many places it has tried.
+ */
+public class LowestPolicy implements MovePolicy {
+
+	private long _placements;
+
+	@Override
+	public void placePiece(Engine engine) {
+		Board board = engine.getBoard();
+		int kind = engine.getKind();
+		int startRow = engine.getPivotRow();
+		int bestOrientation = engine.getOrientation();
+		int bestCol = engine.getPivotCol();
+		int bestBottom = -1;
+		int orientations = kind == PieceTable.O ? 1 : PieceTable.ORIENTATIONS;
+		for (int orientation = 0; orientation < orientations; orientation++) {
+			for (int col = 0; col < Constants.BOARD_WIDTH; col++) {
+				if (!board.fits(kind, orientation, col, startRow)) {
+					continue;
+				}
+				_placements++;
+				int row = startRow
+						+ board.getDropDistance(kind, orientation, col, startRow);
+				int bottom = row + PieceTable.getTop(kind, orientation)
+						+ PieceTable.getHeight(kind, orientation) - 1;
+				if (bottom > bestBottom) {
+					bestBottom = bottom;
+					bestOrientation = orientation;
+					bestCol = col;
+				}
+			}
+		}
+		engine.moveTo(bestOrientation, bestCol);
+		engine.dropAllTheWay();
+	}
+
+	@Override
+	public long getPlacements() {
+		return _placements;
+	}
+
+}
@@ -0,0 +1,260 @@
+package Tetris;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * The metrics say what the game is costing while it is played. They are only
+ * made when the app is started with --metrics=jmx or --metrics=overlay; the
+ * game keeps null otherwise, so when they are off every place that would time
+ * something only checks for null and doesn't even read the clock.
+ *
+ * The game times the render timer's handle method (one tick, which runs the
+ * game loop's steps and draws the frame), the key handler's handle method
+ * and the renderer into histograms. The engine times clearing the lines a
+ * locked piece filled (clearLine) and making the next piece (makeNewPiece)
+ * on whichever thread steps it, and the input handler records how long
+ * every command waited in the input queue. Garbage
+ * collections are listened for with the collectors' JMX notifications and
+ * their pauses go in a histogram of their own, which is recorded on the
+ * thread JMX sends notifications on. Twice a second the game asks the
+ * metrics to take a sample of the things that can only be read on the javaFX
+ * thread: the lines and pieces per minute of play (worked out from the
+ * engine's steps, so time spent paused doesn't count), the number of nodes in
+ * the gamePane and the steps the loop skipped. The samples are kept in
+ * volatile fields so JMX can read them from its own threads.
+ *
+ * Everything is registered with the platform MBean server under the Tetris
+ * domain, so jconsole or any other JMX client can watch it.
+ */
+public class Metrics implements MetricsMXBean {
+
+	public static final String OFF = "off";
+	public static final String JMX = "jmx";
+	public static final String OVERLAY = "overlay";
+	private static final long SAMPLE_NANOS = 500000000L; // half a second
+	private static final String DOMAIN = "Tetris";
+
+	private Histogram _tick;
+	private Histogram _key;
+	private Histogram _clearLine;
+	private Histogram _makeNewPiece;
+	private Histogram _render;
+	private Histogram _inputLatency;
+	private Histogram _gcPause;
+	private List<Histogram> _histograms;
+	private List<ObjectName> _registered;
+	private List<NotificationEmitter> _collectors;
+	private NotificationListener _gcListener;
+	private long _lastSample;
+	private volatile double _linesPerMinute;
+	private volatile double _piecesPerMinute;
+	private volatile int _nodeCount;
+	private volatile long _droppedSteps;
+	private volatile long _gcPauseNanos;
+
+	/**
+	 * The constructor makes the histograms. Nothing is registered or listened
+	 * to until start is called.
+	 */
+	public Metrics() {
+		_tick = new Histogram("tick");
+		_key = new Histogram("key");
+		_clearLine = new Histogram("clearLine");
+		_makeNewPiece = new Histogram("makeNewPiece");
+		_render = new Histogram("render");
+		_inputLatency = new Histogram("inputLatency");
+		_gcPause = new Histogram("gcPause");
+		_histograms = List.of(_tick, _key, _clearLine, _makeNewPiece, _render,
+				_inputLatency, _gcPause);
+		_registered = new ArrayList<ObjectName>();
+		_collectors = new ArrayList<NotificationEmitter>();
+		_gcListener = new GcListener();
+	}
+
+	/**
+	 * Registers the metrics and the histograms with JMX and starts listening
+	 * for garbage collections. If JMX won't take them the game carries on
+	 * without them.
+	 */
+	public void start() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			this.register(server, new ObjectName(DOMAIN + ":type=Metrics"), this);
+			for (Histogram histogram : _histograms) {
+				this.register(server, new ObjectName(DOMAIN
+						+ ":type=Histogram,name=" + histogram.getName()),
+						histogram);
+			}
+		} catch (JMException e) {
+			System.err.println("couldn't register the metrics: " + e);
+		}
+		for (GarbageCollectorMXBean collector : ManagementFactory
+				.getGarbageCollectorMXBeans()) {
+			if (collector instanceof NotificationEmitter) {
+				NotificationEmitter emitter = (NotificationEmitter) collector;
+				emitter.addNotificationListener(_gcListener, null, null);
+				_collectors.add(emitter);
+			}
+		}
+	}
+
+	/**
+	 * Registers one bean, replacing whatever is registered under its name
+	 * already (from an earlier game in the same app).
+	 */
+	private void register(MBeanServer server, ObjectName name, Object bean)
+			throws JMException {
+		if (server.isRegistered(name)) {
+			server.unregisterMBean(name);
+		}
+		server.registerMBean(bean, name);
+		_registered.add(name);
+	}
+
+	/**
+	 * Stops listening for garbage collections and takes everything out of
+	 * JMX again.
+	 */
+	public void stop() {
+		for (NotificationEmitter emitter : _collectors) {
+			try {
+				emitter.removeNotificationListener(_gcListener);
+			} catch (JMException e) {
+				// it wasn't listening after all
+			}
+		}
+		_collectors.clear();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName name : _registered) {
+			try {
+				server.unregisterMBean(name);
+			} catch (JMException e) {
+				// someone else took it out already
+			}
+		}
+		_registered.clear();
+	}
+
+	/**
+	 * This is called on every frame with the time javaFX gave the render
+	 * timer and the game frame it drew. At most twice a second it reads what
+	 * can only be read on the javaFX thread and returns true, so the overlay
+	 * knows to show it.
+	 */
+	public boolean sample(long now, GameFrame frame, int nodeCount) {
+		if (now - _lastSample < SAMPLE_NANOS) {
+			return false;
+		}
+		_lastSample = now;
+		double minutes = (double) frame.getSteps() / GameLoop.STEPS_PER_SECOND / 60;
+		if (minutes > 0) {
+			_linesPerMinute = frame.getScore() / minutes;
+			_piecesPerMinute = frame.getPieces() / minutes;
+		}
+		_nodeCount = nodeCount;
+		_droppedSteps = frame.getDroppedSteps();
+		return true;
+	}
+
+	/**
+	 * These accessor methods return the histograms for the game to record
+	 * into and the overlay to show.
+	 */
+	public Histogram getTick() {
+		return _tick;
+	}
+
+	public Histogram getKey() {
+		return _key;
+	}
+
+	public Histogram getClearLine() {
+		return _clearLine;
+	}
+
+	public Histogram getMakeNewPiece() {
+		return _makeNewPiece;
+	}
+
+	public Histogram getRender() {
+		return _render;
+	}
+
+	public Histogram getInputLatency() {
+		return _inputLatency;
+	}
+
+	public Histogram getGcPause() {
+		return _gcPause;
+	}
+
+	@Override
+	public double getLinesPerMinute() {
+		return _linesPerMinute;
+	}
+
+	@Override
+	public double getPiecesPerMinute() {
+		return _piecesPerMinute;
+	}
+
+	@Override
+	public int getNodeCount() {
+		return _nodeCount;
+	}
+
+	@Override
+	public long getGcPauses() {
+		return _gcPause.getCount();
+	}
+
+	@Override
+	public double getGcPauseMillis() {
+		return _gcPauseNanos / 1e6;
+	}
+
+	@Override
+	public long getDroppedSteps() {
+		return _droppedSteps;
+	}
+
+	/**
+	 * The gc listener is told about every garbage collection by the
+	 * collectors' beans, on JMX's own thread, and records how long it took.
+	 * Collectors that run alongside the game without stopping it (like G1's
+	 * concurrent cycle) are told about too but aren't pauses, so they are
+	 * left out.
+	 */
+	private class GcListener implements NotificationListener {
+
+		@Override
+		public void handleNotification(Notification notification, Object handback) {
+			if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION
+					.equals(notification.getType())) {
+				return;
+			}
+			GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+					.from((CompositeData) notification.getUserData());
+			if (info.getGcName().contains("Concurrent")) {
+				return;
+			}
+			long nanos = info.getGcInfo().getDuration() * 1000000L;
+			_gcPause.record(nanos);
+			_gcPauseNanos += nanos;
+		}
+	}
+
+}
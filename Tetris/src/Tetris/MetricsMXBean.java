@@ -0,0 +1,23 @@
+package Tetris;
+
+/**
+ * This is what JMX tools can see of the game's metrics besides the
+ * histograms: how fast lines are cleared and pieces placed, how many nodes the
+ * gamePane has, how many garbage collections happened while playing and how
+ * long they paused the game, and how many steps the game loop skipped.
+ */
+public interface MetricsMXBean {
+
+	public double getLinesPerMinute();
+
+	public double getPiecesPerMinute();
+
+	public int getNodeCount();
+
+	public long getGcPauses();
+
+	public double getGcPauseMillis();
+
+	public long getDroppedSteps();
+
+}
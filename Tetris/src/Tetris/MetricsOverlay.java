@@ -0,0 +1,58 @@
+package Tetris;
+
+import javafx.scene.control.Label;
+import javafx.scene.text.Font;
+
+/**
+ * The metrics overlay is a label in the bottomPane that shows the metrics
+ * while playing, when the app is started with --metrics=overlay. It is only
+ * changed when the metrics take a sample, twice a second, and shows the
+ * middle and 99th percentile times of a tick, the renderer, the key handler
+ * and input latency, the lines and pieces per minute, the number of nodes in
+ * the gamePane and the garbage collection pauses so far.
+ */
+public class MetricsOverlay {
+
+	private Label _label;
+	private Metrics _metrics;
+
+	/**
+	 * The constructor makes the label; the game adds it to the bottomPane.
+	 */
+	public MetricsOverlay(Metrics metrics) {
+		_metrics = metrics;
+		_label = new Label();
+		_label.setFont(new Font(11));
+	}
+
+	public Label getLabel() {
+		return _label;
+	}
+
+	/**
+	 * Shows the metrics' latest sample.
+	 */
+	public void update() {
+		_label.setText(String.format(
+				"tick %s  render %s%nkey %s  input %s%n"
+						+ "%.1f lines/min  %.1f pieces/min  %d nodes%n"
+						+ "gc %d pauses  %.1f ms  %.1f ms max",
+				MetricsOverlay.format(_metrics.getTick()),
+				MetricsOverlay.format(_metrics.getRender()),
+				MetricsOverlay.format(_metrics.getKey()),
+				MetricsOverlay.format(_metrics.getInputLatency()),
+				_metrics.getLinesPerMinute(), _metrics.getPiecesPerMinute(),
+				_metrics.getNodeCount(), _metrics.getGcPauses(),
+				_metrics.getGcPauseMillis(),
+				_metrics.getGcPause().getMaxMillis()));
+	}
+
+	/**
+	 * Shows a histogram's middle and 99th percentile in milliseconds.
+	 */
+	private static String format(Histogram histogram) {
+		return String.format("%.2f/%.2f ms", histogram.getMedianMillis(),
+				histogram.getP99Millis());
+	}
+
+}
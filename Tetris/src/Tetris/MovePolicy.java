@@ -0,0 +1,49 @@
+package Tetris;
+
+/**
+ * A move policy decides where each piece goes when a game is played without
+ * a player. The batch simulator calls placePiece once for every piece the
+ * engine makes, and the policy moves the piece with the engine's own shift,
+ * rotate and drop methods until it is locked. A policy may be used by only one
+ * game at a time, but the same kind of policy can be made for every thread.
+ * The create method makes a policy by name: LOWEST drops every piece where it
+ * lands lowest and SEARCH scores every placement two pieces deep.
+ */
+public interface MovePolicy {
+
+	public static final String LOWEST = "lowest";
+	public static final String SEARCH = "search";
+
+	/**
+	 * Moves the engine's falling piece and drops it so that it locks.
+	 */
+	public void placePiece(Engine engine);
+
+	/**
+	 * Returns how many placements the policy has tried so far.
+	 */
+	public long getPlacements();
+
+	/**
+	 * Makes the policy with the given name. A search policy searches on the
+	 * caller's thread only, since the batch simulator already plays a game on
+	 * every thread.
+	 */
+	public static MovePolicy create(String name) {
+		return MovePolicy.create(name, null);
+	}
+
+	/**
+	 * Makes the policy with the given name, giving it the evaluation cache if
+	 * it is one that can use it. The cache may be null.
+	 */
+	public static MovePolicy create(String name, EvaluationCache cache) {
+		if (LOWEST.equals(name)) {
+			return new LowestPolicy();
+		} else if (SEARCH.equals(name)) {
+			return new SearchPolicy(new Evaluator(), 1, cache);
+		}
+		throw new IllegalArgumentException("no move policy called " + name);
+	}
+
+}
@@ -0,0 +1,743 @@
+package Tetris;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The network server lets clients play games on a game server over TCP with
+ * the wire protocol. It has no threads of its own: every shard of the game
+ * server is given a loop of the network server as its tick waiter, and the
+ * loop waits for the next tick on a selector of its own, reading the inputs
+ * of its connections and writing their frames while it waits. A connection
+ * stays on one loop, and its game is opened on that loop's shard, so the
+ * socket, the session and the engine are only ever used by the one thread and
+ * nothing is locked or handed from thread to thread. The first loop also
+ * accepts new connections and hands them to the loops in turn through a
+ * queue, which is the only time a loop is woken up by another thread.
+ *
+ * Frames for a connection are written to its outbox as the shard steps its
+ * game, and the outbox is written to the socket once after every tick, so a
+ * tick costs one write a connection however many frames it made. A client
+ * that doesn't read fast enough to keep its outbox under OUTBOX_SIZE bytes is
+ * cut off.
+ */
+public class NetServer {
+
+	private static final int OUTBOX_SIZE = 16 * 1024;
+	private static final int BACKLOG = 1024;
+	// how often the main line's clients look at their games, and how many
+	// keys each of them presses a second
+	private static final int LOOKS_PER_SECOND = 10;
+	private static final int PRESSES_PER_SECOND = 3;
+
+	private GameServer _server;
+	private ServerSocketChannel _acceptor;
+	private Loop[] _loops;
+	private int _accepted;
+	private Map<Integer, Session> _sessions;
+
+	/**
+	 * The constructor listens on the given address and makes a loop for
+	 * every shard of the game server, which must not have started yet.
+	 */
+	public NetServer(GameServer server, InetSocketAddress address)
+			throws IOException {
+		if (WireProtocol.MAX_DELTA_SIZE > WireProtocol.MAX_FRAME_SIZE) {
+			throw new IllegalStateException(
+					"the board is too big for the wire protocol");
+		}
+		_server = server;
+		_sessions = new ConcurrentHashMap<Integer, Session>();
+		_loops = new Loop[server.getShards()];
+		for (int shard = 0; shard < _loops.length; shard++) {
+			_loops[shard] = new Loop(shard);
+			server.setWaiter(shard, _loops[shard]);
+		}
+		_acceptor = ServerSocketChannel.open();
+		_acceptor.bind(address, BACKLOG);
+		_acceptor.configureBlocking(false);
+		_acceptor.register(_loops[0]._selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * Returns the address the server is listening on, with the port it was
+	 * given if it asked for any port.
+	 */
+	public InetSocketAddress getAddress() throws IOException {
+		return (InetSocketAddress) _acceptor.getLocalAddress();
+	}
+
+	/**
+	 * Writes as much of every connection's outbox as the sockets take and
+	 * returns how many bytes are still waiting. This is for after the game
+	 * server has stopped, when nothing else is using the connections.
+	 */
+	public int flush() {
+		int waiting = 0;
+		for (Loop loop : _loops) {
+			for (SelectionKey key : loop._selector.keys()) {
+				if (key.attachment() instanceof Connection) {
+					Connection connection = (Connection) key.attachment();
+					connection.flush();
+					waiting += connection._outbox.position();
+				}
+			}
+		}
+		return waiting;
+	}
+
+	/**
+	 * Stops listening and closes every connection and selector. The game
+	 * server has to be stopped first.
+	 */
+	public void close() throws IOException {
+		_acceptor.close();
+		for (Loop loop : _loops) {
+			for (SelectionKey key : loop._selector.keys()) {
+				if (key.attachment() instanceof Connection) {
+					((Connection) key.attachment()).close();
+				}
+			}
+			loop._selector.close();
+		}
+	}
+
+	/**
+	 * Returns the session of the game with the given id, as long as its
+	 * connection is open, or null.
+	 */
+	Session getSession(int game) {
+		return _sessions.get(game);
+	}
+
+	/**
+	 * These accessor methods return how many bytes every loop has read and
+	 * written. They are only exact once the game server has stopped.
+	 */
+	public long getBytesRead() {
+		long bytes = 0;
+		for (Loop loop : _loops) {
+			bytes += loop._bytesRead;
+		}
+		return bytes;
+	}
+
+	public long getBytesWritten() {
+		long bytes = 0;
+		for (Loop loop : _loops) {
+			bytes += loop._bytesWritten;
+		}
+		return bytes;
+	}
+
+	/**
+	 * A loop is one shard's selector and the connections on it. Everything
+	 * in it but the queue of joining connections is only used on the shard's
+	 * thread.
+	 */
+	private class Loop implements TickWaiter {
+
+		private int _shard;
+		private Selector _selector;
+		private Queue<SocketChannel> _joining;
+		private List<Connection> _flushing; // whose outboxes have something
+		private List<Connection> _acking; // who were read from since a tick
+		private long _bytesRead;
+		private long _bytesWritten;
+
+		private Loop(int shard) throws IOException {
+			_shard = shard;
+			_selector = Selector.open();
+			_joining = new ConcurrentLinkedQueue<SocketChannel>();
+			_flushing = new ArrayList<Connection>();
+			_acking = new ArrayList<Connection>();
+		}
+
+		/**
+		 * Registers the connections that joined, writes the outboxes of the
+		 * connections that were sent anything and then waits on the
+		 * selector until the deadline, reading whatever comes in. The
+		 * selector can only wait whole milliseconds, so the last one is
+		 * parked away.
+		 */
+		@Override
+		public void waitUntil(long deadline) {
+			try {
+				SocketChannel joining = _joining.poll();
+				while (joining != null) {
+					Connection connection = new Connection(this, joining);
+					connection._key = joining.register(_selector,
+							SelectionKey.OP_READ, connection);
+					joining = _joining.poll();
+				}
+				this.flush();
+				long wait = deadline - System.nanoTime();
+				if (wait >= 1000000) {
+					_selector.select(wait / 1000000);
+				} else {
+					_selector.selectNow();
+				}
+				Iterator<SelectionKey> keys = _selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						this.accept();
+					} else {
+						this.handle((Connection) key.attachment(), key);
+					}
+				}
+				wait = deadline - System.nanoTime();
+				if (wait > 0 && wait < 1000000) {
+					LockSupport.parkNanos(wait);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		/**
+		 * Reads from and writes to a connection the selector picked. Whatever
+		 * goes wrong with one connection only closes that one, so it can
+		 * never stop the shard.
+		 */
+		private void handle(Connection connection, SelectionKey key) {
+			try {
+				if (key.isReadable()) {
+					connection.read();
+				}
+				if (key.isValid() && key.isWritable()) {
+					connection.flush();
+				}
+			} catch (RuntimeException e) {
+				System.err.println("closing a connection: " + e);
+				connection.close();
+			}
+		}
+
+		@Override
+		public void wake() {
+			_selector.wakeup();
+		}
+
+		/**
+		 * Acks the inputs of every connection that was read from and has had
+		 * a step since without sending a delta, then writes every outbox
+		 * with something in it.
+		 */
+		private void flush() {
+			for (int i = 0; i < _acking.size(); i++) {
+				Connection connection = _acking.get(i);
+				if (connection.ack()) {
+					connection._acking = false;
+					_acking.set(i--, _acking.get(_acking.size() - 1));
+					_acking.remove(_acking.size() - 1);
+				}
+			}
+			for (Connection connection : _flushing) {
+				connection._flushing = false;
+				connection.flush();
+			}
+			_flushing.clear();
+		}
+
+		/**
+		 * Takes every connection that is waiting and hands each to the next
+		 * loop in turn.
+		 */
+		private void accept() throws IOException {
+			SocketChannel channel = _acceptor.accept();
+			while (channel != null) {
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				Loop loop = _loops[_accepted++ % _loops.length];
+				loop._joining.add(channel);
+				if (loop != this) {
+					loop._selector.wakeup();
+				}
+				channel = _acceptor.accept();
+			}
+		}
+	}
+
+	/**
+	 * A connection is one client's socket, its game and the buffers for
+	 * both ways. It is the delta listener of its session, which the shard
+	 * calls on the same thread that reads the socket.
+	 */
+	private class Connection implements DeltaListener {
+
+		private Loop _loop;
+		private SocketChannel _channel;
+		private SelectionKey _key;
+		private ByteBuffer _inbox;
+		private ByteBuffer _outbox;
+		private Session _session;
+		private int _read; // the number of the last input read
+		private long _readStep; // the game's step when it was read
+		private int _acked; // the number of the last input acked
+		private boolean _flushing;
+		private boolean _acking;
+		private boolean _closed;
+
+		private Connection(Loop loop, SocketChannel channel) {
+			_loop = loop;
+			_channel = channel;
+			_inbox = ByteBuffer.allocate(4 * WireProtocol.MAX_OPEN_SIZE);
+			_outbox = ByteBuffer.allocate(OUTBOX_SIZE);
+		}
+
+		/**
+		 * Reads what the socket has and handles every whole frame in it.
+		 * Anything the protocol doesn't allow closes the connection.
+		 */
+		private void read() {
+			int count;
+			try {
+				count = _channel.read(_inbox);
+			} catch (IOException e) {
+				count = -1;
+			}
+			if (count < 0) {
+				this.close();
+				return;
+			}
+			_loop._bytesRead += count;
+			_inbox.flip();
+			int size = WireProtocol.getFrameSize(_inbox);
+			while (size > 0 && !_closed) {
+				if (!WireProtocol.isWellFormed(_inbox, size)) {
+					this.close();
+					return;
+				}
+				this.handle(_inbox);
+				_inbox.position(_inbox.position() + size);
+				size = WireProtocol.getFrameSize(_inbox);
+			}
+			_inbox.compact();
+			if (_inbox.remaining() == 0) {
+				// a frame bigger than a client ever sends
+				this.close();
+			}
+		}
+
+		private void handle(ByteBuffer frame) {
+			int kind = WireProtocol.getKind(frame);
+			if (kind == WireProtocol.OPEN && _session == null) {
+				try {
+					_session = _server.open(_loop._shard,
+							WireProtocol.getGenerator(frame),
+							WireProtocol.getSeed(frame), this);
+				} catch (IllegalArgumentException e) {
+					this.close(); // no such generator
+					return;
+				}
+				_sessions.put(_session.getId(), _session);
+				WireProtocol.writeWelcome(_outbox, _session.getId());
+				this.willFlush();
+			} else if (kind == WireProtocol.INPUT && _session != null) {
+				_session.submit(WireProtocol.getCommand(frame));
+				if (!_acking) {
+					_acking = true;
+					_loop._acking.add(this);
+				}
+				_read = WireProtocol.getNumber(frame);
+				_readStep = _session.getEngine().getSteps();
+			} else {
+				this.close();
+			}
+		}
+
+		/**
+		 * Puts the delta in the outbox with the number of the last input
+		 * read, which the step has seen.
+		 */
+		@Override
+		public void delta(int game, ByteBuffer delta) {
+			if (_closed) {
+				return;
+			}
+			if (_outbox.remaining() < WireProtocol.HEADER_SIZE + 4
+					+ delta.remaining()) {
+				this.close(); // the client isn't keeping up
+				return;
+			}
+			WireProtocol.writeDelta(_outbox, _read, delta);
+			_acked = _read;
+			this.willFlush();
+		}
+
+		/**
+		 * Sends an ACK if the game has taken a step since the last input was
+		 * read and no delta has said so. Returns whether nothing is left to
+		 * ack.
+		 */
+		private boolean ack() {
+			if (_closed || _acked == _read) {
+				return true;
+			}
+			if (_session.isFinished()
+					|| _session.getEngine().getSteps() == _readStep) {
+				return _session.isFinished();
+			}
+			if (_outbox.remaining() < WireProtocol.ACK_SIZE) {
+				this.close();
+				return true;
+			}
+			WireProtocol.writeAck(_outbox, _read);
+			_acked = _read;
+			this.willFlush();
+			return true;
+		}
+
+		private void willFlush() {
+			if (!_flushing) {
+				_flushing = true;
+				_loop._flushing.add(this);
+			}
+		}
+
+		/**
+		 * Writes as much of the outbox as the socket takes, and asks to be
+		 * told when it can take more if some is left.
+		 */
+		private void flush() {
+			if (_closed || _outbox.position() == 0) {
+				return;
+			}
+			_outbox.flip();
+			try {
+				_loop._bytesWritten += _channel.write(_outbox);
+			} catch (IOException e) {
+				_outbox.clear();
+				this.close();
+				return;
+			}
+			_outbox.compact();
+			_key.interestOps(_outbox.position() > 0 ? SelectionKey.OP_READ
+					| SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+		}
+
+		private void close() {
+			if (_closed) {
+				return;
+			}
+			_closed = true;
+			if (_session != null) {
+				_session.close();
+				_sessions.remove(_session.getId());
+			}
+			if (_key != null) {
+				_key.cancel();
+			}
+			try {
+				_channel.close();
+			} catch (IOException e) {
+				// it's closed either way
+			}
+		}
+	}
+
+	/**
+	 * A client is what the main line plays every game with over the
+	 * loopback. It presses a random key now and then like the game server's
+	 * clients, keeps a game view of its game from the deltas, and remembers
+	 * when it sent every input so the time until the server acks it is a
+	 * round trip through the socket, the shard's next step and back.
+	 */
+	private static class Client {
+
+		private static final int SENT_TIMES = 64; // a power of two
+
+		private static final LongAdder DELTAS = new LongAdder();
+		private static final LongAdder BYTES_READ = new LongAdder();
+		private static final LongAdder BYTES_WRITTEN = new LongAdder();
+		private static final LongAdder INPUTS = new LongAdder();
+		private static final Histogram ROUND_TRIPS = new Histogram("round trip");
+
+		private SocketChannel _channel;
+		private ByteBuffer _inbox;
+		private ByteBuffer _outbox;
+		private GameView _view;
+		private int _game;
+		private int _sequence;
+		private int _acked;
+		private long[] _sentAt;
+
+		/**
+		 * The constructor connects to the server and opens a game.
+		 */
+		private Client(Selector selector, InetSocketAddress address, long seed)
+				throws IOException {
+			_channel = SocketChannel.open(address);
+			_channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			_channel.configureBlocking(false);
+			_channel.register(selector, SelectionKey.OP_READ, this);
+			_inbox = ByteBuffer.allocate(4 * WireProtocol.MAX_DELTA_SIZE);
+			_outbox = ByteBuffer.allocate(WireProtocol.MAX_OPEN_SIZE);
+			_view = new GameView();
+			_game = -1;
+			_sentAt = new long[SENT_TIMES];
+			WireProtocol.writeOpen(_outbox, PieceGenerator.UNIFORM, seed);
+			this.flush();
+		}
+
+		private void press(SplittableRandom random, long now)
+				throws IOException {
+			int command = random.nextInt(10);
+			if (command < 4) {
+				// a shift, let go of straight away
+				int shift = command < 2 ? InputQueue.LEFT : InputQueue.RIGHT;
+				this.input(shift, now);
+				this.input(shift + InputQueue.RELEASED, now);
+			} else if (command < 9) {
+				this.input(InputQueue.ROTATE, now);
+			} else {
+				this.input(InputQueue.DROP, now);
+			}
+			this.flush();
+		}
+
+		private void input(int command, long now) {
+			_sequence++;
+			_sentAt[_sequence & (SENT_TIMES - 1)] = now;
+			WireProtocol.writeInput(_outbox, command, _sequence);
+			INPUTS.increment();
+		}
+
+		private void flush() throws IOException {
+			_outbox.flip();
+			BYTES_WRITTEN.add(_channel.write(_outbox));
+			_outbox.compact();
+		}
+
+		/**
+		 * Reads what the socket has and handles every whole frame in it.
+		 * Returns false if the server closed the connection.
+		 */
+		private boolean read(long now) throws IOException {
+			int count = _channel.read(_inbox);
+			if (count < 0) {
+				return false;
+			}
+			BYTES_READ.add(count);
+			_inbox.flip();
+			int size = WireProtocol.getFrameSize(_inbox);
+			while (size > 0) {
+				int start = _inbox.position();
+				int kind = WireProtocol.getKind(_inbox);
+				if (kind == WireProtocol.WELCOME) {
+					_game = WireProtocol.getNumber(_inbox);
+				} else {
+					this.ack(WireProtocol.getNumber(_inbox), now);
+				}
+				if (kind == WireProtocol.DELTA) {
+					DELTAS.increment();
+					_inbox.position(start + WireProtocol.HEADER_SIZE + 4);
+					_view.apply(_inbox);
+				}
+				_inbox.position(start + size);
+				size = WireProtocol.getFrameSize(_inbox);
+			}
+			_inbox.compact();
+			return true;
+		}
+
+		private void ack(int sequence, long now) {
+			if (sequence != _acked) {
+				_acked = sequence;
+				ROUND_TRIPS.record(now - _sentAt[sequence & (SENT_TIMES - 1)]);
+			}
+		}
+
+		private boolean isFinished() {
+			return _view.isGameOver();
+		}
+
+		private void close() throws IOException {
+			_channel.close();
+		}
+	}
+
+	/**
+	 * This is the main line of the network server. It starts a game server
+	 * and a network server on the loopback and plays the given number of
+	 * games on them over TCP for the given number of seconds, with a client
+	 * for every game pressing a key a few times a second (PRESSES_PER_SECOND)
+	 * and a new game started whenever one ends. Then it prints how many bytes
+	 * went each way for every second of every game, how long inputs took to
+	 * come back, and whether every client's view ended up the same as its
+	 * game. Before the games stop it also sends every one of the wire
+	 * protocol's MALFORMED frames on connections of their own and prints how many of those
+	 * connections the server closed and whether every shard kept ticking.
+	 * The arguments are the number of games, shards and seconds and the
+	 * seed, and all of them can be left off from the end.
+	 */
+	public static void main(String[] argv) throws IOException,
+			InterruptedException {
+		int games = argv.length > 0 ? Integer.parseInt(argv[0]) : 1000;
+		int shards = argv.length > 1 ? Integer.parseInt(argv[1]) : Runtime
+				.getRuntime().availableProcessors();
+		int seconds = argv.length > 2 ? Integer.parseInt(argv[2]) : 10;
+		long seed = argv.length > 3 ? Long.parseLong(argv[3]) : 0;
+		GameServer server = new GameServer(shards, 10, 2);
+		NetServer net = new NetServer(server, new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), 0));
+		InetSocketAddress address = net.getAddress();
+		server.start();
+
+		Selector selector = Selector.open();
+		Client[] clients = new Client[games];
+		int opened = 0;
+		for (int game = 0; game < games; game++) {
+			clients[game] = new Client(selector, address,
+					BatchSimulator.getGameSeed(seed, opened++));
+		}
+		SplittableRandom random = new SplittableRandom(seed);
+		long start = System.nanoTime();
+		long end = start + seconds * 1000000000L;
+		long nextLook = start;
+		long finished = 0;
+		long now = start;
+		while (now < end) {
+			NetServer.readClients(selector, 1);
+			now = System.nanoTime();
+			if (now < nextLook) {
+				continue;
+			}
+			nextLook += 1000000000L / LOOKS_PER_SECOND;
+			for (int game = 0; game < games; game++) {
+				Client client = clients[game];
+				if (client.isFinished()) {
+					finished++;
+					client.close();
+					clients[game] = new Client(selector, address,
+							BatchSimulator.getGameSeed(seed, opened++));
+				} else if (random.nextInt(LOOKS_PER_SECOND) < PRESSES_PER_SECOND) {
+					client.press(random, now);
+				}
+			}
+		}
+		int closed = 0;
+		for (int shard = 0; shard < shards; shard++) {
+			for (byte[] frame : WireProtocol.MALFORMED) {
+				if (NetServer.isClosedAfter(address, frame)) {
+					closed++;
+				}
+			}
+		}
+		long[] ticks = new long[shards];
+		for (int shard = 0; shard < shards; shard++) {
+			ticks[shard] = server.getTicks(shard);
+		}
+		Thread.sleep(100);
+		boolean ticking = true;
+		for (int shard = 0; shard < shards; shard++) {
+			ticking &= server.getTicks(shard) > ticks[shard];
+		}
+		// let the last inputs come back, then stop the games and read
+		// everything the server still has to send
+		long settle = System.nanoTime() + 200000000L;
+		while (System.nanoTime() < settle) {
+			NetServer.readClients(selector, 10);
+		}
+		server.stop();
+		boolean more = true;
+		while (more) {
+			int waiting = net.flush();
+			more = NetServer.readClients(selector, 50) || waiting > 0;
+		}
+
+		System.out.printf("%d games on %d shards over the loopback for %d s, %d finished%n",
+				games, shards, seconds, finished);
+		double gameSeconds = (double) games * seconds;
+		long read = Client.BYTES_READ.sum();
+		long deltas = Client.DELTAS.sum();
+		long written = Client.BYTES_WRITTEN.sum();
+		System.out.printf("down: %d bytes, %d deltas, %.1f bytes a game second (%.1f a delta)%n",
+				read, deltas, read / gameSeconds, read
+						/ (double) Math.max(1, deltas));
+		System.out.printf("up: %d bytes, %d inputs, %.1f bytes a game second%n",
+				written, Client.INPUTS.sum(), written / gameSeconds);
+		System.out.printf("server read %d and wrote %d bytes%n",
+				net.getBytesRead(), net.getBytesWritten());
+		Histogram trips = Client.ROUND_TRIPS;
+		System.out.printf("round trips %d: p50 %.3f ms, p99 %.3f ms, p999 %.3f ms, max %.3f ms%n",
+				trips.getCount(), trips.getMedianMillis(), trips.getP99Millis(),
+				trips.getP999Millis(), trips.getMaxMillis());
+		int inSync = 0;
+		for (Client client : clients) {
+			Session session = net.getSession(client._game);
+			if (session != null && client._view.isCopyOf(session.getEngine())) {
+				inSync++;
+			}
+		}
+		System.out.printf("views in sync with their games: %d of %d%n", inSync,
+				games);
+		System.out.printf("malformed frames closed %d of %d connections, shards still ticking: %b%n",
+				closed, shards * WireProtocol.MALFORMED.length, ticking);
+		for (Client client : clients) {
+			client.close();
+		}
+		net.close();
+	}
+
+	/**
+	 * Connects to the server, sends the bytes and returns whether the server
+	 * closed the connection within a second.
+	 */
+	private static boolean isClosedAfter(InetSocketAddress address, byte[] bytes)
+			throws IOException {
+		try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+			socket.setSoTimeout(1000);
+			socket.getOutputStream().write(bytes);
+			return socket.getInputStream().read() < 0;
+		} catch (SocketTimeoutException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Waits up to the given number of milliseconds for any client to have
+	 * something to read and reads it all. Returns whether there was
+	 * anything.
+	 */
+	private static boolean readClients(Selector selector, long millis)
+			throws IOException {
+		if (selector.select(millis) == 0) {
+			return false;
+		}
+		long now = System.nanoTime();
+		for (SelectionKey key : selector.selectedKeys()) {
+			if (key.isValid() && !((Client) key.attachment()).read(now)) {
+				key.cancel();
+			}
+		}
+		selector.selectedKeys().clear();
+		return true;
+	}
+
+}
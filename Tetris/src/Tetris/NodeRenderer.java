@@ -0,0 +1,171 @@
+package Tetris;
+
+import javafx.scene.layout.Pane;
+
+/**
+ * The node renderer draws the engine's board with a fixed set of squares. One
+ * TetrisSquare is made for every square of the viewport, frame included, when
+ * the renderer is made, and after that no square is ever added to or removed
+ * from the gamePane: an empty square is just hidden and a filled one is shown
+ * in the color of its piece. The falling piece is drawn by the one Piece the
+ * renderer owns, and a see-through ghost piece behind it shows where it will
+ * land. The game doesn't draw anything itself when the engine changes;
+ * the render method is called once per frame with the latest game frame and
+ * only looks at the rows that have changed since the last frame it drew, so
+ * a clear that moves twenty rows down is drawn in one pass instead of once
+ * per line. Only the part of
+ * the board in the viewport has squares, so a huge board has no more nodes
+ * than fit on the screen; when the viewport moves, every square is given
+ * whatever is now under it.
+ */
+public class NodeRenderer implements Renderer {
+
+	private static final double GHOST_OPACITY = 0.3;
+
+	private Pane _gamePane;
+	private Viewport _viewport;
+	private TetrisSquare[][] _squares;
+	private byte[][] _drawnKinds; // what each square was last drawn as
+	private BoardSnapshot _lastBoard; // the board of the last frame drawn
+	private Piece _piece;
+	private Piece _ghost;
+	private int _pieceKind;
+	private int _pieceOrientation;
+	private int _pieceCol;
+	private int _pieceRow;
+	private int _ghostRow; // the row the ghost's pivot was drawn on
+
+	/**
+	 * The constructor makes every square of the viewport and the piece and
+	 * adds them to the gamePane all at once.
+	 */
+	public NodeRenderer(Pane gamePane, Viewport viewport) {
+		_gamePane = gamePane;
+		_viewport = viewport;
+		int cols = viewport.getCols();
+		int rows = viewport.getRows();
+		_squares = new TetrisSquare[cols][rows];
+		_drawnKinds = new byte[cols][rows];
+		TetrisSquare[] all = new TetrisSquare[cols * rows];
+		for (int col = 0; col < cols; col++) {
+			for (int row = 0; row < rows; row++) {
+				TetrisSquare square = new TetrisSquare();
+				square.setLocation(col * Constants.SQUARE_SIZE, row
+						* Constants.SQUARE_SIZE);
+				square.setVisible(false);
+				_squares[col][row] = square;
+				_drawnKinds[col][row] = Board.EMPTY;
+				all[col * rows + row] = square;
+			}
+		}
+		_gamePane.getChildren().addAll(all);
+		_ghost = new Piece(_gamePane);
+		_ghost.setOpacity(GHOST_OPACITY);
+		_piece = new Piece(_gamePane);
+		_pieceKind = Board.EMPTY;
+		_ghostRow = -1;
+	}
+
+	/**
+	 * Moves the viewport to the piece and draws every row in it, which is
+	 * needed the first time the board is drawn.
+	 */
+	@Override
+	public void renderAll(GameFrame frame) {
+		_viewport.follow(frame);
+		this.renderViewport(frame);
+	}
+
+	private void renderViewport(GameFrame frame) {
+		_lastBoard = null;
+		this.renderRows(frame.getBoard());
+		_pieceCol = -1; // so the piece is moved even if it hasn't
+		this.renderPiece(frame);
+	}
+
+	/**
+	 * This is called once per frame. It draws the rows that changed since
+	 * the last frame it drew and moves the piece if it moved. If the
+	 * viewport had to move to keep up with the piece, every row in it is
+	 * drawn.
+	 */
+	@Override
+	public void render(GameFrame frame) {
+		if (_viewport.follow(frame)) {
+			this.renderViewport(frame);
+			return;
+		}
+		this.renderRows(frame.getBoard());
+		this.renderPiece(frame);
+	}
+
+	/**
+	 * Goes through the squares of every row in the viewport that isn't the
+	 * same as in the last board drawn, and only touches a square if the kind
+	 * of piece in it is different from what it was last drawn as.
+	 */
+	private void renderRows(BoardSnapshot board) {
+		int firstCol = _viewport.getFirstCol();
+		int firstRow = _viewport.getFirstRow();
+		for (int row = firstRow; row < firstRow + _viewport.getRows(); row++) {
+			if (board.isSameRow(_lastBoard, row)) {
+				continue;
+			}
+			for (int col = 0; col < _viewport.getCols(); col++) {
+				int kind = board.getKind(firstCol + col, row);
+				if (kind != _drawnKinds[col][row - firstRow]) {
+					TetrisSquare square = _squares[col][row - firstRow];
+					if (kind == Board.EMPTY) {
+						square.setVisible(false);
+					} else {
+						square.setFill(Piece.getColor(kind));
+						square.setVisible(true);
+					}
+					_drawnKinds[col][row - firstRow] = (byte) kind;
+				}
+			}
+		}
+		_lastBoard = board;
+	}
+
+	/**
+	 * Colors the piece if the engine made a new kind of piece and moves it if
+	 * it is a new kind or the engine's piece moved or rotated. The ghost goes
+	 * wherever the frame says the piece would land, which the engine works
+	 * out from the column tops, so it costs next to nothing to move with the
+	 * piece. It is moved again whenever where the piece would land changes,
+	 * even if the piece hasn't moved, since a line clear or garbage can
+	 * change the board under it. Both are hidden once the game is over.
+	 */
+	private void renderPiece(GameFrame frame) {
+		if (frame.isGameOver()) {
+			_piece.setVisible(false);
+			_ghost.setVisible(false);
+			return;
+		}
+		if (frame.getKind() != _pieceKind) {
+			_pieceKind = frame.getKind();
+			_piece.setKind(_pieceKind);
+			_ghost.setKind(_pieceKind);
+			// several kinds start at the same pivot but have their squares in
+			// other places, so a new kind is always moved
+			_pieceCol = -1;
+		}
+		if (frame.getOrientation() != _pieceOrientation
+				|| frame.getPivotCol() != _pieceCol
+				|| frame.getPivotRow() != _pieceRow) {
+			_pieceOrientation = frame.getOrientation();
+			_pieceCol = frame.getPivotCol();
+			_pieceRow = frame.getPivotRow();
+			_piece.setLocations(frame, 0, _viewport);
+			_ghostRow = -1;
+		}
+		// the board under the piece can change while the piece stays put
+		int ghostRow = frame.getPivotRow() + frame.getDropDistance();
+		if (ghostRow != _ghostRow) {
+			_ghostRow = ghostRow;
+			_ghost.setLocations(frame, frame.getDropDistance(), _viewport);
+		}
+	}
+
+}
@@ -1,28 +1,60 @@
 package Tetris;
 
+import javafx.geometry.Insets;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
 
 public class PaneOrganizer {
 
+	private static final int VERSUS_SPACING = 10; // pixels between boards
+
 	private BorderPane _borderPane;
-	private Game _game;
+	private Game[] _games;
 
 	/**
 	 * The paneorganizer class contains the game class. It also creates the
 	 * borderpane that lays out the gamepane and bottompane which are retrieved
 	 * from the game class. The getBorderPane method is a very important method
-	 * that is an accessor method that returns the borderpane to the app.
+	 * that is an accessor method that returns the borderpane to the app. The
+	 * settings the app was started with are passed on to the game. The
+	 * borderpane is as big as the part of the board the game draws. In a
+	 * versus game there is a game for every board, each laid out the same way
+	 * in a borderpane of its own, in a row in the middle of the borderpane.
 	 */
-	public PaneOrganizer() {
+	public PaneOrganizer(Settings settings) {
 		_borderPane = new BorderPane();
 		_borderPane.setStyle("-fx-background-color: white;");
-		_borderPane.setPrefSize(14 * Constants.SQUARE_SIZE,
-				28 * Constants.SQUARE_SIZE);
+		_games = new Game[settings.getPlayers()];
+		if (_games.length == 1) {
+			_games[0] = new Game(settings);
+			this.layOut(_borderPane, _games[0]);
+			return;
+		}
+		Versus versus = new Versus(_games.length, settings.getSeed());
+		HBox boards = new HBox(VERSUS_SPACING);
+		boards.setPadding(new Insets(VERSUS_SPACING));
+		for (int player = 0; player < _games.length; player++) {
+			// every board listens for its keys on the borderpane
+			_games[player] = new Game(settings, versus, player, _borderPane);
+			BorderPane board = new BorderPane();
+			this.layOut(board, _games[player]);
+			boards.getChildren().add(board);
+		}
+		_borderPane.setCenter(boards);
+	}
+
+	/**
+	 * Puts a game's gamePane in the middle of the borderpane and its
+	 * bottomPane below it, with room for both.
+	 */
+	private void layOut(BorderPane borderPane, Game game) {
+		Viewport viewport = game.getViewport();
+		borderPane.setPrefSize(viewport.getWidth(), viewport.getHeight() + 4
+				* Constants.SQUARE_SIZE);
 		// includes space for bottomPane
-		_game = new Game();
-		_borderPane.setCenter(_game.getGamePane());
-		_borderPane.setBottom(_game.makeBottomPane());
+		borderPane.setCenter(game.getGamePane());
+		borderPane.setBottom(game.makeBottomPane());
 	}
 
 	/**
@@ -32,4 +64,14 @@ public class PaneOrganizer {
 	public Pane getBorderPane() {
 		return _borderPane;
 	}
+
+	/**
+	 * This method is called by the app when it is closed, so the games can
+	 * finish anything they are writing.
+	 */
+	public void stop() {
+		for (Game game : _games) {
+			game.stop();
+		}
+	}
 }
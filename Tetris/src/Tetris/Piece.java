@@ -1,146 +1,102 @@
 package Tetris;
 
+import javafx.scene.layout.Pane;
 import javafx.scene.paint.Color;
 
 /**
- * This piece class is instantiated by the game class. It is a composite shape
- * composed of four squares: each piece is represented by a different
- * configuration of the four different squares with a different color. It takes
- * in the numbers that the makeNewPiece method passes it (a switch randomly
- * selects which piece and the correct positions of the individual square's x
- * and y are passed in). It then adds all of the squares to the gamePane.
+ * This piece class is instantiated by the renderer. It is a composite shape
+ * composed of four squares that draws the piece the engine is dropping: each
+ * kind of piece has a different color. The piece doesn't decide anything about
+ * where it can go; the engine does that and the renderer tells the piece to
+ * move its squares to wherever the engine's piece is now. The node renderer
+ * makes two pieces, the falling piece and its see-through ghost, and keeps
+ * them for the whole game: when the engine makes a new piece the same four
+ * squares of each are just given its color and moved, so no new squares are
+ * added to the gamePane.
  */
 public class Piece {
 
+	// the color of each kind of piece, in the order the engine numbers them
+	private static final Color[] COLORS = { Color.PURPLE, Color.PINK,
+			Color.ORANGE, Color.YELLOW, Color.GREEN, Color.TEAL, Color.BLUE };
+
 	private TetrisSquare _square1;
 	private TetrisSquare _square2;
 	private TetrisSquare _square3;
 	private TetrisSquare _square4;
 
 	/**
-	 * The constructor takes in all the values of x and y for all of its squares
-	 * as arguments to its parameters. Although this is a long list, I thought
-	 * storing these in an array that gets passed in as an argument was a much
-	 * more complicated design so I have them all just plugged into the
-	 * constructor. The color gets passed in too. This also makes checking if
-	 * the piece can be made easier for the game class too!
+	 * The constructor makes the four squares and adds them to the gamePane.
+	 * They get a color and a location the first time the renderer draws the
+	 * engine's piece.
 	 */
-	public Piece(Game game, int x1, int y1, int x2, int y2, int x3, int y3,
-			int x4, int y4, Color color) {
+	public Piece(Pane gamePane) {
 		_square1 = new TetrisSquare();
 		_square2 = new TetrisSquare();
 		_square3 = new TetrisSquare();
 		_square4 = new TetrisSquare();
-		_square1.setFill(color);
-		_square2.setFill(color);
-		_square3.setFill(color);
-		_square4.setFill(color);
-		_square1.setLocation(x1 * Constants.SQUARE_SIZE, y1
-				* Constants.SQUARE_SIZE);
-		_square2.setLocation(x2 * Constants.SQUARE_SIZE, y2
-				* Constants.SQUARE_SIZE);
-		_square3.setLocation(x3 * Constants.SQUARE_SIZE, y3
-				* Constants.SQUARE_SIZE);
-		_square4.setLocation(x4 * Constants.SQUARE_SIZE, y4
-				* Constants.SQUARE_SIZE);
-		game.getGamePane().getChildren()
-				.addAll(_square1, _square2, _square3, _square4);
+		gamePane.getChildren().addAll(_square1, _square2, _square3, _square4);
 	}
 
 	/**
-	 * These accessor methods return the individual squares instantiated by the
-	 * piece so that their specific X and Y values can be accessed to calculate
-	 * and carry out position changes and so that the squares can be added to
-	 * the array of squares once the piece is no longer falling.
+	 * Colors all four squares the color of the given kind of piece.
 	 */
-	public TetrisSquare getSquare1() {
-		return _square1;
-	}
-
-	public TetrisSquare getSquare2() {
-		return _square2;
-	}
-
-	public TetrisSquare getSquare3() {
-		return _square3;
-	}
-
-	public TetrisSquare getSquare4() {
-		return _square4;
+	public void setKind(int kind) {
+		Color color = Piece.getColor(kind);
+		_square1.setFill(color);
+		_square2.setFill(color);
+		_square3.setFill(color);
+		_square4.setFill(color);
 	}
 
 	/**
-	 * The rotate method uses the math provided in the Tetris handout to
-	 * implement rotation about the third square instantiated for each piece.
-	 * Although the square piece could rotate, its rotation looks awkward so the
-	 * gameClass restricts use of rotation to all other pieces.
+	 * Shows or hides all four squares, for when there is no piece to draw.
 	 */
-	public void rotate() {
-		_square1.setLocation(
-				_square3.getX() - _square3.getY() + _square1.getY(),
-				_square3.getY() + _square3.getX() - _square1.getX());
-		_square2.setLocation(
-				_square3.getX() - _square3.getY() + _square2.getY(),
-				_square3.getY() + _square3.getX() - _square2.getX());
-		_square4.setLocation(
-				_square3.getX() - _square3.getY() + _square4.getY(),
-				_square3.getY() + _square3.getX() - _square4.getX());
-
+	public void setVisible(boolean visible) {
+		_square1.setVisible(visible);
+		_square2.setVisible(visible);
+		_square3.setVisible(visible);
+		_square4.setVisible(visible);
 	}
 
 	/**
-	 * The shiftLeft method simply sets the location of every square in the
-	 * piece to be equal to the same Y position that it was at (uses accessor)
-	 * and the X-position minus the length of a square to shift the piece over
-	 * to the left by one square unit. Checking move validity is carried out by
-	 * the gameClass, which knows about the array of existing squares.
+	 * Returns the color squares of the given kind of piece are drawn in. The
+	 * frame and anything that isn't a piece is dark grey.
 	 */
-	public void shiftLeft() {
-		_square1.setLocation(_square1.getX() - Constants.SQUARE_SIZE,
-				_square1.getY());
-		_square2.setLocation(_square2.getX() - Constants.SQUARE_SIZE,
-				_square2.getY());
-		_square3.setLocation(_square3.getX() - Constants.SQUARE_SIZE,
-				_square3.getY());
-		_square4.setLocation(_square4.getX() - Constants.SQUARE_SIZE,
-				_square4.getY());
+	public static Color getColor(int kind) {
+		if (kind < 0 || kind >= COLORS.length) {
+			return Color.DARKGREY;
+		}
+		return COLORS[kind];
 	}
 
 	/**
-	 * The shiftRight method sets the location of every square in the piece to
-	 * be equal to the same Y position that it was at (uses accessor) and the
-	 * X-position plus the length of a square to shift the piece over to the
-	 * left by one square unit. Checking move validity is carried out by the
-	 * gameClass, which knows about the array of existing squares.
+	 * Makes all four squares see-through by the given amount, which is how the
+	 * ghost piece is drawn.
 	 */
-	public void shiftRight() {
-		_square1.setLocation(_square1.getX() + Constants.SQUARE_SIZE,
-				_square1.getY());
-		_square2.setLocation(_square2.getX() + Constants.SQUARE_SIZE,
-				_square2.getY());
-		_square3.setLocation(_square3.getX() + Constants.SQUARE_SIZE,
-				_square3.getY());
-		_square4.setLocation(_square4.getX() + Constants.SQUARE_SIZE,
-				_square4.getY());
+	public void setOpacity(double opacity) {
+		_square1.setOpacity(opacity);
+		_square2.setOpacity(opacity);
+		_square3.setOpacity(opacity);
+		_square4.setOpacity(opacity);
 	}
 
 	/**
-	 * Similar to the shiftSideways methods, the dropDown method sets the
-	 * location of every square in the piece to be equal to the same X position
-	 * that it was at (uses accessor) and the Y-position plus the length of a
-	 * square to shift the piece over to the left by one square unit. Checking
-	 * move validity is carried out by the gameClass, which knows about the
-	 * array of existing squares.
+	 * Moves every square to the matching square of the frame's piece moved
+	 * down by the given number of rows, which is zero for the piece itself
+	 * and how far it would drop for the ghost piece. Where a square goes on
+	 * the gamePane depends on where the viewport is. This is called after the
+	 * engine shifts, rotates or drops its piece.
 	 */
-	public void dropDown() {
-		_square1.setLocation(_square1.getX(), _square1.getY()
-				+ Constants.SQUARE_SIZE);
-		_square2.setLocation(_square2.getX(), _square2.getY()
-				+ Constants.SQUARE_SIZE);
-		_square3.setLocation(_square3.getX(), _square3.getY()
-				+ Constants.SQUARE_SIZE);
-		_square4.setLocation(_square4.getX(), _square4.getY()
-				+ Constants.SQUARE_SIZE);
+	public void setLocations(GameFrame frame, int rows, Viewport viewport) {
+		_square1.setLocation(viewport.getX(frame.getCol(0)),
+				viewport.getY(frame.getRow(0) + rows));
+		_square2.setLocation(viewport.getX(frame.getCol(1)),
+				viewport.getY(frame.getRow(1) + rows));
+		_square3.setLocation(viewport.getX(frame.getCol(2)),
+				viewport.getY(frame.getRow(2) + rows));
+		_square4.setLocation(viewport.getX(frame.getCol(3)),
+				viewport.getY(frame.getRow(3) + rows));
 	}
 
 }
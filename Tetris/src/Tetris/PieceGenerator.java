@@ -0,0 +1,37 @@
+package Tetris;
+
+/**
+ * A piece generator decides which kind of piece comes next. Every engine has
+ * its own generator started from a seed, so the same seed always gives the
+ * same pieces and generators on different threads never share anything.
+ * Picking a piece never makes a new object. The create method makes one of
+ * the generators by name: UNIFORM picks every piece at random like the game
+ * always has, BAG deals all seven pieces in a shuffled order before dealing
+ * them again, and HISTORY tries not to repeat any of the last four pieces.
+ */
+public interface PieceGenerator {
+
+	public static final String UNIFORM = "uniform";
+	public static final String BAG = "bag";
+	public static final String HISTORY = "history";
+
+	/**
+	 * Returns the kind of the next piece.
+	 */
+	public int next();
+
+	/**
+	 * Makes the generator with the given name started from the seed.
+	 */
+	public static PieceGenerator create(String name, long seed) {
+		if (BAG.equals(name)) {
+			return new BagGenerator(seed);
+		} else if (HISTORY.equals(name)) {
+			return new HistoryGenerator(seed);
+		} else if (UNIFORM.equals(name)) {
+			return new UniformGenerator(seed);
+		}
+		throw new IllegalArgumentException("no piece generator called " + name);
+	}
+
+}
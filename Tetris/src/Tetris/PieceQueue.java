@@ -0,0 +1,53 @@
+package Tetris;
+
+/**
+ * The piece queue keeps the next few pieces a generator will give, so the game
+ * can show what is coming and a policy can plan ahead. It is a ring buffer that
+ * is always full: taking the next piece out of it asks the generator for one
+ * more to put at the back, so nothing is ever made while a game is played.
+ */
+public class PieceQueue {
+
+	private PieceGenerator _generator;
+	private int[] _pieces;
+	private int _head; // where in the ring the next piece is
+
+	/**
+	 * The constructor fills the queue with the first size pieces of the
+	 * generator.
+	 */
+	public PieceQueue(PieceGenerator generator, int size) {
+		_generator = generator;
+		_pieces = new int[size];
+		for (int i = 0; i < size; i++) {
+			_pieces[i] = generator.next();
+		}
+		_head = 0;
+	}
+
+	/**
+	 * Takes the next piece out of the queue and puts a new one at the back.
+	 */
+	public int next() {
+		int kind = _pieces[_head];
+		_pieces[_head] = _generator.next();
+		_head = (_head + 1) % _pieces.length;
+		return kind;
+	}
+
+	/**
+	 * Returns the piece that comes after the given number of others: peek(0)
+	 * is the piece next will return.
+	 */
+	public int peek(int ahead) {
+		return _pieces[(_head + ahead) % _pieces.length];
+	}
+
+	/**
+	 * Returns how many pieces ahead the queue can see.
+	 */
+	public int size() {
+		return _pieces.length;
+	}
+
+}
@@ -0,0 +1,181 @@
+package Tetris;
+
+/**
+ * The piece table class stores everything about the seven kinds of pieces
+ * that never changes: where each of the four squares is in each of the four
+ * orientations and the row masks of that orientation. It is all worked out
+ * once when the class is loaded, so rotating or making a piece is just looking
+ * up a number in an array instead of doing the rotation math on coordinates.
+ * The squares are stored as columns and rows relative to the third square,
+ * which is the one the pieces rotate about, and the orientations are in the
+ * order the up key goes through them. The square piece's four orientations are
+ * all the same.
+ */
+public final class PieceTable {
+
+	public static final int KINDS = 7;
+	public static final int ORIENTATIONS = 4;
+
+	// the kinds of pieces in the order the engine numbers them
+	public static final int I = 0;
+	public static final int O = 1;
+	public static final int T = 2;
+	public static final int L = 3;
+	public static final int J = 4;
+	public static final int S = 5;
+	public static final int Z = 6;
+
+	// where the third square of each kind of piece starts out: the columns
+	// are from the middle of the playfield, so on the usual ten wide one the
+	// long bar starts in column 7 and the rest in column 6
+	private static final int[] SPAWN_COL = { 0, -1, -1, 0, -1, 0, -1 };
+	private static final int[] SPAWN_ROW = { 2, 3, 3, 3, 3, 3, 3 };
+
+	// the column and row of each square relative to the third square, with
+	// the piece the way it spawns
+	private static final int[][] SPAWN_SHAPES = {
+			{ -2, 0, -1, 0, 0, 0, 1, 0 }, // I
+			{ 0, -1, 1, -1, 0, 0, 1, 0 }, // O
+			{ 0, -1, -1, 0, 0, 0, 1, 0 }, // T
+			{ -2, 0, -1, 0, 0, 0, 0, -1 }, // L
+			{ 2, 0, 1, 0, 0, 0, 0, -1 }, // J
+			{ 1, -1, 0, -1, 0, 0, -1, 0 }, // S
+			{ -1, -1, 0, -1, 0, 0, 1, 0 } }; // Z
+
+	// every array below is indexed by kind * ORIENTATIONS + orientation, and
+	// the ones with four entries per orientation by that times four plus the
+	// square or row
+	private static final int[] COL_OFFSETS = new int[KINDS * ORIENTATIONS * 4];
+	private static final int[] ROW_OFFSETS = new int[KINDS * ORIENTATIONS * 4];
+	private static final int[] TOP = new int[KINDS * ORIENTATIONS];
+	private static final int[] LEFT = new int[KINDS * ORIENTATIONS];
+	private static final int[] WIDTH = new int[KINDS * ORIENTATIONS];
+	private static final int[] HEIGHT = new int[KINDS * ORIENTATIONS];
+	private static final int[] MASKS = new int[KINDS * ORIENTATIONS * 4];
+	private static final int[] BOTTOMS = new int[KINDS * ORIENTATIONS * 4];
+
+	static {
+		for (int kind = 0; kind < KINDS; kind++) {
+			int[] cols = new int[4];
+			int[] rows = new int[4];
+			for (int square = 0; square < 4; square++) {
+				cols[square] = SPAWN_SHAPES[kind][2 * square];
+				rows[square] = SPAWN_SHAPES[kind][2 * square + 1];
+			}
+			for (int orientation = 0; orientation < ORIENTATIONS; orientation++) {
+				PieceTable.fillOrientation(kind * ORIENTATIONS + orientation,
+						cols, rows);
+				if (kind != O) {
+					// the same rotation the handout uses, about square three
+					for (int square = 0; square < 4; square++) {
+						int col = cols[square];
+						cols[square] = rows[square];
+						rows[square] = -col;
+					}
+				}
+			}
+		}
+	}
+
+	private static void fillOrientation(int index, int[] cols, int[] rows) {
+		int top = Integer.MAX_VALUE;
+		int left = Integer.MAX_VALUE;
+		int bottom = Integer.MIN_VALUE;
+		int right = Integer.MIN_VALUE;
+		for (int square = 0; square < 4; square++) {
+			COL_OFFSETS[index * 4 + square] = cols[square];
+			ROW_OFFSETS[index * 4 + square] = rows[square];
+			top = Math.min(top, rows[square]);
+			left = Math.min(left, cols[square]);
+			bottom = Math.max(bottom, rows[square]);
+			right = Math.max(right, cols[square]);
+		}
+		TOP[index] = top;
+		LEFT[index] = left;
+		WIDTH[index] = right - left + 1;
+		HEIGHT[index] = bottom - top + 1;
+		for (int i = 0; i < 4; i++) {
+			BOTTOMS[index * 4 + i] = Integer.MIN_VALUE;
+		}
+		for (int square = 0; square < 4; square++) {
+			MASKS[index * 4 + rows[square] - top] |= 1 << (cols[square] - left);
+			int i = index * 4 + cols[square] - left;
+			BOTTOMS[i] = Math.max(BOTTOMS[i], rows[square]);
+		}
+	}
+
+	private PieceTable() {
+		// only static lookups
+	}
+
+	/**
+	 * These methods return where a kind of piece is made: the column and row
+	 * of its third square.
+	 */
+	public static int getSpawnCol(int kind) {
+		return Constants.FIRST_COL + Constants.PLAY_WIDTH / 2 + SPAWN_COL[kind];
+	}
+
+	public static int getSpawnRow(int kind) {
+		return SPAWN_ROW[kind];
+	}
+
+	/**
+	 * Returns the orientation the up key turns the given one into.
+	 */
+	public static int rotate(int orientation) {
+		return (orientation + 1) & (ORIENTATIONS - 1);
+	}
+
+	/**
+	 * These methods return the column and row of one of the four squares
+	 * relative to the third square.
+	 */
+	public static int getColOffset(int kind, int orientation, int square) {
+		return COL_OFFSETS[(kind * ORIENTATIONS + orientation) * 4 + square];
+	}
+
+	public static int getRowOffset(int kind, int orientation, int square) {
+		return ROW_OFFSETS[(kind * ORIENTATIONS + orientation) * 4 + square];
+	}
+
+	/**
+	 * These methods describe the smallest box around an orientation: its top
+	 * row and left column relative to the third square, and how many columns
+	 * and rows it covers.
+	 */
+	public static int getTop(int kind, int orientation) {
+		return TOP[kind * ORIENTATIONS + orientation];
+	}
+
+	public static int getLeft(int kind, int orientation) {
+		return LEFT[kind * ORIENTATIONS + orientation];
+	}
+
+	public static int getWidth(int kind, int orientation) {
+		return WIDTH[kind * ORIENTATIONS + orientation];
+	}
+
+	public static int getHeight(int kind, int orientation) {
+		return HEIGHT[kind * ORIENTATIONS + orientation];
+	}
+
+	/**
+	 * Returns the row of the lowest square in one column of the box around an
+	 * orientation, relative to the third square. Column zero is the box's left
+	 * column. This is the square that lands first when the piece falls.
+	 */
+	public static int getBottom(int kind, int orientation, int col) {
+		return BOTTOMS[(kind * ORIENTATIONS + orientation) * 4 + col];
+	}
+
+	/**
+	 * Returns the mask of one row of the box around an orientation, where bit
+	 * zero is the box's left column. Shifting it left by the column of the box
+	 * lines it up with a row of the board.
+	 */
+	public static int getMask(int kind, int orientation, int row) {
+		return MASKS[(kind * ORIENTATIONS + orientation) * 4 + row];
+	}
+
+}
@@ -0,0 +1,20 @@
+package Tetris;
+
+/**
+ * The renderer interface is what the game uses to draw the engine's board and
+ * piece, so the game doesn't care whether they are drawn with nodes or on a
+ * canvas. Renderers draw game frames, not the engine itself, so they never
+ * look at anything the simulation thread could be changing. renderAll draws
+ * everything and is used the first time; render is called once per frame and
+ * only has to draw what changed since the last frame it drew.
+ */
+public interface Renderer {
+
+	public static final String NODES = "nodes";
+	public static final String CANVAS = "canvas";
+
+	public void renderAll(GameFrame frame);
+
+	public void render(GameFrame frame);
+
+}
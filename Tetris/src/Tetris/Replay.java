@@ -0,0 +1,80 @@
+package Tetris;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A replay is a game log that the replay recorder wrote, read back in. It
+ * reads the header to find out which piece generator and seed the game used,
+ * so it can make an engine that gets the same pieces, and keeps the events
+ * for a replay player to apply to that engine.
+ */
+public class Replay {
+
+	private String _generator;
+	private long _seed;
+	private ByteBuffer _events;
+
+	/**
+	 * The constructor reads the header at the start of the log. The events
+	 * are whatever comes after it.
+	 */
+	public Replay(ByteBuffer log) {
+		log = log.duplicate();
+		if (log.remaining() < 14 || log.getInt() != ReplayRecorder.MAGIC) {
+			throw new IllegalArgumentException("not a replay");
+		}
+		int version = log.get();
+		if (version != ReplayRecorder.VERSION) {
+			throw new IllegalArgumentException("can't read replay version "
+					+ version);
+		}
+		byte[] name = new byte[log.get()];
+		log.get(name);
+		_generator = new String(name, StandardCharsets.UTF_8);
+		_seed = log.getLong();
+		_events = log.slice();
+	}
+
+	/**
+	 * Reads the whole replay file at the path.
+	 */
+	public static Replay read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.READ)) {
+			ByteBuffer log = ByteBuffer.allocate((int) channel.size());
+			while (log.hasRemaining() && channel.read(log) >= 0) {
+				// keep reading until the buffer is full
+			}
+			log.flip();
+			return new Replay(log);
+		}
+	}
+
+	/**
+	 * Makes an engine that gets the same pieces as the recorded game.
+	 */
+	public Engine makeEngine() {
+		return new Engine(_generator, _seed);
+	}
+
+	public String getGenerator() {
+		return _generator;
+	}
+
+	public long getSeed() {
+		return _seed;
+	}
+
+	/**
+	 * Returns the events, ready to be read from the start.
+	 */
+	public ByteBuffer getEvents() {
+		return _events.duplicate();
+	}
+
+}
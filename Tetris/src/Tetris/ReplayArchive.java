@@ -0,0 +1,290 @@
+package Tetris;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The replay archive reads an archive the replay archive writer made. Both
+ * files are memory mapped, so finding a game is reading its index record and
+ * a game's log is a slice of the mapped data file: nothing is copied, and the
+ * operating system only reads the pages that are looked at. Games are
+ * numbered by where they are in the index, from zero.
+ *
+ * Every index record is RECORD_SIZE bytes: the game's id and the offset of
+ * its log as longs, then the log's length, the final score, the lines cleared
+ * and the number of pieces as ints. Questions about how games went, like
+ * which games scored best, are answered from the index alone without looking
+ * at a single log. A mapped buffer can't be bigger than 2 GB, so the data file
+ * is mapped in chunks of CHUNK_SIZE that overlap by MAX_LOG_SIZE, which is
+ * the longest a log may be; that way every log is all in the chunk it starts
+ * in.
+ */
+public class ReplayArchive {
+
+	public static final int DATA_MAGIC = 0x54415243; // "TARC"
+	public static final int INDEX_MAGIC = 0x54414958; // "TAIX"
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 16;
+	public static final int RECORD_SIZE = 32;
+	public static final int MAX_LOG_SIZE = 1 << 26;
+
+	private static final long CHUNK_SIZE = 1L << 30;
+	// where each field is in a record
+	private static final int ID = 0;
+	private static final int OFFSET = 8;
+	private static final int LENGTH = 16;
+	private static final int SCORE = 20;
+	private static final int LINES = 24;
+	private static final int PIECES = 28;
+
+	private MappedByteBuffer _index;
+	private MappedByteBuffer[] _chunks;
+	private int _games;
+
+	/**
+	 * The constructor maps the archive at the path. Games added after this
+	 * aren't seen; open the archive again to see them.
+	 */
+	public ReplayArchive(Path path) throws IOException {
+		try (FileChannel data = FileChannel.open(path, StandardOpenOption.READ);
+				FileChannel index = FileChannel.open(
+						ReplayArchive.getIndexPath(path),
+						StandardOpenOption.READ)) {
+			long indexSize = index.size();
+			if (indexSize > Integer.MAX_VALUE) {
+				throw new IOException("the index is too big to map");
+			}
+			_index = index.map(FileChannel.MapMode.READ_ONLY, 0, indexSize);
+			ReplayArchive.checkHeader(_index, INDEX_MAGIC);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			data.read(header, 0);
+			header.flip();
+			ReplayArchive.checkHeader(header, DATA_MAGIC);
+			_games = (int) ((indexSize - HEADER_SIZE) / RECORD_SIZE);
+			long dataSize = data.size();
+			_chunks = new MappedByteBuffer[(int) ((dataSize + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+			for (int i = 0; i < _chunks.length; i++) {
+				long start = i * CHUNK_SIZE;
+				_chunks[i] = data.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(CHUNK_SIZE + MAX_LOG_SIZE, dataSize - start));
+			}
+		}
+	}
+
+	private static void checkHeader(ByteBuffer header, int magic)
+			throws IOException {
+		if (header.remaining() < HEADER_SIZE || header.getInt(0) != magic) {
+			throw new IOException("not a replay archive");
+		}
+		if (header.getInt(4) != VERSION) {
+			throw new IOException("can't read archive version "
+					+ header.getInt(4));
+		}
+	}
+
+	/**
+	 * Returns the path of the index file that goes with a data file.
+	 */
+	public static Path getIndexPath(Path path) {
+		return path.resolveSibling(path.getFileName() + ".idx");
+	}
+
+	public int getGameCount() {
+		return _games;
+	}
+
+	/**
+	 * These accessor methods read one field of a game's index record.
+	 */
+	public long getGameId(int game) {
+		return _index.getLong(ReplayArchive.getRecord(game) + ID);
+	}
+
+	public long getOffset(int game) {
+		return _index.getLong(ReplayArchive.getRecord(game) + OFFSET);
+	}
+
+	public int getLength(int game) {
+		return _index.getInt(ReplayArchive.getRecord(game) + LENGTH);
+	}
+
+	public int getScore(int game) {
+		return _index.getInt(ReplayArchive.getRecord(game) + SCORE);
+	}
+
+	public int getLines(int game) {
+		return _index.getInt(ReplayArchive.getRecord(game) + LINES);
+	}
+
+	public int getPieces(int game) {
+		return _index.getInt(ReplayArchive.getRecord(game) + PIECES);
+	}
+
+	private static int getRecord(int game) {
+		return HEADER_SIZE + game * RECORD_SIZE;
+	}
+
+	/**
+	 * Returns a game's log as a slice of the mapped data file.
+	 */
+	public ByteBuffer getLog(int game) {
+		long offset = this.getOffset(game);
+		ByteBuffer chunk = _chunks[(int) (offset / CHUNK_SIZE)];
+		int start = (int) (offset % CHUNK_SIZE);
+		return chunk.slice(start, this.getLength(game));
+	}
+
+	/**
+	 * Returns a game as a replay that can be played again.
+	 */
+	public Replay getReplay(int game) {
+		return new Replay(this.getLog(game));
+	}
+
+	/**
+	 * Returns where in the index the game with the given id is, or -1 if it
+	 * isn't in the archive. This looks at every record.
+	 */
+	public int findGame(long gameId) {
+		for (int game = 0; game < _games; game++) {
+			if (this.getGameId(game) == gameId) {
+				return game;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the games with the n best scores, best first, reading only the
+	 * index. The best games so far are kept in a heap with the worst of them
+	 * on top, so every other game is compared with just that one.
+	 */
+	public int[] getTopByScore(int n) {
+		n = Math.min(n, _games);
+		int[] heap = new int[n];
+		for (int game = 0; game < _games; game++) {
+			if (game < n) {
+				heap[game] = game;
+				this.siftUp(heap, game);
+			} else if (n > 0 && this.isBetter(game, heap[0])) {
+				heap[0] = game;
+				this.siftDown(heap, n);
+			}
+		}
+		// take the worst off the top until the heap is empty
+		for (int size = n - 1; size > 0; size--) {
+			int worst = heap[0];
+			heap[0] = heap[size];
+			heap[size] = worst;
+			this.siftDown(heap, size);
+		}
+		return heap;
+	}
+
+	/**
+	 * A game is better than another if it scored more, or scored the same
+	 * and comes first.
+	 */
+	private boolean isBetter(int game, int other) {
+		int score = this.getScore(game);
+		int otherScore = this.getScore(other);
+		return score > otherScore || (score == otherScore && game < other);
+	}
+
+	private void siftUp(int[] heap, int i) {
+		while (i > 0 && this.isBetter(heap[(i - 1) / 2], heap[i])) {
+			int parent = (i - 1) / 2;
+			int game = heap[i];
+			heap[i] = heap[parent];
+			heap[parent] = game;
+			i = parent;
+		}
+	}
+
+	private void siftDown(int[] heap, int size) {
+		int i = 0;
+		while (true) {
+			int worst = i;
+			for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child++) {
+				if (this.isBetter(heap[worst], heap[child])) {
+					worst = child;
+				}
+			}
+			if (worst == i) {
+				return;
+			}
+			int game = heap[i];
+			heap[i] = heap[worst];
+			heap[worst] = game;
+			i = worst;
+		}
+	}
+
+	/**
+	 * This main line works with archives from the command line:
+	 * "add archive file..." adds recorded games, giving each the next id,
+	 * "top archive n" lists the best n games from the index, and
+	 * "replay archive id" plays a game again without a window and checks it
+	 * comes out the same. Anything else prints how to use it.
+	 */
+	public static void main(String[] argv) throws IOException {
+		if (argv.length < 2) {
+			ReplayArchive.printUsage();
+			return;
+		}
+		Path path = Paths.get(argv[1]);
+		if ("add".equals(argv[0])) {
+			long id = 0;
+			if (Files.exists(path)) {
+				id = new ReplayArchive(path).getGameCount();
+			}
+			try (ReplayArchiveWriter writer = new ReplayArchiveWriter(path)) {
+				for (int i = 2; i < argv.length; i++) {
+					byte[] log = Files.readAllBytes(Paths.get(argv[i]));
+					Replay replay = new Replay(ByteBuffer.wrap(log));
+					Engine engine = replay.makeEngine();
+					new ReplayPlayer(engine, replay).playToEnd();
+					// every line cleared scores one, so the score is the lines
+					writer.append(id++, ByteBuffer.wrap(log), engine.getScore(),
+							engine.getScore(), engine.getPieces());
+				}
+			}
+		} else if ("top".equals(argv[0])) {
+			ReplayArchive archive = new ReplayArchive(path);
+			int n = argv.length > 2 ? Integer.parseInt(argv[2]) : 10;
+			for (int game : archive.getTopByScore(n)) {
+				System.out.printf("game %d: score %d, lines %d, %d pieces, %d bytes%n",
+						archive.getGameId(game), archive.getScore(game),
+						archive.getLines(game), archive.getPieces(game),
+						archive.getLength(game));
+			}
+		} else if ("replay".equals(argv[0]) && argv.length > 2) {
+			ReplayArchive archive = new ReplayArchive(path);
+			int game = archive.findGame(Long.parseLong(argv[2]));
+			if (game < 0) {
+				System.out.println("no game " + argv[2]);
+				return;
+			}
+			Replay replay = archive.getReplay(game);
+			Engine engine = replay.makeEngine();
+			ReplayPlayer player = new ReplayPlayer(engine, replay);
+			player.playToEnd();
+			System.out.printf("game %s: %d pieces, score %d, %s%n", argv[2],
+					engine.getPieces(), engine.getScore(),
+					player.matches() ? "matches" : "does NOT match");
+		} else {
+			ReplayArchive.printUsage();
+		}
+	}
+
+	private static void printUsage() {
+		System.out.println("usage: add archive file... | top archive [n] | replay archive id");
+	}
+
+}
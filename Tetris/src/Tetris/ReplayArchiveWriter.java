@@ -0,0 +1,100 @@
+package Tetris;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The replay archive writer adds game logs to a replay archive. An archive is
+ * two files that are only ever added to: the data file, which has every game
+ * log one after another, and the index file next to it (the same name with
+ * .idx on the end), which has one fixed-width record for every game saying
+ * where its log is and how the game went. A log is always written before its
+ * record, so if the writer is stopped halfway the index never points at a log
+ * that isn't there. Any number of threads can append to the same writer; each
+ * game is written in one go while the others wait.
+ */
+public class ReplayArchiveWriter implements Closeable {
+
+	private FileChannel _data;
+	private FileChannel _index;
+	private ByteBuffer _record;
+
+	/**
+	 * The constructor opens the archive at the path, making it if it isn't
+	 * there yet.
+	 */
+	public ReplayArchiveWriter(Path path) throws IOException {
+		_data = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.READ);
+		_index = FileChannel.open(ReplayArchive.getIndexPath(path),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.READ);
+		_record = ByteBuffer.allocate(ReplayArchive.RECORD_SIZE);
+		if (_data.size() == 0) {
+			this.writeHeader(_data, ReplayArchive.DATA_MAGIC);
+		}
+		if (_index.size() == 0) {
+			this.writeHeader(_index, ReplayArchive.INDEX_MAGIC);
+		}
+		// anything after the last whole record was cut off by a crash
+		long records = (_index.size() - ReplayArchive.HEADER_SIZE)
+				/ ReplayArchive.RECORD_SIZE;
+		_index.truncate(ReplayArchive.HEADER_SIZE + records
+				* ReplayArchive.RECORD_SIZE);
+		_data.position(_data.size());
+		_index.position(_index.size());
+	}
+
+	private void writeHeader(FileChannel channel, int magic) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(ReplayArchive.HEADER_SIZE);
+		header.putInt(magic);
+		header.putInt(ReplayArchive.VERSION);
+		header.clear(); // the rest of the header is zeros for now
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+	}
+
+	/**
+	 * Adds a game log with the game's number, final score, lines and number
+	 * of pieces to the archive. The log is read from its position to its
+	 * limit.
+	 */
+	public synchronized void append(long gameId, ByteBuffer log, int score,
+			int lines, long pieces) throws IOException {
+		int length = log.remaining();
+		if (length > ReplayArchive.MAX_LOG_SIZE) {
+			throw new IllegalArgumentException("a game log of " + length
+					+ " bytes is too long for an archive");
+		}
+		long offset = _data.position();
+		while (log.hasRemaining()) {
+			_data.write(log);
+		}
+		_record.clear();
+		_record.putLong(gameId);
+		_record.putLong(offset);
+		_record.putInt(length);
+		_record.putInt(score);
+		_record.putInt(lines);
+		_record.putInt((int) Math.min(pieces, Integer.MAX_VALUE));
+		_record.flip();
+		while (_record.hasRemaining()) {
+			_index.write(_record);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			_data.close();
+		} finally {
+			_index.close();
+		}
+	}
+
+}
@@ -0,0 +1,164 @@
+package Tetris;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+
+/**
+ * The replay player plays a recorded game again by applying its events to an
+ * engine that gets the same pieces. It is a controller, so in the app the game
+ * loop runs it before every engine step like the input handler and the game
+ * is replayed in real time; every event is applied on the step it was
+ * recorded on, so gravity and line clears happen just as they did. It can also
+ * play the whole game as fast as possible without a window. Every time the
+ * log says a piece was made, the player checks the engine made the same kind,
+ * and once it has played to the end it checks the engine has the same number
+ * of pieces, score and steps as the recorded game.
+ */
+public class ReplayPlayer implements Controller {
+
+	private Engine _engine;
+	private ByteBuffer _events;
+	private long _nextStep;
+	private int _nextCode;
+	private boolean _ended; // the END event has been read
+	private long _pieces;
+	private int _score;
+	private long _steps;
+
+	/**
+	 * The constructor takes the engine the replay made and the replay.
+	 */
+	public ReplayPlayer(Engine engine, Replay replay) {
+		_engine = engine;
+		_events = replay.getEvents();
+		_nextStep = 0;
+		this.readEvent();
+	}
+
+	/**
+	 * Applies every event that was recorded on the engine's current step.
+	 */
+	@Override
+	public void step() {
+		while (!_ended && _nextStep == _engine.getSteps()) {
+			this.apply(_nextCode);
+			this.readEvent();
+		}
+	}
+
+	private void apply(int code) {
+		switch (code) {
+		case InputQueue.LEFT:
+			_engine.shiftLeft();
+			break;
+		case InputQueue.RIGHT:
+			_engine.shiftRight();
+			break;
+		case InputQueue.DOWN:
+			_engine.dropPieceDown();
+			break;
+		case InputQueue.ROTATE:
+			_engine.rotate();
+			break;
+		case InputQueue.DROP:
+			_engine.dropAllTheWay();
+			break;
+		default:
+			int kind = code - ReplayRecorder.PIECE;
+			if (kind < 0 || kind >= PieceTable.KINDS) {
+				throw new IllegalStateException("bad replay event " + code);
+			}
+			if (_engine.getKind() != kind) {
+				throw new IllegalStateException("replay stopped matching the game at step "
+						+ _engine.getSteps());
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Reads the next event, or the numbers at the end of the log.
+	 */
+	private void readEvent() {
+		if (!_events.hasRemaining()) {
+			throw new IllegalStateException("replay ends without an END event");
+		}
+		int event = _events.get() & 0xFF;
+		_nextCode = event & 0x0F;
+		if (_nextCode == ReplayRecorder.END) {
+			_ended = true;
+			_pieces = this.readVarint();
+			_score = (int) this.readVarint();
+			_steps = this.readVarint();
+			return;
+		}
+		long delta = event >>> 4;
+		if (delta == ReplayRecorder.LONG_DELTA) {
+			delta = this.readVarint();
+		}
+		_nextStep += delta;
+	}
+
+	private long readVarint() {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = _events.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+	}
+
+	/**
+	 * Plays the rest of the game as fast as possible, stepping the engine
+	 * until every event has been applied and it has taken as many steps as
+	 * the recorded game did.
+	 */
+	public void playToEnd() {
+		while (true) {
+			this.step();
+			if (this.isFinished() || _engine.isGameOver()) {
+				return;
+			}
+			_engine.step();
+		}
+	}
+
+	/**
+	 * Returns whether every event has been applied and the engine has taken
+	 * as many steps as the recorded game.
+	 */
+	public boolean isFinished() {
+		return _ended && _engine.getSteps() >= _steps;
+	}
+
+	/**
+	 * Returns whether the engine ended up with the same number of pieces,
+	 * score and steps as the recorded game.
+	 */
+	public boolean matches() {
+		return _ended && _engine.getPieces() == _pieces
+				&& _engine.getScore() == _score && _engine.getSteps() == _steps;
+	}
+
+	/**
+	 * This main line replays the file named by the first argument without a
+	 * window, as fast as possible, and says whether it came out the same.
+	 */
+	public static void main(String[] argv) throws IOException {
+		Replay replay = Replay.read(Paths.get(argv[0]));
+		Engine engine = replay.makeEngine();
+		ReplayPlayer player = new ReplayPlayer(engine, replay);
+		long start = System.nanoTime();
+		player.playToEnd();
+		double millis = (System.nanoTime() - start) / 1e6;
+		System.out.printf("%s seed %d: %d pieces, score %d, %d steps in %.1f ms%n",
+				replay.getGenerator(), replay.getSeed(), engine.getPieces(),
+				engine.getScore(), engine.getSteps(), millis);
+		System.out.println(player.matches() ? "matches the recorded game"
+				: "does NOT match the recorded game");
+	}
+
+}
@@ -0,0 +1,211 @@
+package Tetris;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The replay recorder writes down everything that happens to an engine as a
+ * compact binary log, so the game can be played again exactly. The log starts
+ * with a header that has the name of the piece generator and its seed. After
+ * that come the events: every move that changed the piece (a shift, a
+ * rotation, a soft drop or a hard drop, whether it came from a key, the auto
+ * player or a policy) and every piece that was made, each with the engine
+ * step it happened on. The piece sequence follows from the seed, but it is
+ * written down anyway so a replay can tell straight away if it stopped
+ * matching the game.
+ *
+ * Each event is one byte: the low four bits say what happened (the input
+ * queue's LEFT, RIGHT, DOWN, ROTATE or DROP, or PIECE plus the kind of piece)
+ * and the high four bits how many steps it came after the event before it. If
+ * it came 15 or more steps later the high bits are all set and the number of
+ * steps follows as a varint (seven bits a byte, lowest first). Most moves come
+ * a few steps apart, so most events are one byte. The log ends with an END
+ * byte and then the number of pieces, the score and the number of steps, as
+ * varints.
+ *
+ * The events are put in a buffer, and a full buffer is written to the channel.
+ * A recorder that writes in the background hands full buffers to its own
+ * thread to write and carries on in another one, so the thread playing the
+ * game (the javaFX thread in the app) never waits for the disk unless both
+ * buffers are full. If writing fails the recorder stops recording and close
+ * throws the exception.
+ */
+public class ReplayRecorder {
+
+	public static final int MAGIC = 0x5452504C; // "TRPL"
+	public static final int VERSION = 1;
+	public static final int PIECE = 5; // plus the kind, up to 11
+	public static final int END = 15;
+	public static final int LONG_DELTA = 15; // the high bits when a varint follows
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private WritableByteChannel _channel;
+	private ByteBuffer _buffer;
+	private BlockingQueue<ByteBuffer> _full;
+	private BlockingQueue<ByteBuffer> _free;
+	private Thread _writer;
+	private volatile IOException _error;
+	private long _lastStep;
+	private long _bytes;
+
+	/**
+	 * The constructor writes the header for a game whose pieces come from the
+	 * named generator started from the seed. If background is true the
+	 * channel is written to by the recorder's own thread.
+	 */
+	public ReplayRecorder(WritableByteChannel channel, boolean background,
+			String generator, long seed) {
+		_channel = channel;
+		_buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		if (background) {
+			_full = new ArrayBlockingQueue<ByteBuffer>(2);
+			_free = new ArrayBlockingQueue<ByteBuffer>(2);
+			_free.add(ByteBuffer.allocate(BUFFER_SIZE));
+			_writer = new Thread(this::writeBuffers, "replay writer");
+			_writer.setDaemon(true);
+			_writer.start();
+		}
+		byte[] name = generator.getBytes(StandardCharsets.UTF_8);
+		_buffer.putInt(MAGIC);
+		_buffer.put((byte) VERSION);
+		_buffer.put((byte) name.length);
+		_buffer.put(name);
+		_buffer.putLong(seed);
+		_lastStep = 0;
+	}
+
+	/**
+	 * Records one of the input queue's commands that changed the piece on the
+	 * given step.
+	 */
+	public void recordCommand(int command, long step) {
+		this.recordEvent(command, step);
+	}
+
+	/**
+	 * Records that a piece of the given kind was made on the given step.
+	 */
+	public void recordPiece(int kind, long step) {
+		this.recordEvent(PIECE + kind, step);
+	}
+
+	private void recordEvent(int code, long step) {
+		if (_error != null) {
+			return;
+		}
+		long delta = step - _lastStep;
+		_lastStep = step;
+		if (delta < LONG_DELTA) {
+			this.put((byte) (code | (delta << 4)));
+		} else {
+			this.put((byte) (code | (LONG_DELTA << 4)));
+			this.putVarint(delta);
+		}
+	}
+
+	private void putVarint(long value) {
+		while ((value & ~0x7FL) != 0) {
+			this.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		this.put((byte) value);
+	}
+
+	private void put(byte b) {
+		if (!_buffer.hasRemaining()) {
+			this.flush();
+		}
+		_buffer.put(b);
+	}
+
+	/**
+	 * Writes what is in the buffer, or gives it to the writer thread and
+	 * takes the other buffer.
+	 */
+	private void flush() {
+		_buffer.flip();
+		_bytes += _buffer.remaining();
+		try {
+			if (_writer == null) {
+				while (_buffer.hasRemaining()) {
+					_channel.write(_buffer);
+				}
+				_buffer.clear();
+			} else {
+				_full.put(_buffer);
+				_buffer = _free.take();
+				_buffer.clear();
+			}
+		} catch (IOException e) {
+			_error = e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			_error = new IOException("interrupted while recording", e);
+		}
+	}
+
+	/**
+	 * This is what the writer thread does: it writes every full buffer it is
+	 * given and hands it back empty, until it is given a buffer with nothing
+	 * in it, which means the recorder was closed.
+	 */
+	private void writeBuffers() {
+		try {
+			while (true) {
+				ByteBuffer buffer = _full.take();
+				if (!buffer.hasRemaining()) {
+					return;
+				}
+				while (buffer.hasRemaining() && _error == null) {
+					_channel.write(buffer);
+				}
+				_free.put(buffer);
+			}
+		} catch (IOException e) {
+			_error = e;
+			_free.offer(ByteBuffer.allocate(BUFFER_SIZE)); // don't leave the game waiting
+		} catch (InterruptedException e) {
+			_error = new IOException("replay writer was interrupted", e);
+		}
+	}
+
+	/**
+	 * Writes the end of the log with the engine's final numbers, waits for
+	 * everything to be written and closes the channel.
+	 */
+	public void close(Engine engine) throws IOException {
+		if (_error == null) {
+			this.put((byte) END);
+			this.putVarint(engine.getPieces());
+			this.putVarint(engine.getScore());
+			this.putVarint(engine.getSteps());
+			this.flush();
+		}
+		if (_writer != null) {
+			try {
+				_full.put(ByteBuffer.allocate(0));
+				_writer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while closing replay", e);
+			}
+		}
+		_channel.close();
+		if (_error != null) {
+			throw _error;
+		}
+	}
+
+	/**
+	 * Returns how many bytes have been written so far.
+	 */
+	public long getBytes() {
+		return _bytes;
+	}
+
+}
@@ -0,0 +1,406 @@
+package Tetris;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The search policy places a piece by trying every placement it can reach:
+ * every orientation in every column that the piece can be rotated and then
+ * shifted to from where it is, the same way the engine's moveTo does it,
+ * after moving it down a row or two if it can't turn where it is. For
+ * each of those it drops the piece on a copy of the board, clears any lines,
+ * and then does the same for every placement of the next piece in the queue
+ * (two ply), and the first placement whose best follow-up the evaluator scores
+ * highest wins. Placements that leave a square in the top line lose to
+ * anything else.
+ *
+ * The first placements are shared out between workers, each with its own
+ * scratch boards that are reused for every placement it tries, so nothing is
+ * made while searching. The scratch boards don't keep the kinds of their
+ * squares, which the evaluator never looks at. With more than one thread the workers run on a pool
+ * of daemon threads and the thread asking for a move waits for all of them;
+ * with one thread the single worker runs on the caller's thread. Two
+ * placements that score the same are broken by which one comes first, so the
+ * same board always gets the same move however many threads there are. A
+ * search policy may only be used by one game at a time.
+ *
+ * If the policy has an evaluation cache, the best score of the next piece on
+ * a board is looked up by the board's hash and the next piece's key before
+ * all of its placements are tried, and remembered afterwards. The same board
+ * comes up often: the long bar and the two zigzag pieces each have two
+ * orientations that give the same squares, and different placements can
+ * fill the same squares. The cache may be shared by any number of policies,
+ * even on other threads, as long as their evaluators have the same weights.
+ * Placements that come out of the cache aren't counted as tried.
+ */
+public class SearchPolicy implements MovePolicy {
+
+	private static final int CANDIDATES = PieceTable.ORIENTATIONS
+			* Constants.BOARD_WIDTH;
+	private static final double LOST = -Double.MAX_VALUE;
+	private static final int MAX_DROPS = 2; // rows a piece may be moved down first
+
+	private Evaluator _evaluator;
+	private EvaluationCache _cache;
+	private ExecutorService _pool;
+	private Worker[] _workers;
+	private List<Worker> _tasks;
+	// what the workers search from, set before they are started
+	private Board _board;
+	private int _kind;
+	private int _orientation;
+	private int _col;
+	private int _row;
+	private int _nextKind;
+	private int _bestDrops;
+	private int _bestOrientation;
+	private int _bestCol;
+	// only the thread asking for moves writes these, and they are volatile so
+	// the frame time overlay sees them on the javaFX thread
+	private volatile long _placements;
+	private volatile long _searchNanos;
+
+	/**
+	 * The constructor takes the evaluator that scores boards and how many
+	 * threads to search with.
+	 */
+	public SearchPolicy(Evaluator evaluator, int threads) {
+		this(evaluator, threads, null);
+	}
+
+	/**
+	 * This constructor also takes the cache to remember board scores in,
+	 * which may be null.
+	 */
+	public SearchPolicy(Evaluator evaluator, int threads, EvaluationCache cache) {
+		_evaluator = evaluator;
+		_cache = cache;
+		_workers = new Worker[threads];
+		_tasks = new ArrayList<Worker>(threads);
+		for (int i = 0; i < threads; i++) {
+			_workers[i] = new Worker(i, threads);
+			_tasks.add(_workers[i]);
+		}
+		if (threads > 1) {
+			_pool = Executors.newFixedThreadPool(threads, runnable -> {
+				Thread thread = new Thread(runnable, "search");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	@Override
+	public void placePiece(Engine engine) {
+		this.findMove(engine);
+		for (int i = 0; i < _bestDrops; i++) {
+			engine.dropPieceDown();
+		}
+		engine.moveTo(_bestOrientation, _bestCol);
+		engine.dropAllTheWay();
+	}
+
+	/**
+	 * Searches for the best placement of the engine's falling piece without
+	 * moving it. Afterwards getBestDrops, getBestOrientation and getBestCol
+	 * say how the piece gets where it should go.
+	 */
+	public void findMove(Engine engine) {
+		this.findMove(engine.getBoard(), engine.getKind(),
+				engine.getOrientation(), engine.getPivotCol(),
+				engine.getPivotRow(), engine.getNextPieces().peek(0));
+	}
+
+	/**
+	 * Searches for the best placement of a piece of the given kind,
+	 * orientation, column and row on the board when the next piece is
+	 * nextKind. This is for playing on a board without an engine, like the
+	 * weight tuner does; with one thread it doesn't make anything.
+	 */
+	public void findMove(Board board, int kind, int orientation, int col,
+			int row, int nextKind) {
+		long start = System.nanoTime();
+		_board = board;
+		_kind = kind;
+		_orientation = orientation;
+		_col = col;
+		_row = row;
+		_nextKind = nextKind;
+		if (_pool == null) {
+			_workers[0].call();
+		} else {
+			try {
+				for (Future<Void> future : _pool.invokeAll(_tasks)) {
+					future.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("search was interrupted", e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("search failed", e.getCause());
+			}
+		}
+		Worker best = null;
+		long placements = _placements;
+		for (Worker worker : _workers) {
+			placements += worker._tried;
+			if (worker._bestCandidate >= 0
+					&& (best == null || worker._bestScore > best._bestScore
+							|| (worker._bestScore == best._bestScore
+									&& worker._bestCandidate < best._bestCandidate))) {
+				best = worker;
+			}
+		}
+		_placements = placements;
+		if (best == null) {
+			// nowhere to go, so the piece drops where it is
+			_bestDrops = 0;
+			_bestOrientation = _orientation;
+			_bestCol = _col;
+		} else {
+			_bestDrops = best._bestDrops;
+			_bestOrientation = best._bestCandidate / Constants.BOARD_WIDTH;
+			_bestCol = best._bestCandidate % Constants.BOARD_WIDTH;
+		}
+		_searchNanos += System.nanoTime() - start;
+	}
+
+	/**
+	 * Returns how many rows a piece has to be moved down before it can get
+	 * from one orientation and column to another by rotating first and then
+	 * shifting, which is how the engine's moveTo moves it, or -1 if it can't
+	 * get there within MAX_DROPS rows. Some pieces can't turn right where
+	 * they are made because the frame is in the way, and moving them down
+	 * first is how a player gets them upright. The square piece never
+	 * rotates.
+	 */
+	private static int getDrops(Board board, int kind, int fromOrientation,
+			int fromCol, int fromRow, int orientation, int col) {
+		if (kind == PieceTable.O && orientation != fromOrientation) {
+			return -1;
+		}
+		for (int drops = 0; drops <= MAX_DROPS; drops++) {
+			int row = fromRow + drops;
+			if (!board.fits(kind, fromOrientation, fromCol, row)) {
+				return -1;
+			}
+			if (SearchPolicy.canMove(board, kind, fromOrientation, fromCol,
+					row, orientation, col)) {
+				return drops;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean canMove(Board board, int kind, int fromOrientation,
+			int fromCol, int row, int orientation, int col) {
+		if (!board.fits(kind, orientation, col, row)) {
+			return false;
+		}
+		for (int o = fromOrientation; o != orientation; o = PieceTable.rotate(o)) {
+			if (!board.fits(kind, PieceTable.rotate(o), fromCol, row)) {
+				return false;
+			}
+		}
+		int step = col > fromCol ? 1 : -1;
+		for (int c = fromCol; c != col; c += step) {
+			if (!board.fits(kind, orientation, c + step, row)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Copies the board into the scratch board, drops a piece in it from the
+	 * given orientation, column and row, and returns how many lines that
+	 * cleared.
+	 */
+	private static int place(Board scratch, Board board, int kind,
+			int orientation, int col, int row) {
+		scratch.copyFrom(board);
+		return SearchPolicy.drop(scratch, kind, orientation, col, row);
+	}
+
+	/**
+	 * Drops a piece on the board from the given orientation, column and row,
+	 * locks it and returns how many lines that cleared.
+	 */
+	static int drop(Board board, int kind, int orientation, int col, int row) {
+		row += board.getDropDistance(kind, orientation, col, row);
+		board.lockPiece(kind, orientation, col, row);
+		int top = row + PieceTable.getTop(kind, orientation);
+		return board.clearFullLines(top,
+				top + PieceTable.getHeight(kind, orientation) - 1);
+	}
+
+	/**
+	 * These accessor methods return where the last search decided the piece
+	 * should go: how many rows to move it down first, then which orientation
+	 * to rotate it to and which column to shift it to.
+	 */
+	public int getBestDrops() {
+		return _bestDrops;
+	}
+
+	public int getBestOrientation() {
+		return _bestOrientation;
+	}
+
+	public int getBestCol() {
+		return _bestCol;
+	}
+
+	/**
+	 * Returns how many placements have been scored, counting both plies.
+	 */
+	@Override
+	public long getPlacements() {
+		return _placements;
+	}
+
+	/**
+	 * Returns how long all the searches took in nanoseconds, so the
+	 * placements scored per second can be worked out.
+	 */
+	public long getSearchNanos() {
+		return _searchNanos;
+	}
+
+	/**
+	 * Gives the policy a different evaluator to score boards with. Only a
+	 * policy without a cache can change evaluators, since the scores in the
+	 * cache were worked out with the old weights.
+	 */
+	public void setEvaluator(Evaluator evaluator) {
+		if (_cache != null) {
+			throw new IllegalStateException(
+					"a policy with a cache can't change evaluators");
+		}
+		_evaluator = evaluator;
+	}
+
+	/**
+	 * Returns the evaluation cache, or null if the policy doesn't have one.
+	 */
+	public EvaluationCache getCache() {
+		return _cache;
+	}
+
+	/**
+	 * Stops the pool's threads. The policy can't search on more than one
+	 * thread after this.
+	 */
+	public void shutdown() {
+		if (_pool != null) {
+			_pool.shutdown();
+		}
+	}
+
+	/**
+	 * A worker tries every first placement whose number is its own index plus
+	 * a multiple of the number of workers, and remembers the best one.
+	 */
+	private class Worker implements Callable<Void> {
+
+		private int _index;
+		private int _stride;
+		private Board _first;
+		private Board _second;
+		private int _bestCandidate;
+		private int _bestDrops;
+		private double _bestScore;
+		private long _tried;
+
+		private Worker(int index, int stride) {
+			_index = index;
+			_stride = stride;
+			_first = new Board(false);
+			_second = new Board(false);
+		}
+
+		@Override
+		public Void call() {
+			_bestCandidate = -1;
+			_bestScore = LOST;
+			_tried = 0;
+			for (int candidate = _index; candidate < CANDIDATES; candidate += _stride) {
+				int orientation = candidate / Constants.BOARD_WIDTH;
+				int col = candidate % Constants.BOARD_WIDTH;
+				int drops = SearchPolicy.getDrops(_board, _kind, _orientation,
+						_col, _row, orientation, col);
+				if (drops < 0) {
+					continue;
+				}
+				int lines = SearchPolicy.place(_first, _board, _kind,
+						orientation, col, _row + drops);
+				_tried++;
+				double score = LOST;
+				if (_first.isTopLineEmpty()) {
+					score = this.searchNext(lines);
+				}
+				if (_bestCandidate < 0 || score > _bestScore) {
+					_bestCandidate = candidate;
+					_bestDrops = drops;
+					_bestScore = score;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Returns the best score of any placement of the next piece on the
+		 * first scratch board, or LOST if it can't be placed anywhere. The
+		 * part that doesn't depend on the first placement's lines is looked
+		 * up in the cache first, under the board's hash with the next piece's
+		 * key XORed in, and remembered after it is worked out.
+		 */
+		private double searchNext(int firstLines) {
+			int spawnCol = PieceTable.getSpawnCol(_nextKind);
+			int spawnRow = PieceTable.getSpawnRow(_nextKind);
+			double best = Double.NaN;
+			long hash = 0;
+			if (_cache != null) {
+				hash = _first.getHash()
+						^ Zobrist.getPieceKey(_nextKind, 0, spawnCol, spawnRow);
+				best = _cache.get(hash);
+			}
+			if (Double.isNaN(best)) {
+				best = this.searchNext(spawnCol, spawnRow);
+				if (_cache != null) {
+					_cache.put(hash, best);
+				}
+			}
+			return best == LOST ? LOST : best
+					+ _evaluator.evaluateLines(firstLines);
+		}
+
+		private double searchNext(int spawnCol, int spawnRow) {
+			double best = LOST;
+			for (int orientation = 0; orientation < PieceTable.ORIENTATIONS; orientation++) {
+				for (int col = 0; col < Constants.BOARD_WIDTH; col++) {
+					int drops = SearchPolicy.getDrops(_first, _nextKind, 0,
+							spawnCol, spawnRow, orientation, col);
+					if (drops < 0) {
+						continue;
+					}
+					int lines = SearchPolicy.place(_second, _first, _nextKind,
+							orientation, col, spawnRow + drops);
+					_tried++;
+					if (!_second.isTopLineEmpty()) {
+						continue;
+					}
+					best = Math.max(best, _evaluator.evaluateBoard(_second)
+							+ _evaluator.evaluateLines(lines));
+				}
+			}
+			return best;
+		}
+	}
+
+}
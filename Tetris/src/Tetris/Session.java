@@ -0,0 +1,129 @@
+package Tetris;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * A session is one game hosted by the game server and the client's handle on
+ * it. The client sends the game's commands with submit, the same commands the
+ * key handler puts in the input queue, and is sent a game delta through its
+ * listener after every step that changed something, starting with a keyframe.
+ * Only one thread may submit commands to a session, since its input queue
+ * has one writer. Everything else about the session belongs to the server
+ * thread that steps it: the engine, the input handler and what was last sent.
+ *
+ * A session is kept small, since a server hosts thousands of them: it is the
+ * engine and a few numbers next to it, with an input queue of only
+ * QUEUE_CAPACITY commands. The board's empty rows all share one array of
+ * kinds, so a new game's board is mostly its masks.
+ */
+public class Session {
+
+	private static final int QUEUE_CAPACITY = 16;
+
+	private final int _id;
+	private final Engine _engine;
+	private final InputQueue _queue;
+	private final GameLoop _loop;
+	private final DeltaListener _listener;
+	private boolean _sentKeyframe;
+	private int _sentKind; // the piece and score the last delta had
+	private int _sentOrientation;
+	private int _sentCol;
+	private int _sentRow;
+	private int _sentScore;
+	private volatile boolean _closed;
+	private volatile boolean _finished;
+
+	/**
+	 * The constructor takes the session's id, the engine of its game, the
+	 * DAS and ARR of its input handler in steps and the listener its deltas
+	 * go to.
+	 */
+	Session(int id, Engine engine, int das, int arr, DeltaListener listener) {
+		_id = id;
+		_engine = engine;
+		_queue = new InputQueue(QUEUE_CAPACITY);
+		_loop = new GameLoop(engine, false);
+		_loop.setController(new InputHandler(engine, _queue, das, arr));
+		_listener = listener;
+	}
+
+	/**
+	 * Sends one of the input queue's commands to the game, to be applied at
+	 * the start of its next step. Returns false if the game's queue is full
+	 * and the command was dropped.
+	 */
+	public boolean submit(int command) {
+		return _queue.offer(command, System.nanoTime());
+	}
+
+	/**
+	 * Ends the session. The server stops stepping the game on its next tick
+	 * and the listener isn't sent anything else.
+	 */
+	public void close() {
+		_closed = true;
+	}
+
+	/**
+	 * Returns whether the game is over and the server has let it go. The
+	 * last delta the listener was sent says the game is over.
+	 */
+	public boolean isFinished() {
+		return _finished;
+	}
+
+	public int getId() {
+		return _id;
+	}
+
+	/**
+	 * Returns the session's engine. Only the server thread that steps the
+	 * session may use it while the server is running.
+	 */
+	Engine getEngine() {
+		return _engine;
+	}
+
+	/**
+	 * Runs one step of the game and sends the listener a delta if anything
+	 * changed, using the server thread's rows and buffer so nothing is made.
+	 * Returns false once the session is closed or the game is over, and the
+	 * server stops stepping it.
+	 */
+	boolean step(BitSet rows, ByteBuffer buffer) {
+		if (_closed) {
+			return false;
+		}
+		_loop.step();
+		_engine.takeDirtyRows(rows);
+		if (!_sentKeyframe || !rows.isEmpty() || this.hasPieceChanged()
+				|| _engine.getScore() != _sentScore || _engine.isGameOver()) {
+			buffer.clear();
+			GameDelta.write(_engine, rows, !_sentKeyframe, buffer);
+			buffer.flip();
+			_listener.delta(_id, buffer);
+			_sentKeyframe = true;
+			_sentKind = _engine.getKind();
+			_sentOrientation = _engine.getOrientation();
+			_sentCol = _engine.getPivotCol();
+			_sentRow = _engine.getPivotRow();
+			_sentScore = _engine.getScore();
+		}
+		rows.clear();
+		if (_engine.isGameOver()) {
+			_finished = true;
+			return false;
+		}
+		return true;
+	}
+
+	private boolean hasPieceChanged() {
+		return _engine.getKind() != _sentKind
+				|| _engine.getOrientation() != _sentOrientation
+				|| _engine.getPivotCol() != _sentCol
+				|| _engine.getPivotRow() != _sentRow;
+	}
+
+}
@@ -0,0 +1,224 @@
+package Tetris;
+
+import java.util.Map;
+
+/**
+ * The settings class holds the choices that are made when the app is started,
+ * read from the named parameters on the command line (like --renderer=canvas).
+ * Anything that isn't given keeps its default, so starting the app with no
+ * parameters plays the game the way it always has.
+ */
+public class Settings {
+
+	private String _renderMode;
+	private boolean _showFrameTimes;
+	private boolean _catchUp;
+	private int _das;
+	private int _arr;
+	private String _generator;
+	private long _seed;
+	private boolean _bot;
+	private String _record;
+	private String _replay;
+	private String _saveFile;
+	private String _metrics;
+	private String _jfr;
+	private boolean _simulationThread;
+	private int _players;
+	private int _humans;
+
+	/**
+	 * The constructor makes the default settings.
+	 */
+	public Settings() {
+		_renderMode = Renderer.NODES;
+		_showFrameTimes = false;
+		_catchUp = false;
+		_das = 10;
+		_arr = 2;
+		_generator = PieceGenerator.UNIFORM;
+		_seed = System.nanoTime();
+		_bot = false;
+		_record = null;
+		_replay = null;
+		_saveFile = "tetris.sav";
+		_metrics = Metrics.OFF;
+		_jfr = null;
+		_simulationThread = false;
+		_players = 1;
+		_humans = 1;
+	}
+
+	/**
+	 * This constructor reads the settings out of the named parameters of the
+	 * command line.
+	 */
+	public Settings(Map<String, String> named) {
+		this();
+		_renderMode = named.getOrDefault("renderer", _renderMode);
+		_showFrameTimes = Boolean.parseBoolean(named.getOrDefault("frametimes",
+				String.valueOf(_showFrameTimes)));
+		_catchUp = Boolean.parseBoolean(named.getOrDefault("catchup",
+				String.valueOf(_catchUp)));
+		_das = Integer.parseInt(named.getOrDefault("das", String.valueOf(_das)));
+		_arr = Integer.parseInt(named.getOrDefault("arr", String.valueOf(_arr)));
+		_generator = named.getOrDefault("generator", _generator);
+		_seed = Long.parseLong(named.getOrDefault("seed", String.valueOf(_seed)));
+		_bot = Boolean.parseBoolean(named.getOrDefault("bot",
+				String.valueOf(_bot)));
+		_record = named.getOrDefault("record", _record);
+		_replay = named.getOrDefault("replay", _replay);
+		_saveFile = named.getOrDefault("save", _saveFile);
+		_metrics = named.getOrDefault("metrics", _metrics);
+		_jfr = named.getOrDefault("jfr", _jfr);
+		_simulationThread = Boolean.parseBoolean(named.getOrDefault(
+				"simthread", String.valueOf(_simulationThread)));
+		_players = Math.max(1, Integer.parseInt(named.getOrDefault("players",
+				String.valueOf(_players))));
+		// the second player has the other half of the keyboard, and there
+		// isn't a third
+		_humans = Math.min(2, Integer.parseInt(named.getOrDefault("humans",
+				String.valueOf(_humans))));
+		Settings.setSize(named, "width", Constants.WIDTH_PROPERTY);
+		Settings.setSize(named, "height", Constants.HEIGHT_PROPERTY);
+		Settings.setSize(named, "size", Constants.SIZE_PROPERTY);
+	}
+
+	/**
+	 * The size of the playfield and its squares aren't kept here: they are
+	 * turned into the system properties the constants are read from. That
+	 * only works because the settings are made before anything uses the
+	 * constants (the property names are compile time constants, so naming
+	 * them here doesn't load the constants class).
+	 */
+	private static void setSize(Map<String, String> named, String name,
+			String property) {
+		if (named.containsKey(name)) {
+			System.setProperty(property, named.get(name));
+		}
+	}
+
+	/**
+	 * Whether the board is drawn with nodes or on a canvas.
+	 */
+	public String getRenderMode() {
+		return _renderMode;
+	}
+
+	/**
+	 * Whether the frame time overlay is shown.
+	 */
+	public boolean getShowFrameTimes() {
+		return _showFrameTimes;
+	}
+
+	/**
+	 * Whether the game loop runs every step it missed when frames are late
+	 * instead of only catching up a few.
+	 */
+	public boolean getCatchUp() {
+		return _catchUp;
+	}
+
+	/**
+	 * How many game loop steps a shift or soft drop key has to be held before
+	 * it starts repeating (the delayed auto shift).
+	 */
+	public int getDas() {
+		return _das;
+	}
+
+	/**
+	 * How many steps apart the repeats are once they start (the auto repeat
+	 * rate). Zero moves the piece as far as it can go at once.
+	 */
+	public int getArr() {
+		return _arr;
+	}
+
+	/**
+	 * The name of the piece generator: uniform, bag or history.
+	 */
+	public String getGenerator() {
+		return _generator;
+	}
+
+	/**
+	 * The seed the piece generator starts from. The same seed and generator
+	 * give the same pieces every game; it is different every time by default.
+	 */
+	public long getSeed() {
+		return _seed;
+	}
+
+	/**
+	 * Whether the game plays itself with the auto player instead of taking
+	 * keys.
+	 */
+	public boolean getBot() {
+		return _bot;
+	}
+
+	/**
+	 * The file to record the game to, or null if it isn't recorded.
+	 */
+	public String getRecord() {
+		return _record;
+	}
+
+	/**
+	 * The file of a recorded game to play again instead of a new game, or
+	 * null.
+	 */
+	public String getReplay() {
+		return _replay;
+	}
+
+	/**
+	 * The file the game is saved to with S and loaded from with L.
+	 */
+	public String getSaveFile() {
+		return _saveFile;
+	}
+
+	/**
+	 * Whether the game's metrics are off, only in JMX or also shown in the
+	 * bottomPane: off, jmx or overlay.
+	 */
+	public String getMetrics() {
+		return _metrics;
+	}
+
+	/**
+	 * The file to write a Java Flight Recorder recording of the game to, made
+	 * with the game's own settings profile, or null if it isn't recorded.
+	 */
+	public String getJfr() {
+		return _jfr;
+	}
+
+	/**
+	 * Whether the game loop runs on a simulation thread of its own instead of
+	 * on the javaFX thread.
+	 */
+	public boolean getSimulationThread() {
+		return _simulationThread;
+	}
+
+	/**
+	 * How many boards are played side by side. More than one is a versus
+	 * game.
+	 */
+	public int getPlayers() {
+		return _players;
+	}
+
+	/**
+	 * How many of the boards are played with the keys, from the left; the
+	 * auto player plays the rest. Only two people fit at one keyboard.
+	 */
+	public int getHumans() {
+		return _humans;
+	}
+
+}
@@ -0,0 +1,104 @@
+package Tetris;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * The simulation runs the game loop on a thread of its own instead of on the
+ * javaFX thread, when the app is started with --simthread=true. The thread
+ * wakes up when the next step is due, runs it, and if anything changed it
+ * makes a game frame and publishes it. The frame is handed over through one
+ * atomic reference: the simulation thread is the only one that sets it and
+ * the render timer the only one that reads it, so neither ever waits for the
+ * other. The render timer draws whatever frame was published last when
+ * javaFX asks for one, and frames published in between are never drawn,
+ * which is fine because a frame has everything in it rather than what
+ * changed. Anything the javaFX thread wants done to the engine or the loop
+ * (pausing, saving and loading) is put in a queue with runLater and run on
+ * the simulation thread before its next step.
+ */
+public class Simulation implements Runnable {
+
+	private GameLoop _loop;
+	private Supplier<GameFrame> _frames;
+	private AtomicReference<GameFrame> _latest;
+	private Queue<Runnable> _tasks;
+	private Thread _thread;
+	private volatile boolean _running;
+
+	/**
+	 * The constructor takes the loop to run and what makes a frame of the
+	 * game, which is called on the simulation thread.
+	 */
+	public Simulation(GameLoop loop, Supplier<GameFrame> frames) {
+		_loop = loop;
+		_frames = frames;
+		_latest = new AtomicReference<GameFrame>();
+		_tasks = new ConcurrentLinkedQueue<Runnable>();
+		_thread = new Thread(this, "simulation");
+		_thread.setDaemon(true);
+	}
+
+	/**
+	 * Publishes the first frame and starts the thread.
+	 */
+	public void start() {
+		_latest.set(_frames.get());
+		_running = true;
+		_thread.start();
+	}
+
+	/**
+	 * Stops the thread and waits for it to finish its step, after which the
+	 * engine can be used from any thread again.
+	 */
+	public void stop() {
+		_running = false;
+		LockSupport.unpark(_thread);
+		try {
+			_thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Runs the task on the simulation thread before its next step.
+	 */
+	public void runLater(Runnable task) {
+		_tasks.add(task);
+		LockSupport.unpark(_thread);
+	}
+
+	/**
+	 * Returns the last frame that was published.
+	 */
+	public GameFrame getLatestFrame() {
+		return _latest.get();
+	}
+
+	@Override
+	public void run() {
+		while (_running) {
+			boolean changed = false;
+			Runnable task = _tasks.poll();
+			while (task != null) {
+				task.run();
+				changed = true;
+				task = _tasks.poll();
+			}
+			if (_loop.advance(System.nanoTime()) > 0) {
+				changed = true;
+			}
+			if (changed) {
+				_latest.lazySet(_frames.get());
+			}
+			// until the next step is due
+			LockSupport.parkNanos((long) ((1 - _loop.getAlpha()) * GameLoop.STEP_NANOS));
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+package Tetris;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A spectator is one subscriber to a broadcast. It remembers which delta it
+ * wants next and reads the deltas from the broadcast's ring one at a time,
+ * so all it keeps of its own is that number. If it falls so far behind that
+ * the delta it wants has been written over, it skips to the broadcast's last
+ * keyframe and counts a drop. Applying the deltas it polls to a game view in
+ * order always gives the game as it was when the last one was published.
+ *
+ * A spectator is only used by one thread at a time, which doesn't have to
+ * be the one publishing.
+ */
+public class Spectator {
+
+	private Broadcast _broadcast;
+	private long _next;
+	private long _drops;
+	private boolean _closed;
+
+	Spectator(Broadcast broadcast, long next) {
+		_broadcast = broadcast;
+		_next = next;
+		_drops = 0;
+		_closed = false;
+	}
+
+	/**
+	 * Puts the next delta in the buffer and returns true, or returns false
+	 * if there isn't one yet. The buffer must have room for
+	 * GameDelta.MAX_SIZE bytes.
+	 */
+	public boolean poll(ByteBuffer buffer) {
+		if (_closed || _next >= _broadcast.getPublished()) {
+			return false;
+		}
+		Broadcast.Entry entry = _broadcast.getEntry(_next);
+		if (entry.getSequence() != _next) {
+			// written over, so everything since the last keyframe is lost
+			_drops++;
+			entry = _broadcast.getLatestKeyframe();
+		}
+		buffer.put(entry.getDelta());
+		_next = entry.getSequence() + 1;
+		return true;
+	}
+
+	/**
+	 * Returns how many deltas are waiting to be polled, which is more than
+	 * the broadcast's capacity if this spectator is going to skip to a
+	 * keyframe.
+	 */
+	public long getBacklog() {
+		return Math.max(0, _broadcast.getPublished() - _next);
+	}
+
+	/**
+	 * Returns how many times this spectator has fallen too far behind and
+	 * skipped to a keyframe.
+	 */
+	public long getDrops() {
+		return _drops;
+	}
+
+	/**
+	 * Stops watching. Nothing more is polled, and once every spectator has
+	 * closed the game stops making deltas.
+	 */
+	public void close() {
+		if (!_closed) {
+			_closed = true;
+			_broadcast.unsubscribe();
+		}
+	}
+
+}
@@ -0,0 +1,25 @@
+package Tetris;
+
+/**
+ * A tick waiter is what a shard of the game server does between its ticks
+ * instead of parking, so the time can be used for something that has to
+ * happen on the shard's thread, like reading and writing the sockets of its
+ * games. The shard calls waitUntil at least once between every two ticks and
+ * again for as long as it returns early.
+ */
+public interface TickWaiter {
+
+	/**
+	 * Waits until the time deadline (from System.nanoTime), doing whatever
+	 * comes up in the meantime. It may return early, and if the deadline has
+	 * already passed it should only do what is waiting and return.
+	 */
+	public void waitUntil(long deadline);
+
+	/**
+	 * Makes waitUntil return as soon as it can. This is called from other
+	 * threads.
+	 */
+	public void wake();
+
+}
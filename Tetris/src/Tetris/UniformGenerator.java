@@ -0,0 +1,22 @@
+package Tetris;
+
+import java.util.SplittableRandom;
+
+/**
+ * The uniform generator picks every piece at random, each kind as likely as
+ * any other, without looking at the pieces before it.
+ */
+public class UniformGenerator implements PieceGenerator {
+
+	private SplittableRandom _random;
+
+	public UniformGenerator(long seed) {
+		_random = new SplittableRandom(seed);
+	}
+
+	@Override
+	public int next() {
+		return _random.nextInt(PieceTable.KINDS);
+	}
+
+}
@@ -0,0 +1,123 @@
+package Tetris;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The versus class is what the boards of a local versus game share, when the
+ * app is started with --players=2 or more. Every board has its own engine
+ * stepped on its own simulation thread, so the boards only meet here: when a
+ * board clears enough lines at once to attack, the garbage it sends is handed
+ * to the board it is aiming at through that board's simulation, whose queue
+ * of tasks is lock free, and the receiving engine takes it in on its own
+ * thread before its next step. No board ever waits for another, so more
+ * boards just means more threads.
+ *
+ * Each board aims at the next board that is still playing, going round in
+ * turn, and picks the hole of the garbage it sends with a random generator
+ * of its own. A board that has lost is never sent anything again.
+ */
+public class Versus {
+
+	private AtomicReferenceArray<Attacker> _players;
+	private AtomicIntegerArray _lost;
+	private long _seed;
+
+	/**
+	 * The constructor makes room for the given number of boards. The seed
+	 * picks the holes of the garbage.
+	 */
+	public Versus(int players, long seed) {
+		_players = new AtomicReferenceArray<Attacker>(players);
+		_lost = new AtomicIntegerArray(players);
+		_seed = seed;
+	}
+
+	/**
+	 * Adds a board to the game and returns the controller its loop should
+	 * use, which sends the garbage its engine has to send before every step
+	 * and then lets the given controller move the piece. The board can be
+	 * sent garbage from now on.
+	 */
+	public Controller join(int player, Engine engine, Simulation simulation,
+			Controller controller) {
+		Attacker attacker = new Attacker(player, engine, simulation, controller);
+		_players.set(player, attacker);
+		return attacker;
+	}
+
+	/**
+	 * Says that a board has lost, so no more garbage is sent to it. This can
+	 * be called from any thread.
+	 */
+	public void lose(int player) {
+		_lost.set(player, 1);
+	}
+
+	/**
+	 * Returns how many boards there are.
+	 */
+	public int getPlayers() {
+		return _players.length();
+	}
+
+	/**
+	 * An attacker is one board's controller. Everything in it is only used on
+	 * that board's simulation thread, except what the other boards' attackers
+	 * use to send it garbage.
+	 */
+	private class Attacker implements Controller {
+
+		private int _player;
+		private Engine _engine;
+		private Simulation _simulation;
+		private Controller _controller;
+		private SplittableRandom _random;
+		private int _target;
+
+		private Attacker(int player, Engine engine, Simulation simulation,
+				Controller controller) {
+			_player = player;
+			_engine = engine;
+			_simulation = simulation;
+			_controller = controller;
+			_random = new SplittableRandom(_seed + player);
+			_target = player;
+		}
+
+		@Override
+		public void step() {
+			int lines = _engine.takeOutgoingGarbage();
+			if (lines > 0) {
+				this.send(lines);
+			}
+			if (_controller != null) {
+				_controller.step();
+			}
+		}
+
+		/**
+		 * Sends the garbage to the next board that is still playing, if
+		 * there is one. The receiving engine is only touched on its own
+		 * thread.
+		 */
+		private void send(int lines) {
+			int players = _players.length();
+			for (int tried = 0; tried < players; tried++) {
+				_target = (_target + 1) % players;
+				Attacker target = _players.get(_target);
+				if (_target != _player && target != null
+						&& _lost.get(_target) == 0) {
+					int hole = Constants.FIRST_COL
+							+ _random.nextInt(Constants.PLAY_WIDTH);
+					Engine engine = target._engine;
+					target._simulation.runLater(() -> engine
+							.receiveGarbage(lines, hole));
+					return;
+				}
+			}
+		}
+	}
+
+}
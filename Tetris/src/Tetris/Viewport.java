@@ -0,0 +1,121 @@
+package Tetris;
+
+/**
+ * The viewport is the part of the board that is drawn. A board of the normal
+ * size fits on the screen, so the viewport is the whole board and never moves,
+ * but a board can be made far bigger than any screen (a thousand rows is fine
+ * for the engine). The viewport is then at most MAX_WIDTH by MAX_HEIGHT pixels
+ * and follows the piece: whenever the piece comes within MARGIN squares of an
+ * edge, or leaves it, the viewport jumps so the piece is in the middle again,
+ * as far as the board goes. The renderers only make or draw squares inside the
+ * viewport, so drawing costs the same however big the board is.
+ */
+public class Viewport {
+
+	private static final int MAX_WIDTH = 1200; // in pixels
+	private static final int MAX_HEIGHT = 800;
+	private static final int MARGIN = 4;
+
+	private int _cols;
+	private int _rows;
+	private int _firstCol;
+	private int _firstRow;
+
+	/**
+	 * The constructor makes the viewport as big as the board or as big as
+	 * fits on the screen, whichever is smaller, starting in the top left
+	 * corner.
+	 */
+	public Viewport() {
+		_cols = Math.min(Constants.BOARD_WIDTH, MAX_WIDTH / Constants.SQUARE_SIZE);
+		_rows = Math.min(Constants.BOARD_HEIGHT, MAX_HEIGHT
+				/ Constants.SQUARE_SIZE);
+		_firstCol = 0;
+		_firstRow = 0;
+	}
+
+	/**
+	 * Moves the viewport if the frame's piece is too near one of its edges.
+	 * Returns whether it moved, in which case everything in it has to be
+	 * drawn again.
+	 */
+	public boolean follow(GameFrame frame) {
+		int firstCol = Viewport.follow(_firstCol, _cols, Constants.BOARD_WIDTH,
+				frame.getPivotCol());
+		int firstRow = Viewport.follow(_firstRow, _rows, Constants.BOARD_HEIGHT,
+				frame.getPivotRow());
+		if (firstCol == _firstCol && firstRow == _firstRow) {
+			return false;
+		}
+		_firstCol = firstCol;
+		_firstRow = firstRow;
+		return true;
+	}
+
+	/**
+	 * Returns where the viewport should start along one side of the board so
+	 * the given square is far enough from both its ends.
+	 */
+	private static int follow(int first, int size, int boardSize, int square) {
+		if (size == boardSize) {
+			return 0;
+		}
+		int margin = Math.min(MARGIN, size / 4);
+		if (square >= first + margin && square < first + size - margin) {
+			return first;
+		}
+		return Math.max(0, Math.min(boardSize - size, square - size / 2));
+	}
+
+	/**
+	 * Returns whether the square at col and row is in the viewport.
+	 */
+	public boolean contains(int col, int row) {
+		return col >= _firstCol && col < _firstCol + _cols && row >= _firstRow
+				&& row < _firstRow + _rows;
+	}
+
+	/**
+	 * Return where the left and top edges of a square are drawn, in pixels
+	 * from the corner of the viewport.
+	 */
+	public double getX(int col) {
+		return (col - _firstCol) * Constants.SQUARE_SIZE;
+	}
+
+	public double getY(int row) {
+		return (row - _firstRow) * Constants.SQUARE_SIZE;
+	}
+
+	/**
+	 * These accessor methods return how many columns and rows the viewport
+	 * shows and the first of each.
+	 */
+	public int getCols() {
+		return _cols;
+	}
+
+	public int getRows() {
+		return _rows;
+	}
+
+	public int getFirstCol() {
+		return _firstCol;
+	}
+
+	public int getFirstRow() {
+		return _firstRow;
+	}
+
+	/**
+	 * Return the size of the viewport in pixels.
+	 */
+	public double getWidth() {
+		return _cols * Constants.SQUARE_SIZE;
+	}
+
+	public double getHeight() {
+		return _rows * Constants.SQUARE_SIZE;
+	}
+
+}
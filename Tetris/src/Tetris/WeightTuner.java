@@ -0,0 +1,435 @@
+package Tetris;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * The weight tuner evolves the evaluator's weights instead of picking them by
+ * hand. It keeps a population of weight vectors and every generation plays
+ * the same GAMES games with each of them, using the search policy with that
+ * vector's evaluator, and a vector's fitness is how many lines it cleared in
+ * all of them. The fittest ELITES vectors are kept as they are and the rest
+ * of the next generation are children of two parents picked by tournament:
+ * their weights averaged by fitness, sometimes nudged at random, and scaled
+ * to length one (only the direction of the weights changes which placement
+ * scores best). The first generation starts from the default weights and
+ * random ones around them.
+ *
+ * The games are played on all cores the way the batch simulator plays them,
+ * but without an engine: each thread has a search policy and a board that
+ * doesn't keep kinds, and a game is the board emptied by copying an empty
+ * board over it, then the generation's pieces placed one after another until
+ * the next one doesn't fit or the pieces run out. The pieces of every game
+ * are dealt before the generation starts. Playing a game makes nothing, and
+ * the tuner measures that: every thread's allocated bytes are read before
+ * and after each game and the difference is reported. (The first
+ * generation after the tuner starts shows a few kilobytes, which is the JVM
+ * loading the classes a game uses.)
+ *
+ * After every generation the tuner writes a checkpoint: the population that
+ * is about to be played, the best weights so far and how long it has run, to
+ * a new file that is then moved over the old one so an interrupted write
+ * never leaves half a checkpoint. Starting the tuner with a checkpoint that
+ * exists carries on from it. The random numbers of a generation come from the
+ * seed and the generation's number, so a tuner that was stopped and started
+ * again evolves exactly the same weights as one that never stopped.
+ */
+public class WeightTuner {
+
+	public static final int MAGIC = 0x54574754; // "TWGT"
+	public static final int VERSION = 1;
+
+	private static final int ELITES = 2;
+	private static final int TOURNAMENT = 3;
+	private static final double MUTATION_RATE = 0.3;
+	private static final double MUTATION_SIZE = 0.2;
+	private static final double SPREAD = 0.5; // of the first generation
+
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	private int _population;
+	private int _games;
+	private int _maxPieces;
+	private long _seed;
+	private int _generation; // the number of the generation played next
+	private double[][] _weights;
+	private double[] _fitness;
+	private double[] _bestWeights;
+	private double _bestFitness;
+	private long _nanos; // spent playing every generation so far
+	private Evaluator[] _evaluators;
+	private byte[][] _pieces; // every game's pieces
+	private long[] _lines; // of every game, by vector and then game
+	private ThreadLocal<Player> _players;
+	private LongAdder _allocated;
+
+	/**
+	 * The constructor makes the first generation: the default weights and
+	 * population - 1 vectors spread around them at random. Each generation
+	 * plays the given number of games of at most maxPieces pieces.
+	 */
+	public WeightTuner(int population, int games, int maxPieces, long seed) {
+		this(population, games, maxPieces, seed, 0, new double[population][]);
+		SplittableRandom random = new SplittableRandom(seed);
+		_weights[0] = WeightTuner.normalize(new Evaluator().getWeights());
+		for (int i = 1; i < population; i++) {
+			double[] weights = _weights[0].clone();
+			for (int feature = 0; feature < Evaluator.FEATURES; feature++) {
+				weights[feature] += SPREAD * (2 * random.nextDouble() - 1);
+			}
+			_weights[i] = WeightTuner.normalize(weights);
+		}
+		_bestWeights = _weights[0];
+		_bestFitness = -1;
+	}
+
+	private WeightTuner(int population, int games, int maxPieces, long seed,
+			int generation, double[][] weights) {
+		_population = population;
+		_games = games;
+		_maxPieces = maxPieces;
+		_seed = seed;
+		_generation = generation;
+		_weights = weights;
+		_fitness = new double[population];
+		_evaluators = new Evaluator[population];
+		_pieces = new byte[games][maxPieces + 1];
+		_lines = new long[population * games];
+		_players = ThreadLocal.withInitial(Player::new);
+		_allocated = new LongAdder();
+	}
+
+	/**
+	 * Plays one generation on a fork join pool with the given number of
+	 * threads and makes the next one.
+	 */
+	public void runGeneration(int threads) {
+		long start = System.nanoTime();
+		this.dealPieces();
+		for (int i = 0; i < _population; i++) {
+			_evaluators[i] = new Evaluator(_weights[i]);
+		}
+		_allocated.reset();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.submit(() -> IntStream.range(0, _population * _games)
+					.parallel().forEach(this::playGame)).join();
+		} finally {
+			pool.shutdown();
+		}
+		for (int i = 0; i < _population; i++) {
+			long lines = 0;
+			for (int game = 0; game < _games; game++) {
+				lines += _lines[i * _games + game];
+			}
+			_fitness[i] = (double) lines / _games;
+			if (_fitness[i] > _bestFitness) {
+				_bestFitness = _fitness[i];
+				_bestWeights = _weights[i];
+			}
+		}
+		this.breed();
+		_generation++;
+		_nanos += System.nanoTime() - start;
+	}
+
+	/**
+	 * Deals the pieces of every game of the generation from the uniform
+	 * generator, with one more than can be placed so the last piece placed
+	 * still has a next piece.
+	 */
+	private void dealPieces() {
+		for (int game = 0; game < _games; game++) {
+			PieceGenerator generator = new UniformGenerator(
+					BatchSimulator.getGameSeed(_seed, _generation * _games
+							+ game));
+			for (int piece = 0; piece <= _maxPieces; piece++) {
+				_pieces[game][piece] = (byte) generator.next();
+			}
+		}
+	}
+
+	private void playGame(int task) {
+		Player player = _players.get();
+		long before = THREADS.getCurrentThreadAllocatedBytes();
+		_lines[task] = player.play(_evaluators[task / _games], _pieces[task
+				% _games]);
+		_allocated.add(THREADS.getCurrentThreadAllocatedBytes() - before);
+	}
+
+	/**
+	 * Makes the next generation out of this one.
+	 */
+	private void breed() {
+		SplittableRandom random = this.getRandom();
+		Integer[] order = new Integer[_population];
+		for (int i = 0; i < _population; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Double.compare(_fitness[b], _fitness[a]));
+		double[][] next = new double[_population][];
+		for (int i = 0; i < _population; i++) {
+			if (i < ELITES) {
+				next[i] = _weights[order[i]];
+				continue;
+			}
+			int a = this.pickParent(random);
+			int b = this.pickParent(random);
+			double fitnessA = _fitness[a] + 1; // so two zeros still average
+			double fitnessB = _fitness[b] + 1;
+			double[] child = new double[Evaluator.FEATURES];
+			for (int feature = 0; feature < Evaluator.FEATURES; feature++) {
+				child[feature] = (fitnessA * _weights[a][feature] + fitnessB
+						* _weights[b][feature]) / (fitnessA + fitnessB);
+			}
+			if (random.nextDouble() < MUTATION_RATE) {
+				child[random.nextInt(Evaluator.FEATURES)] += MUTATION_SIZE
+						* random.nextGaussian();
+			}
+			next[i] = WeightTuner.normalize(child);
+		}
+		_weights = next;
+	}
+
+	/**
+	 * Picks TOURNAMENT vectors at random and returns the fittest of them.
+	 */
+	private int pickParent(SplittableRandom random) {
+		int best = random.nextInt(_population);
+		for (int i = 1; i < TOURNAMENT; i++) {
+			int other = random.nextInt(_population);
+			if (_fitness[other] > _fitness[best]) {
+				best = other;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the random numbers of the generation about to be played or
+	 * made, which only depend on the seed and its number.
+	 */
+	private SplittableRandom getRandom() {
+		return new SplittableRandom(BatchSimulator.getGameSeed(~_seed,
+				_generation));
+	}
+
+	private static double[] normalize(double[] weights) {
+		double length = 0;
+		for (double weight : weights) {
+			length += weight * weight;
+		}
+		length = Math.sqrt(length);
+		double[] normalized = new double[weights.length];
+		for (int i = 0; i < weights.length; i++) {
+			normalized[i] = length == 0 ? 0 : weights[i] / length;
+		}
+		return normalized;
+	}
+
+	/**
+	 * A player is one thread's search policy and boards, made the first time
+	 * the thread plays a game and used for every game after that.
+	 */
+	private static class Player {
+
+		private SearchPolicy _policy;
+		private Board _board;
+		private Board _empty;
+
+		private Player() {
+			_policy = new SearchPolicy(new Evaluator(), 1);
+			_board = new Board(false);
+			_empty = new Board(false);
+		}
+
+		/**
+		 * Plays the pieces on an empty board with the evaluator's weights
+		 * until one doesn't fit or the search leaves a square in the top
+		 * line, and returns the lines cleared.
+		 */
+		private long play(Evaluator evaluator, byte[] pieces) {
+			_policy.setEvaluator(evaluator);
+			_board.copyFrom(_empty);
+			long lines = 0;
+			for (int piece = 0; piece + 1 < pieces.length; piece++) {
+				int kind = pieces[piece];
+				int col = PieceTable.getSpawnCol(kind);
+				int row = PieceTable.getSpawnRow(kind);
+				if (!_board.fits(kind, 0, col, row)) {
+					break;
+				}
+				_policy.findMove(_board, kind, 0, col, row, pieces[piece + 1]);
+				lines += SearchPolicy.drop(_board, kind,
+						_policy.getBestOrientation(), _policy.getBestCol(),
+						row + _policy.getBestDrops());
+				if (!_board.isTopLineEmpty()) {
+					break;
+				}
+			}
+			return lines;
+		}
+	}
+
+	/**
+	 * Writes a checkpoint of the tuner to a new file next to the path and
+	 * then moves it over whatever is at the path.
+	 */
+	public void write(Path path) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(64 + 8 * Evaluator.FEATURES
+				* (_population + 1));
+		buffer.putInt(MAGIC);
+		buffer.put((byte) VERSION);
+		buffer.putInt(_population);
+		buffer.putInt(_games);
+		buffer.putInt(_maxPieces);
+		buffer.putLong(_seed);
+		buffer.putInt(_generation);
+		buffer.putLong(_nanos);
+		buffer.putDouble(_bestFitness);
+		for (double weight : _bestWeights) {
+			buffer.putDouble(weight);
+		}
+		for (double[] weights : _weights) {
+			for (double weight : weights) {
+				buffer.putDouble(weight);
+			}
+		}
+		buffer.flip();
+		Path written = path.resolveSibling(path.getFileName() + ".new");
+		Files.write(written, Arrays.copyOf(buffer.array(), buffer.limit()));
+		Files.move(written, path, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a tuner back from a checkpoint, ready to play the generation it
+	 * was about to.
+	 */
+	public static WeightTuner read(Path path) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+		if (buffer.remaining() < 5 || buffer.getInt() != MAGIC) {
+			throw new IOException("not a tuner checkpoint");
+		}
+		int version = buffer.get();
+		if (version != VERSION) {
+			throw new IOException("can't read checkpoint version " + version);
+		}
+		int population = buffer.getInt();
+		int games = buffer.getInt();
+		int maxPieces = buffer.getInt();
+		long seed = buffer.getLong();
+		int generation = buffer.getInt();
+		long nanos = buffer.getLong();
+		double bestFitness = buffer.getDouble();
+		double[] bestWeights = WeightTuner.readWeights(buffer);
+		double[][] weights = new double[population][];
+		for (int i = 0; i < population; i++) {
+			weights[i] = WeightTuner.readWeights(buffer);
+		}
+		WeightTuner tuner = new WeightTuner(population, games, maxPieces, seed,
+				generation, weights);
+		tuner._nanos = nanos;
+		tuner._bestFitness = bestFitness;
+		tuner._bestWeights = bestWeights;
+		return tuner;
+	}
+
+	private static double[] readWeights(ByteBuffer buffer) {
+		double[] weights = new double[Evaluator.FEATURES];
+		for (int feature = 0; feature < Evaluator.FEATURES; feature++) {
+			weights[feature] = buffer.getDouble();
+		}
+		return weights;
+	}
+
+	/**
+	 * These accessor methods return the number of the generation played
+	 * next, the fitness of every vector of the generation just played, the
+	 * best fitness and weights seen so far, how long every generation took
+	 * altogether in nanoseconds and how many bytes were allocated while the
+	 * last generation's games were played.
+	 */
+	public int getGeneration() {
+		return _generation;
+	}
+
+	public double[] getFitness() {
+		return _fitness.clone();
+	}
+
+	public double getBestFitness() {
+		return _bestFitness;
+	}
+
+	public double[] getBestWeights() {
+		return _bestWeights.clone();
+	}
+
+	public long getNanos() {
+		return _nanos;
+	}
+
+	public long getAllocated() {
+		return _allocated.sum();
+	}
+
+	/**
+	 * This is the main line of the weight tuner. The arguments are the
+	 * checkpoint file, the number of generations to play, the number of
+	 * threads, and for a new tuner the population, the games a generation,
+	 * the most pieces a game and the seed. Everything but the checkpoint can
+	 * be left off from the end. If the checkpoint exists the tuner carries
+	 * on from it with its own population, games, pieces and seed.
+	 */
+	public static void main(String[] argv) throws IOException {
+		if (argv.length < 1) {
+			System.err.println("usage: java Tetris.WeightTuner checkpoint"
+					+ " [generations threads population games pieces seed]");
+			System.exit(1);
+		}
+		Path checkpoint = Paths.get(argv[0]);
+		int generations = argv.length > 1 ? Integer.parseInt(argv[1]) : 10;
+		int threads = argv.length > 2 ? Integer.parseInt(argv[2]) : Runtime
+				.getRuntime().availableProcessors();
+		int population = argv.length > 3 ? Integer.parseInt(argv[3]) : 24;
+		int games = argv.length > 4 ? Integer.parseInt(argv[4]) : 4;
+		int maxPieces = argv.length > 5 ? Integer.parseInt(argv[5]) : 500;
+		long seed = argv.length > 6 ? Long.parseLong(argv[6]) : 0;
+		WeightTuner tuner;
+		if (Files.exists(checkpoint)) {
+			tuner = WeightTuner.read(checkpoint);
+			System.out.printf("carrying on from generation %d of %s%n",
+					tuner.getGeneration(), checkpoint);
+		} else {
+			tuner = new WeightTuner(population, games, maxPieces, seed);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < generations; i++) {
+			tuner.runGeneration(threads);
+			tuner.write(checkpoint);
+			double[] fitness = tuner.getFitness();
+			double hours = (System.nanoTime() - start) / 3.6e12;
+			System.out.printf("generation %d: best %.1f lines, mean %.1f, %.1f generations/hour, %d bytes allocated playing%n",
+					tuner.getGeneration() - 1, Arrays.stream(fitness).max()
+							.getAsDouble(), Arrays.stream(fitness).average()
+							.getAsDouble(), (i + 1) / hours,
+					tuner.getAllocated());
+		}
+		System.out.printf("best %.1f lines with weights %s after %.1f minutes%n",
+				tuner.getBestFitness(), Arrays.toString(tuner.getBestWeights()),
+				tuner.getNanos() / 6e10);
+	}
+
+}
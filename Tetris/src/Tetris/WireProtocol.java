@@ -0,0 +1,360 @@
+package Tetris;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+
+/**
+ * The wire protocol is how a client plays a game on the network server over
+ * TCP. Everything sent either way is a frame: two bytes with the length of
+ * the rest of the frame, a byte saying what kind of frame it is and then what
+ * that kind has in it. A client sends one OPEN frame to start a game, with
+ * the piece generator's name and seed, and then an INPUT frame for every
+ * command the key handler would put in the input queue, numbered one after
+ * another. The server answers the OPEN with a WELCOME that has the game's
+ * id, and then sends a DELTA frame with a game delta whenever a step changes
+ * something, so the board only ever travels as the rows that changed and the
+ * piece as its pose. Every DELTA also has the number of the last INPUT the
+ * server had read before the step, and if a step reads inputs but changes
+ * nothing an ACK frame says so instead, so a client can always tell how long
+ * its inputs took to come back. A frame that is shorter or longer than its
+ * kind says, or of a kind there isn't, is malformed, and isWellFormed has to
+ * be checked before anything else is read from a frame.
+ */
+public final class WireProtocol {
+
+	public static final int OPEN = 1; // the kinds of frame a client sends
+	public static final int INPUT = 2;
+	public static final int WELCOME = 3; // and the ones the server sends
+	public static final int DELTA = 4;
+	public static final int ACK = 5;
+
+	public static final int HEADER_SIZE = 2 + 1; // the length and the kind
+	public static final int INPUT_SIZE = HEADER_SIZE + 1 + 4;
+	public static final int ACK_SIZE = HEADER_SIZE + 4;
+	public static final int MAX_OPEN_SIZE = HEADER_SIZE + 1 + 255 + 8;
+	public static final int MAX_DELTA_SIZE = HEADER_SIZE + 4
+			+ GameDelta.MAX_SIZE;
+	// the length has two bytes, which is enough for a playfield up to a
+	// hundred columns wide and a thousand rows tall
+	public static final int MAX_FRAME_SIZE = 0xFFFF + 2;
+	// how long a game the main line plays at most, in steps
+	private static final long MAX_STEPS = 20000;
+
+	// whole frames that aren't well formed, which the main line and the
+	// network server's main line check are turned away
+	static final byte[][] MALFORMED = {
+			{ 0, 0 }, // no kind
+			{ 0, 1, 9 }, // a kind there isn't
+			{ 0, 2, INPUT, InputQueue.LEFT }, // no number
+			{ 0, 5, OPEN, 100, 'u', 0, 0 }, // the name runs past
+			{ 0, 12, INPUT, InputQueue.LEFT, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0 }, // too long
+			{ 0, 4, ACK, 0, 0, 0 }, // no number
+			{ 0, 5, DELTA, 0, 0, 0, 1 } }; // no delta
+
+	private WireProtocol() {
+		// only static methods
+	}
+
+	/**
+	 * Writes an OPEN frame for a game with the named piece generator and
+	 * seed.
+	 */
+	public static void writeOpen(ByteBuffer buffer, String generator, long seed) {
+		byte[] name = generator.getBytes(StandardCharsets.UTF_8);
+		buffer.putShort((short) (1 + 1 + name.length + 8));
+		buffer.put((byte) OPEN);
+		buffer.put((byte) name.length);
+		buffer.put(name);
+		buffer.putLong(seed);
+	}
+
+	public static void writeInput(ByteBuffer buffer, int command, int sequence) {
+		buffer.putShort((short) (INPUT_SIZE - 2));
+		buffer.put((byte) INPUT);
+		buffer.put((byte) command);
+		buffer.putInt(sequence);
+	}
+
+	public static void writeWelcome(ByteBuffer buffer, int game) {
+		buffer.putShort((short) (ACK_SIZE - 2));
+		buffer.put((byte) WELCOME);
+		buffer.putInt(game);
+	}
+
+	public static void writeAck(ByteBuffer buffer, int sequence) {
+		buffer.putShort((short) (ACK_SIZE - 2));
+		buffer.put((byte) ACK);
+		buffer.putInt(sequence);
+	}
+
+	/**
+	 * Writes a DELTA frame with the game delta that is left in the delta
+	 * buffer, which is read to its end.
+	 */
+	public static void writeDelta(ByteBuffer buffer, int sequence,
+			ByteBuffer delta) {
+		buffer.putShort((short) (1 + 4 + delta.remaining()));
+		buffer.put((byte) DELTA);
+		buffer.putInt(sequence);
+		buffer.put(delta);
+	}
+
+	/**
+	 * Returns the size of the frame that starts at the buffer's position if
+	 * all of it is between there and the buffer's limit, or 0 if more has to
+	 * be read first. Nothing is read.
+	 */
+	public static int getFrameSize(ByteBuffer buffer) {
+		if (buffer.remaining() < 2) {
+			return 0;
+		}
+		int size = 2 + (buffer.getShort(buffer.position()) & 0xFFFF);
+		return size <= buffer.remaining() ? size : 0;
+	}
+
+	/**
+	 * Returns whether the whole frame of the given size that starts at the
+	 * buffer's position is as long as its kind says it must be, so reading
+	 * it can't run past its end. A frame of a kind there isn't is never well
+	 * formed. Nothing is read.
+	 */
+	public static boolean isWellFormed(ByteBuffer buffer, int size) {
+		if (size <= HEADER_SIZE) {
+			return false;
+		}
+		switch (WireProtocol.getKind(buffer)) {
+		case OPEN:
+			int name = buffer.get(buffer.position() + HEADER_SIZE) & 0xFF;
+			return size == HEADER_SIZE + 1 + name + 8;
+		case INPUT:
+			return size == INPUT_SIZE;
+		case WELCOME:
+		case ACK:
+			return size == ACK_SIZE;
+		case DELTA:
+			int delta = buffer.position() + HEADER_SIZE + 4;
+			return size >= HEADER_SIZE + 4 + GameDelta.HEADER_SIZE
+					&& size == HEADER_SIZE + 4 + GameDelta.HEADER_SIZE
+							+ GameDelta.ROW_SIZE
+							* buffer.getShort(delta + GameDelta.HEADER_SIZE - 2);
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the kind of the frame that starts at the buffer's position.
+	 */
+	public static int getKind(ByteBuffer buffer) {
+		return buffer.get(buffer.position() + 2);
+	}
+
+	/**
+	 * Returns the int right after the kind of the frame that starts at the
+	 * buffer's position: the number of an INPUT, DELTA or ACK or the game of
+	 * a WELCOME.
+	 */
+	public static int getNumber(ByteBuffer buffer) {
+		int at = buffer.position() + HEADER_SIZE;
+		return WireProtocol.getKind(buffer) == INPUT ? buffer.getInt(at + 1) : buffer
+				.getInt(at);
+	}
+
+	/**
+	 * Returns the command of the INPUT frame that starts at the buffer's
+	 * position.
+	 */
+	public static int getCommand(ByteBuffer buffer) {
+		return buffer.get(buffer.position() + HEADER_SIZE);
+	}
+
+	/**
+	 * Return the piece generator's name and the seed of the OPEN frame that
+	 * starts at the buffer's position.
+	 */
+	public static String getGenerator(ByteBuffer buffer) {
+		int at = buffer.position() + HEADER_SIZE;
+		byte[] name = new byte[buffer.get(at) & 0xFF];
+		for (int i = 0; i < name.length; i++) {
+			name[i] = buffer.get(at + 1 + i);
+		}
+		return new String(name, StandardCharsets.UTF_8);
+	}
+
+	public static long getSeed(ByteBuffer buffer) {
+		int at = buffer.position() + HEADER_SIZE;
+		return buffer.getLong(at + 1 + (buffer.get(at) & 0xFF));
+	}
+
+	/**
+	 * This main line checks the protocol without a network. For each of the
+	 * given number of games it writes an OPEN frame and makes an engine from
+	 * what it reads back, then plays the game with random INPUT frames,
+	 * stepping the engine after each one. After every step it writes a DELTA
+	 * frame the way the server does and applies what it reads back to a game
+	 * view, which has to be a copy of the engine every time. Every frame is
+	 * also cut a byte short and made a byte long, and neither of those nor any
+	 * of the MALFORMED frames may be well formed. The arguments are the
+	 * number of games and the seed, and both can be left off from the end.
+	 */
+	public static void main(String[] argv) {
+		int games = argv.length > 0 ? Integer.parseInt(argv[0]) : 100;
+		long seed = argv.length > 1 ? Long.parseLong(argv[1]) : 0;
+		ByteBuffer wire = ByteBuffer.allocate(MAX_FRAME_SIZE);
+		ByteBuffer delta = ByteBuffer.allocate(GameDelta.MAX_SIZE);
+		BitSet rows = new BitSet(Constants.BOARD_HEIGHT);
+		SplittableRandom random = new SplittableRandom(seed);
+		long steps = 0;
+		long frames = 0;
+		long badFrames = 0;
+		long badViews = 0;
+		for (int game = 0; game < games; game++) {
+			long gameSeed = BatchSimulator.getGameSeed(seed, game);
+			wire.clear();
+			WireProtocol.writeOpen(wire, PieceGenerator.BAG, gameSeed);
+			wire.flip();
+			if (!WireProtocol.check(wire, OPEN)
+					|| !PieceGenerator.BAG.equals(WireProtocol.getGenerator(wire))
+					|| WireProtocol.getSeed(wire) != gameSeed) {
+				badFrames++;
+			}
+			Engine engine = new Engine(WireProtocol.getGenerator(wire),
+					WireProtocol.getSeed(wire));
+			wire.clear();
+			WireProtocol.writeWelcome(wire, game);
+			wire.flip();
+			if (!WireProtocol.check(wire, WELCOME)
+					|| WireProtocol.getNumber(wire) != game) {
+				badFrames++;
+			}
+			frames += 2;
+			GameView view = new GameView();
+			int sequence = 0;
+			while (!engine.isGameOver() && engine.getSteps() < MAX_STEPS) {
+				if (random.nextInt(4) == 0) {
+					int command = WireProtocol.pickCommand(random);
+					wire.clear();
+					WireProtocol.writeInput(wire, command, ++sequence);
+					wire.flip();
+					if (!WireProtocol.check(wire, INPUT)
+							|| WireProtocol.getNumber(wire) != sequence
+							|| WireProtocol.getCommand(wire) != command) {
+						badFrames++;
+					}
+					WireProtocol.apply(engine, WireProtocol.getCommand(wire));
+					frames++;
+				}
+				engine.step();
+				steps++;
+				engine.takeDirtyRows(rows);
+				delta.clear();
+				GameDelta.write(engine, rows, !view.isSynced(), delta);
+				delta.flip();
+				rows.clear();
+				wire.clear();
+				WireProtocol.writeDelta(wire, sequence, delta);
+				wire.flip();
+				if (!WireProtocol.check(wire, DELTA)
+						|| WireProtocol.getNumber(wire) != sequence) {
+					badFrames++;
+				}
+				wire.position(HEADER_SIZE + 4);
+				view.apply(wire);
+				if (!view.isCopyOf(engine)) {
+					badViews++;
+				}
+				frames++;
+			}
+			wire.clear();
+			WireProtocol.writeAck(wire, sequence);
+			wire.flip();
+			if (!WireProtocol.check(wire, ACK)
+					|| WireProtocol.getNumber(wire) != sequence) {
+				badFrames++;
+			}
+			frames++;
+		}
+		int badMalformed = 0;
+		for (byte[] bytes : MALFORMED) {
+			ByteBuffer frame = ByteBuffer.wrap(bytes);
+			int size = WireProtocol.getFrameSize(frame);
+			if (size != bytes.length || WireProtocol.isWellFormed(frame, size)) {
+				badMalformed++;
+			}
+		}
+		System.out.printf("%d games, %d steps, %d frames over the wire protocol%n",
+				games, steps, frames);
+		System.out.printf("frames that read back wrong or were still well formed a byte off: %d%n",
+				badFrames);
+		System.out.printf("steps after which the view wasn't a copy of the engine: %d%n",
+				badViews);
+		System.out.printf("malformed frames taken as well formed: %d of %d%n",
+				badMalformed, MALFORMED.length);
+	}
+
+	/**
+	 * Returns whether the buffer holds exactly one whole, well formed frame
+	 * of the given kind that isn't well formed any more when it is cut a byte
+	 * short or made a byte longer.
+	 */
+	private static boolean check(ByteBuffer buffer, int kind) {
+		int size = WireProtocol.getFrameSize(buffer);
+		if (size != buffer.remaining()
+				|| !WireProtocol.isWellFormed(buffer, size)
+				|| WireProtocol.getKind(buffer) != kind) {
+			return false;
+		}
+		byte[] bytes = Arrays.copyOf(buffer.array(), size);
+		for (int change = -1; change <= 1; change += 2) {
+			ByteBuffer changed = ByteBuffer.wrap(Arrays.copyOf(bytes, size
+					+ change));
+			changed.putShort(0, (short) (size + change - 2));
+			if (WireProtocol.isWellFormed(changed, size + change)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Picks a key the way a player presses them: mostly shifts and
+	 * rotations, sometimes a soft drop and now and then a hard drop.
+	 */
+	private static int pickCommand(SplittableRandom random) {
+		int pick = random.nextInt(20);
+		if (pick < 12) {
+			return pick < 6 ? InputQueue.LEFT : InputQueue.RIGHT;
+		} else if (pick < 17) {
+			return InputQueue.ROTATE;
+		} else if (pick < 19) {
+			return InputQueue.DOWN;
+		}
+		return InputQueue.DROP;
+	}
+
+	private static void apply(Engine engine, int command) {
+		switch (command) {
+		case InputQueue.LEFT:
+			engine.shiftLeft();
+			break;
+		case InputQueue.RIGHT:
+			engine.shiftRight();
+			break;
+		case InputQueue.DOWN:
+			engine.dropPieceDown();
+			break;
+		case InputQueue.ROTATE:
+			engine.rotate();
+			break;
+		case InputQueue.DROP:
+			engine.dropAllTheWay();
+			break;
+		default:
+			break;
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+package Tetris;
+
+import java.util.SplittableRandom;
+
+/**
+ * The zobrist class has the random keys that boards and engines are hashed
+ * with. Every square of the board has its own random 64 bit key, and a board's
+ * hash is all the keys of its filled squares XORed together, so filling or
+ * emptying a square changes the hash with one XOR and the board can keep its
+ * hash up to date as pieces lock and rows move instead of working it out from
+ * scratch. The frame isn't part of the hash since it never changes. The
+ * falling piece has a key for every kind, orientation, column and row, and an
+ * engine's hash is its board's hash XORed with its piece's key. The keys come
+ * from a fixed seed so hashes are the same every time the app runs.
+ *
+ * The square keys are kept in a table when the board has up to MAX_TABLE
+ * squares. A bigger board would need too much memory for one, so its keys
+ * are worked out from the square's number every time by mixing its bits the
+ * way SplittableRandom does, which gives keys just as random. The piece keys
+ * are always worked out like that, since only a few of them are ever used.
+ */
+public final class Zobrist {
+
+	private static final long SEED = 0x7E7215L;
+	private static final int MAX_TABLE = 1 << 20;
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private static final long[] SQUARE_KEYS = Constants.BOARD_WIDTH
+			* Constants.BOARD_HEIGHT <= MAX_TABLE ? new long[Constants.BOARD_HEIGHT
+			* Constants.BOARD_WIDTH] : null;
+
+	static {
+		if (SQUARE_KEYS != null) {
+			SplittableRandom random = new SplittableRandom(SEED);
+			for (int i = 0; i < SQUARE_KEYS.length; i++) {
+				SQUARE_KEYS[i] = random.nextLong();
+			}
+		}
+	}
+
+	private Zobrist() {
+		// only static lookups
+	}
+
+	/**
+	 * Returns the key of the square at col and row.
+	 */
+	public static long getSquareKey(int col, int row) {
+		int square = row * Constants.BOARD_WIDTH + col;
+		return SQUARE_KEYS != null ? SQUARE_KEYS[square] : Zobrist.mix(square);
+	}
+
+	/**
+	 * Returns the keys of every square set in one word of a row XORed
+	 * together, leaving out the frame's columns.
+	 */
+	public static long getRowKey(int row, int word, long mask) {
+		long key = 0;
+		mask &= Board.getPlayableColumns(word);
+		while (mask != 0) {
+			key ^= Zobrist.getSquareKey(64 * word
+					+ Long.numberOfTrailingZeros(mask), row);
+			mask &= mask - 1;
+		}
+		return key;
+	}
+
+	/**
+	 * Returns the key of a falling piece of the given kind and orientation
+	 * with its third square at col and row.
+	 */
+	public static long getPieceKey(int kind, int orientation, int col, int row) {
+		long piece = ((long) (kind * PieceTable.ORIENTATIONS + orientation)
+				* Constants.BOARD_HEIGHT + row) * Constants.BOARD_WIDTH + col;
+		// after every square's number, so no piece has a square's key
+		return Zobrist.mix((long) Constants.BOARD_WIDTH * Constants.BOARD_HEIGHT
+				+ piece);
+	}
+
+	/**
+	 * Returns the key of a number: SplittableRandom's mixing function applied
+	 * to the seed plus that many steps.
+	 */
+	private static long mix(long number) {
+		long z = SEED + (number + 1) * GOLDEN_GAMMA;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+}